@@ -24,7 +24,17 @@ public class ConfigConstants {
         STORAGE_SYNC(STORAGE + ".sync"),
 
         // RabbitMQ
-        RABBITMQ_DURABLE(RABBITMQ + ".durable");
+        RABBITMQ_DURABLE(RABBITMQ + ".durable"),
+        RABBITMQ_PRIORITY(RABBITMQ + ".priority.enabled"),
+        RABBITMQ_CONFIRM(RABBITMQ + ".confirm.enabled"),
+        RABBITMQ_COALESCE(RABBITMQ + ".coalesce.enabled"),
+        RABBITMQ_CONSUMER_DEDUP(RABBITMQ + ".consumer.dedup.enabled"),
+        RABBITMQ_CONSUMER_RETRY(RABBITMQ + ".consumer.retry.enabled"),
+        RABBITMQ_CONSUMER_VERSIONS(RABBITMQ + ".consumer.versions.enabled"),
+        RABBITMQ_ADAPTIVE_PREFETCH(RABBITMQ + ".adaptive_prefetch.enabled"),
+        RABBITMQ_OUTBOX(RABBITMQ + ".outbox.enabled"),
+        RABBITMQ_METRICS(RABBITMQ + ".metrics.enabled"),
+        RABBITMQ_RECOVERY(RABBITMQ + ".recovery.enabled");
 
         public final String field;
 
@@ -46,6 +56,35 @@ public class ConfigConstants {
         // RabbitMQ
         RABBITMQ_PREFETCH(RABBITMQ + ".prefetch"),
         RABBITMQ_PORT(RABBITMQ + ".port"),
+        RABBITMQ_CHANNEL_POOL_SIZE(RABBITMQ + ".channel_pool.size"),
+        RABBITMQ_CHANNEL_POOL_TIMEOUT(RABBITMQ + ".channel_pool.timeout"),
+        RABBITMQ_CONFIRM_TIMEOUT(RABBITMQ + ".confirm.timeout"),
+        RABBITMQ_PUBLISH_BATCH_SIZE(RABBITMQ + ".publish.batch_size"),
+        RABBITMQ_PUBLISH_WINDOW(RABBITMQ + ".publish.window.size"),
+        RABBITMQ_EMBEDDED_BUFFER_SIZE(RABBITMQ + ".embedded.buffer_size"),
+        RABBITMQ_COMPRESSION_THRESHOLD(RABBITMQ + ".compression.threshold"),
+        RABBITMQ_COALESCE_WINDOW(RABBITMQ + ".coalesce.window"),
+        RABBITMQ_OUTBOX_SEGMENT_SIZE(RABBITMQ + ".outbox.segment_size"),
+        RABBITMQ_OUTBOX_RETRY_INTERVAL(RABBITMQ + ".outbox.retry_interval"),
+        RABBITMQ_CONSUMER_DEDUP_SIZE(RABBITMQ + ".consumer.dedup.size"),
+        RABBITMQ_CONSUMER_DEDUP_TTL(RABBITMQ + ".consumer.dedup.ttl"),
+        RABBITMQ_CONSUMER_VERSIONS_SIZE(RABBITMQ + ".consumer.versions.size"),
+        RABBITMQ_CONSUMER_DRAIN_TIMEOUT(RABBITMQ + ".consumer.drain_timeout"),
+        RABBITMQ_CONSUMER_RETRY_ATTEMPTS(RABBITMQ + ".consumer.retry.max_attempts"),
+        RABBITMQ_CONSUMER_RETRY_DELAY(RABBITMQ + ".consumer.retry.delay"),
+        RABBITMQ_CONSUMER_RETRY_MAX_DELAY(RABBITMQ + ".consumer.retry.max_delay"),
+        RABBITMQ_ADAPTIVE_PREFETCH_MIN(RABBITMQ + ".adaptive_prefetch.min"),
+        RABBITMQ_ADAPTIVE_PREFETCH_MAX(RABBITMQ + ".adaptive_prefetch.max"),
+        RABBITMQ_ADAPTIVE_PREFETCH_TARGET(RABBITMQ + ".adaptive_prefetch.target"),
+        RABBITMQ_ADAPTIVE_PREFETCH_INTERVAL(RABBITMQ + ".adaptive_prefetch.interval"),
+        RABBITMQ_CONSUMER_LANES(RABBITMQ + ".consumer.lanes"),
+        RABBITMQ_CONSUMER_CARRIERS(RABBITMQ + ".consumer.carriers"),
+        RABBITMQ_CONSUMER_BATCH_SIZE(RABBITMQ + ".consumer.batch.size"),
+        RABBITMQ_CONSUMER_BATCH_TIMEOUT(RABBITMQ + ".consumer.batch.timeout"),
+        RABBITMQ_METRICS_SAMPLE_INTERVAL(RABBITMQ + ".metrics.sample_interval"),
+        RABBITMQ_PARTITION_COUNT(RABBITMQ + ".partition.count"),
+        RABBITMQ_PARTITION_REBALANCE_INTERVAL(RABBITMQ + ".partition.rebalance_interval"),
+        RABBITMQ_RECOVERY_INTERVAL(RABBITMQ + ".recovery.interval"),
 
         // MongoDB
         MONGODB_PORT(MONGODB + ".port");
@@ -73,6 +112,13 @@ public class ConfigConstants {
         RABBITMQ_HOST(RABBITMQ + ".host"),
         RABBITMQ_VHOST(RABBITMQ + ".vhost"),
         RABBITMQ_QUEUE_NAME(RABBITMQ + ".queue"),
+        RABBITMQ_CONSUMER_MODE(RABBITMQ + ".consumer.mode"),
+        RABBITMQ_CODEC(RABBITMQ + ".codec"),
+        RABBITMQ_PUBLISH_WINDOW_MODE(RABBITMQ + ".publish.window.mode"),
+        RABBITMQ_TRANSPORT(RABBITMQ + ".transport"),
+        RABBITMQ_EMBEDDED_PRODUCER(RABBITMQ + ".embedded.producer"),
+        RABBITMQ_EMBEDDED_WAIT(RABBITMQ + ".embedded.wait"),
+        RABBITMQ_OUTBOX_DIR(RABBITMQ + ".outbox.dir"),
 
         // MongoDB
         MONGODB_URI(MONGODB + ".uri"),
@@ -1,5 +1,8 @@
 package com.silibrina.tecnova.commons.conf;
 
+import com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans;
+import com.silibrina.tecnova.commons.conf.ConfigConstants.Integers;
+import com.silibrina.tecnova.commons.conf.ConfigConstants.Strings;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 
@@ -18,4 +21,46 @@ public class ConfigLoader {
 
         return ConfigFactory.load();
     }
+
+    /**
+     * Reads an optional integer field, falling back to the given value
+     * when the field is not declared.
+     *
+     * @param config the configuration to read from.
+     * @param field the field to be read.
+     * @param defaultValue the value to use if the field is absent.
+     *
+     * @return the configured value or the default one.
+     */
+    public static int getInt(Config config, Integers field, int defaultValue) {
+        return config.hasPath(field.field) ? config.getInt(field.field) : defaultValue;
+    }
+
+    /**
+     * Reads an optional boolean field, falling back to the given value
+     * when the field is not declared.
+     *
+     * @param config the configuration to read from.
+     * @param field the field to be read.
+     * @param defaultValue the value to use if the field is absent.
+     *
+     * @return the configured value or the default one.
+     */
+    public static boolean getBoolean(Config config, Booleans field, boolean defaultValue) {
+        return config.hasPath(field.field) ? config.getBoolean(field.field) : defaultValue;
+    }
+
+    /**
+     * Reads an optional string field, falling back to the given value
+     * when the field is not declared.
+     *
+     * @param config the configuration to read from.
+     * @param field the field to be read.
+     * @param defaultValue the value to use if the field is absent.
+     *
+     * @return the configured value or the default one.
+     */
+    public static String getString(Config config, Strings field, String defaultValue) {
+        return config.hasPath(field.field) ? config.getString(field.field) : defaultValue;
+    }
 }
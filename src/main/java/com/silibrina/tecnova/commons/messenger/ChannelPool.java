@@ -0,0 +1,207 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.ShutdownSignalException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * A bounded pool of channels opened over the shared connection.
+ *
+ * A channel must not be used by two threads at the same time, so each caller
+ * borrows a channel for the duration of an operation and gives it back with
+ * {@link #release(Channel)}. Channels are created lazily, up to the maximum size
+ * of the pool; after that callers wait for a channel to be released.
+ *
+ * Channels closed because the connection was lost are kept while the connection
+ * is recovered, since they are recovered with it (see {@link ConnectionManager}).
+ */
+public class ChannelPool implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(ChannelPool.class);
+
+    private final ConnectionManager connectionManager;
+    private final ChannelInitializer initializer;
+    private final BlockingQueue<Channel> idle;
+    private final AtomicInteger created;
+    private final int maxSize;
+    private final long timeout;
+
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool of channels.
+     *
+     * @param connectionManager the manager holding the connection where channels are opened.
+     * @param maxSize maximum number of channels this pool keeps open.
+     * @param timeout time, in milliseconds, to wait for a free channel.
+     * @param initializer configures each channel right after it is opened.
+     */
+    public ChannelPool(ConnectionManager connectionManager, int maxSize, long timeout,
+                       ChannelInitializer initializer) {
+        checkCondition("channel pool size must be positive", maxSize > 0);
+
+        this.connectionManager = connectionManager;
+        this.initializer = initializer;
+        this.maxSize = maxSize;
+        this.timeout = timeout;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+        this.created = new AtomicInteger();
+    }
+
+    /**
+     * Takes a channel from the pool, opening a new one if the pool is not full.
+     *
+     * @return an open channel reserved to the caller.
+     *
+     * @throws IOException if the pool is closed, a channel could not be opened
+     *                      or no channel was released in time.
+     */
+    public Channel borrow() throws IOException {
+        checkIOCondition("channel pool is closed", !closed);
+
+        Channel channel = idle.poll();
+        while (channel == null || !channel.isOpen()) {
+            if (channel != null && connectionManager.isRecovering(channel)) {
+                release(channel);
+                throw new IOException("connection with the broker is being recovered");
+            }
+            if (channel != null) {
+                discard(channel);
+            }
+
+            channel = create();
+            if (channel == null) {
+                channel = await();
+            }
+        }
+        return channel;
+    }
+
+    /**
+     * Gives a channel back to the pool. Closed channels are discarded so a new
+     * one can take their place, unless they are being recovered.
+     *
+     * @param channel the channel taken with {@link #borrow()}.
+     */
+    public void release(Channel channel) {
+        if (channel == null) {
+            return;
+        }
+
+        boolean usable = channel.isOpen() || connectionManager.isRecovering(channel);
+        if (closed || !usable || !idle.offer(channel)) {
+            discard(channel);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+
+        Channel channel;
+        while ((channel = idle.poll()) != null) {
+            discard(channel);
+        }
+    }
+
+    private Channel create() throws IOException {
+        // a pool closed meanwhile must not open the connection again
+        checkIOCondition("channel pool is closed", !closed);
+
+        int current;
+        do {
+            current = created.get();
+            if (current >= maxSize) {
+                return null;
+            }
+        } while (!created.compareAndSet(current, current + 1));
+
+        Channel channel = null;
+        try {
+            channel = connectionManager.getConnection().createChannel();
+            checkIOCondition("no channel available in the connection", channel != null);
+            if (initializer != null) {
+                initializer.initialize(channel);
+            }
+            logger.debug("opened channel {} ({}/{})", channel.getChannelNumber(), current + 1, maxSize);
+            return channel;
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            created.decrementAndGet();
+            closeQuietly(channel);
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    private Channel await() throws IOException {
+        try {
+            Channel channel = idle.poll(timeout, TimeUnit.MILLISECONDS);
+            checkIOCondition("timed out waiting for a free channel", channel != null);
+            return channel;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a free channel");
+        }
+    }
+
+    private void discard(Channel channel) {
+        created.decrementAndGet();
+        closeQuietly(channel);
+    }
+
+    /**
+     * Closes a channel. A recoverable channel is closed even if it is not open, or
+     * it would be recovered with the connection.
+     */
+    private void closeQuietly(Channel channel) {
+        if (channel != null && (channel.isOpen() || channel instanceof Recoverable)) {
+            try {
+                channel.close();
+            } catch (IOException | TimeoutException e) {
+                logger.warn("An error happened while closing channel", e);
+            } catch (ShutdownSignalException e) {
+                logger.debug("channel was already closed: {}", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the number of channels currently open by this pool.
+     */
+    public int size() {
+        return created.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(),
+                "%s [open: %d, idle: %d, maxSize: %d]",
+                this.getClass().getSimpleName(), created.get(), idle.size(), maxSize);
+    }
+
+    /**
+     * Configures a channel before it is handed out by the pool for the first time.
+     */
+    public interface ChannelInitializer {
+
+        /**
+         * @param channel the channel that was just opened.
+         *
+         * @throws IOException if the channel could not be configured.
+         */
+        void initialize(Channel channel) throws IOException;
+    }
+}
@@ -0,0 +1,239 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.silibrina.tecnova.commons.messenger.metrics.LatencyHistogram;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_RECOVERY;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PORT;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_RECOVERY_INTERVAL;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Strings.*;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getBoolean;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getInt;
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * Keeps a single connection with the RabbitMQ service shared by every
+ * {@link MessengerService} in this process.
+ *
+ * The connection is only opened when the first service acquires it and it is
+ * closed when the last service releases it. Services must not close the
+ * connection themselves, they open their own channels over it instead.
+ *
+ * With rabbitmq.recovery.enabled set (the default), a connection lost to a network
+ * failure is recovered by the client, trying again every rabbitmq.recovery.interval
+ * milliseconds: its channels, the queues declared on them, their prefetch, confirm
+ * mode and consumers are all restored. The time each recovery took is logged and
+ * kept in {@link #getRecoveryTimes()}.
+ */
+public final class ConnectionManager {
+    private static final Logger logger = LoggerFactory.getLogger(ConnectionManager.class);
+
+    private static final int DEFAULT_RECOVERY_INTERVAL = 5000;
+
+    private static ConnectionManager instance;
+
+    private final ConnectionFactory factory;
+    private final LatencyHistogram recoveryTimes;
+
+    private Connection connection;
+    private int references;
+    private volatile boolean recovering;
+    private volatile long lostAt;
+
+    /**
+     * @param factory opens the shared connection.
+     */
+    ConnectionManager(ConnectionFactory factory) {
+        this.factory = factory;
+        this.recoveryTimes = new LatencyHistogram();
+    }
+
+    /**
+     * Gets the connection manager of this process, creating it on the first call.
+     *
+     * @return the shared connection manager.
+     */
+    public static synchronized ConnectionManager getInstance() {
+        if (instance == null) {
+            instance = new ConnectionManager(newConnectionFactory(ConfigFactory.load()));
+        }
+        return instance;
+    }
+
+    /**
+     * Replaces the connection manager of this process, so services connect somewhere
+     * else than the configured broker (e.g. a stand-in broker in tests and benchmarks).
+     * Only services created afterwards use the new manager.
+     *
+     * @param manager the connection manager to be used from now on.
+     */
+    static synchronized void setInstance(ConnectionManager manager) {
+        instance = manager;
+    }
+
+    /**
+     * Acquires the shared connection, opening it if necessary. Every call must be
+     * paired with a call to {@link #release()}.
+     *
+     * @return an open connection with the RabbitMQ service.
+     *
+     * @throws IOException if an error occurs while opening the connection.
+     * @throws TimeoutException if a connection could not be created.
+     */
+    public synchronized Connection acquire() throws IOException, TimeoutException {
+        Connection connection = open();
+        references++;
+        return connection;
+    }
+
+    /**
+     * Gets the shared connection without taking a reference to it, opening it
+     * again if it was closed by the broker and is not being recovered. The caller
+     * must hold a reference taken with {@link #acquire()}, so a connection released
+     * by every service is not opened again and left behind.
+     *
+     * @return an open connection with the RabbitMQ service.
+     *
+     * @throws IOException if no reference to the connection is held or an error
+     *                      occurs while opening it.
+     * @throws TimeoutException if a connection could not be created.
+     */
+    public synchronized Connection getConnection() throws IOException, TimeoutException {
+        checkIOCondition("connection was released by every service", references > 0);
+        return open();
+    }
+
+    private Connection open() throws IOException, TimeoutException {
+        if (connection == null || !(connection.isOpen() || recovering)) {
+            logger.debug("opening shared connection...");
+            connection = factory.newConnection();
+            recovering = false;
+            watch(connection);
+        }
+        return connection;
+    }
+
+    /**
+     * Measures how long the connection takes to recover once it is lost.
+     */
+    private void watch(Connection connection) {
+        if (!(connection instanceof Recoverable)) {
+            return;
+        }
+
+        connection.addShutdownListener(cause -> {
+            if (!cause.isInitiatedByApplication()) {
+                lostAt = System.nanoTime();
+                recovering = true;
+                logger.warn("connection lost, recovering it: {}", cause.getMessage());
+            }
+        });
+        ((Recoverable) connection).addRecoveryListener(recoverable -> {
+            long elapsed = System.nanoTime() - lostAt;
+            recovering = false;
+            recoveryTimes.record(elapsed);
+            logger.info("connection recovered after {} ms", TimeUnit.NANOSECONDS.toMillis(elapsed));
+        });
+    }
+
+    /**
+     * @return true while the shared connection is lost and the client is recovering it.
+     */
+    public boolean isRecovering() {
+        return recovering;
+    }
+
+    /**
+     * @param channel a channel opened over the shared connection.
+     *
+     * @return true if the channel is closed because the connection was lost, and will
+     *          be recovered with it, so it must be kept rather than replaced.
+     */
+    public boolean isRecovering(Channel channel) {
+        return recovering && channel instanceof Recoverable;
+    }
+
+    /**
+     * @param channel a channel that was closed.
+     * @param cause why the channel was closed.
+     *
+     * @return true if the channel was closed because the connection was lost, and will
+     *          be recovered with it.
+     */
+    public static boolean isRecoverableShutdown(Channel channel, ShutdownSignalException cause) {
+        return channel instanceof Recoverable && cause.isHardError() && !cause.isInitiatedByApplication();
+    }
+
+    /**
+     * @return how long the recoveries of the shared connection took.
+     */
+    public LatencyHistogram.Snapshot getRecoveryTimes() {
+        return recoveryTimes.snapshot();
+    }
+
+    /**
+     * Releases a reference taken with {@link #acquire()}. The connection is
+     * closed when no service holds it anymore.
+     *
+     * @throws IOException if an error occurs while closing the connection.
+     */
+    public synchronized void release() throws IOException {
+        if (references > 0) {
+            references--;
+        }
+
+        if (references == 0 && connection != null) {
+            logger.debug("closing shared connection...");
+            if (connection.isOpen()) {
+                connection.close();
+            } else {
+                // stops a recovery in progress
+                connection.abort();
+            }
+            connection = null;
+            recovering = false;
+        }
+    }
+
+    private static ConnectionFactory newConnectionFactory(Config config) {
+        ConnectionFactory factory = new ConnectionFactory();
+        factory.setVirtualHost(config.getString(RABBITMQ_VHOST.field));
+        factory.setHost(config.getString(RABBITMQ_HOST.field));
+        factory.setPort(config.getInt(RABBITMQ_PORT.field));
+        factory.setPassword(config.getString(RABBITMQ_PASSWORD.field));
+        factory.setUsername(config.getString(RABBITMQ_USERNAME.field));
+
+        boolean recovery = getBoolean(config, RABBITMQ_RECOVERY, true);
+        factory.setAutomaticRecoveryEnabled(recovery);
+        factory.setTopologyRecoveryEnabled(recovery);
+        factory.setNetworkRecoveryInterval(getInt(config, RABBITMQ_RECOVERY_INTERVAL, DEFAULT_RECOVERY_INTERVAL));
+        return factory;
+    }
+
+    /**
+     * @return the number of references to the shared connection currently held.
+     */
+    synchronized int getReferences() {
+        return references;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(),
+                "%s [connection: %s, references: %d, recovering: %b]",
+                this.getClass().getSimpleName(), connection, references, recovering);
+    }
+}
@@ -0,0 +1,27 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+
+/**
+ * The still encoded payload of a received {@link Message}, pointing to the
+ * region of the message body where it is.
+ */
+final class EncodedPayload {
+    final byte[] buffer;
+    final int offset;
+    final int length;
+    final MessageCodec codec;
+
+    EncodedPayload(byte[] buffer, int offset, int length, MessageCodec codec) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        this.codec = codec;
+    }
+
+    JsonNode decode() throws IOException {
+        return codec.decodePayload(buffer, offset, length);
+    }
+}
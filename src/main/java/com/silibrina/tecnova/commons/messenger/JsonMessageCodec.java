@@ -0,0 +1,165 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static com.silibrina.tecnova.commons.messenger.Message.ENTRY_ID;
+import static com.silibrina.tecnova.commons.messenger.Message.MESSAGE_TYPE;
+import static com.silibrina.tecnova.commons.messenger.Message.PAYLOAD;
+import static com.silibrina.tecnova.commons.messenger.Message.VERSION;
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * Encodes messages as JSON objects, with the fields entry_id, type and payload, plus
+ * version for messages that have one.
+ *
+ * The mapper, reader and factory are created once and shared, since they are
+ * thread-safe once configured. Messages are decoded with a streaming parser: only
+ * type and entry_id are read, the payload is skipped and kept as raw bytes until
+ * it is accessed. A message whose payload was never accessed is encoded again by
+ * copying those bytes.
+ */
+public class JsonMessageCodec implements MessageCodec {
+    public static final String CONTENT_TYPE = "application/json";
+
+    private static final int BUFFER_SIZE = 512;
+    private static final JsonMessageCodec instance = new JsonMessageCodec();
+
+    private final JsonFactory factory;
+    private final ObjectReader payloadReader;
+
+    protected JsonMessageCodec(ObjectMapper mapper) {
+        mapper.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+
+        this.factory = mapper.getFactory();
+        this.payloadReader = mapper.reader(JsonNode.class);
+    }
+
+    private JsonMessageCodec() {
+        this(new ObjectMapper());
+    }
+
+    /**
+     * @return the JSON codec shared by the messenger services.
+     */
+    public static JsonMessageCodec getInstance() {
+        return instance;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    public byte[] encode(Message message) throws JsonProcessingException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(BUFFER_SIZE);
+        try {
+            encode(message, out);
+        } catch (JsonProcessingException e) {
+            throw e;
+        } catch (IOException e) {
+            throw new JsonMappingException("message could not be encoded", e);
+        }
+        return out.toByteArray();
+    }
+
+    @Override
+    public void encode(Message message, OutputStream out) throws IOException {
+        try (JsonGenerator generator = factory.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField(ENTRY_ID, message.getEntryId());
+            generator.writeStringField(MESSAGE_TYPE, message.getType().toString());
+            if (message.getVersion() != Message.NO_VERSION) {
+                generator.writeNumberField(VERSION, message.getVersion());
+            }
+            generator.writeFieldName(PAYLOAD);
+            writePayload(generator, message);
+            generator.writeEndObject();
+        }
+    }
+
+    private void writePayload(JsonGenerator generator, Message message) throws IOException {
+        EncodedPayload encoded = message.getEncodedPayload();
+        if (encoded != null && encoded.codec == this && canCopyPayload()) {
+            generator.writeRawValue(new String(encoded.buffer, encoded.offset, encoded.length, StandardCharsets.UTF_8));
+        } else if (message.getPayload() == null) {
+            generator.writeNull();
+        } else {
+            generator.writeTree(message.getPayload());
+        }
+    }
+
+    @Override
+    public Message decode(byte[] body) throws IOException {
+        try (JsonParser parser = factory.createParser(body)) {
+            checkIOCondition("message must be an object", parser.nextToken() == JsonToken.START_OBJECT);
+
+            String type = null;
+            String entryId = null;
+            long version = Message.NO_VERSION;
+            EncodedPayload encoded = null;
+            JsonNode payload = null;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+
+                if (MESSAGE_TYPE.equals(field)) {
+                    type = parser.getValueAsString();
+                } else if (ENTRY_ID.equals(field)) {
+                    entryId = parser.getValueAsString();
+                } else if (VERSION.equals(field)) {
+                    version = parser.getValueAsLong();
+                } else if (PAYLOAD.equals(field)) {
+                    if (token.isStructStart() && canCopyPayload()) {
+                        encoded = locatePayload(parser, body);
+                    } else if (token != JsonToken.VALUE_NULL) {
+                        payload = parser.readValueAsTree();
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            checkIOCondition("message must have a type", type != null);
+            return encoded != null ?
+                    Message.withEncodedPayload(Message.MessageType.valueOf(type), entryId, version, encoded) :
+                    new Message(Message.MessageType.valueOf(type), entryId, payload, version);
+        }
+    }
+
+    private EncodedPayload locatePayload(JsonParser parser, byte[] body) throws IOException {
+        // the token location of a value that follows a field name points to the field name,
+        // but the parser stops right after the single byte that opens the object or array
+        int start = (int) parser.getCurrentLocation().getByteOffset() - 1;
+        parser.skipChildren();
+        int end = (int) parser.getCurrentLocation().getByteOffset();
+        return new EncodedPayload(body, start, end - start, this);
+    }
+
+    @Override
+    public JsonNode decodePayload(byte[] buffer, int offset, int length) throws IOException {
+        return payloadReader.readValue(buffer, offset, length);
+    }
+
+    /**
+     * @return true if a payload can be cut out of a message body and decoded or
+     *          encoded again on its own.
+     */
+    protected boolean canCopyPayload() {
+        return true;
+    }
+}
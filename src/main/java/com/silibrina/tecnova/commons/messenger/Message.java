@@ -2,16 +2,15 @@ package com.silibrina.tecnova.commons.messenger;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.ObjectReader;
-import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import play.libs.Json;
 
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.Locale;
 
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
 import static com.silibrina.tecnova.commons.utils.Preconditions.checkNotNullCondition;
 import static com.silibrina.tecnova.commons.utils.Preconditions.checkValidString;
 
@@ -19,23 +18,60 @@ import static com.silibrina.tecnova.commons.utils.Preconditions.checkValidString
  * This is the message that goes around in our message queue service.
  * It includes two simple fields, the entry and the type of operation
  * to be executed over this entry (CREATE, UPDATE or DELETE).
+ *
+ * Received messages keep their payload encoded until {@link #getPayload()}
+ * is called, so consumers that do not look at it never pay for parsing it.
+ *
+ * A message may carry the version of the entry it was produced from, growing with
+ * every change of the entry (e.g. {@code EntryMetadata.getUpdatedAt().getTime()}).
+ * Consumers use it to skip messages made stale by a newer one that was handled
+ * first (see {@code VersionTable}). Messages without a version are never skipped.
  */
 public class Message {
     public static final String ENTRY_ID = "entry_id";
     public static final String MESSAGE_TYPE = "type";
     public static final String PAYLOAD = "payload";
+    public static final String VERSION = "version";
+
+    /** The version of messages whose producer did not give one. */
+    public static final long NO_VERSION = 0L;
 
     private final MessageType type;
     private final String entryId;
-    private final JsonNode payload;
+    private final long version;
+    private final EncodedPayload encodedPayload;
+
+    private volatile JsonNode payload;
 
     public Message(MessageType type, String id, JsonNode payload) {
+        this(type, id, payload, NO_VERSION);
+    }
+
+    /**
+     * @param type the operation over the entry.
+     * @param id the id of the entry.
+     * @param payload the payload of the message.
+     * @param version the version of the entry, positive and growing with each change of
+     *                the entry, or {@link #NO_VERSION}.
+     */
+    public Message(MessageType type, String id, JsonNode payload, long version) {
+        this(type, id, version, payload, null);
+    }
+
+    static Message withEncodedPayload(MessageType type, String id, long version, EncodedPayload encodedPayload) {
+        return new Message(type, id, version, null, encodedPayload);
+    }
+
+    private Message(MessageType type, String id, long version, JsonNode payload, EncodedPayload encodedPayload) {
         checkNotNullCondition("type can not be null", type);
         checkValidString("entry entryId must be a valid string", id);
+        checkCondition("version can not be negative", version >= NO_VERSION);
 
         this.type = type;
         this.entryId = id;
+        this.version = version;
         this.payload = payload;
+        this.encodedPayload = encodedPayload;
     }
 
     public String getEntryId() {
@@ -46,34 +82,113 @@ public class Message {
         return type;
     }
 
+    /**
+     * @return the version of the entry this message was produced from,
+     *          or {@link #NO_VERSION} if it has none.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Gets the payload of this message, decoding it on the first call if this
+     * message was received from the queue.
+     *
+     * @return the payload of this message.
+     *
+     * @throws UncheckedIOException if the received payload is malformed.
+     */
     public JsonNode getPayload() {
-        return payload;
+        JsonNode current = payload;
+        if (current == null && encodedPayload != null) {
+            try {
+                current = encodedPayload.decode();
+            } catch (IOException e) {
+                throw new UncheckedIOException("payload could not be decoded", e);
+            }
+            payload = current;
+        }
+        return current;
+    }
+
+    EncodedPayload getEncodedPayload() {
+        return encodedPayload;
     }
 
     public JsonNode toJson() {
         ObjectNode body = Json.newObject();
         body.put(ENTRY_ID, entryId);
         body.put(MESSAGE_TYPE, type.toString());
-        return body.set(PAYLOAD, payload);
+        if (version != NO_VERSION) {
+            body.put(VERSION, version);
+        }
+        return body.set(PAYLOAD, getPayload());
     }
 
     public byte[] toByteArray() throws JsonProcessingException {
-        ObjectWriter writer = new ObjectMapper().writer();
-        return writer.writeValueAsBytes(toJson());
+        return JsonMessageCodec.getInstance().encode(this);
+    }
+
+    /**
+     * Serializes this message into the given stream. This allows a caller
+     * publishing many messages to reuse the same buffer for all of them.
+     *
+     * @param out the stream where the message will be written.
+     *
+     * @throws IOException if an error happens while writing.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        JsonMessageCodec.getInstance().encode(this, out);
+    }
+
+    /**
+     * Encodes this message with the given codec.
+     *
+     * @param codec the codec to encode this message with.
+     *
+     * @return the encoded message.
+     *
+     * @throws JsonProcessingException if the message could not be encoded.
+     */
+    public byte[] toByteArray(MessageCodec codec) throws JsonProcessingException {
+        return codec.encode(this);
     }
 
     public static Message fromByteArray(byte[] body) throws IOException {
-        ObjectReader reader = new ObjectMapper().reader();
-        JsonNode tree = reader.readTree(new ByteArrayInputStream(body));
-        return new Message(MessageType.valueOf(tree.get(MESSAGE_TYPE).asText()),
-                tree.get(ENTRY_ID).asText(), tree.get(PAYLOAD));
+        return JsonMessageCodec.getInstance().decode(body);
+    }
+
+    /**
+     * Decodes a message with the codec of the given content type.
+     *
+     * @param body the encoded message.
+     * @param contentType the content type of the message, as found in its properties.
+     *
+     * @return the decoded message.
+     *
+     * @throws IOException if the message is malformed.
+     */
+    public static Message fromByteArray(byte[] body, String contentType) throws IOException {
+        return MessageCodecs.forContentType(contentType).decode(body);
     }
 
+    /**
+     * Shows the payload only if it was already decoded, so logging a received
+     * message does not decode it.
+     */
     @Override
     public String toString() {
         return String.format(Locale.getDefault(),
-                "%s [type: %s, entryId: %s, payload: %s]",
-                this.getClass().getSimpleName(), type, entryId, payload);
+                "%s [type: %s, entryId: %s, version: %d, payload: %s]",
+                this.getClass().getSimpleName(), type, entryId, version, describePayload());
+    }
+
+    private String describePayload() {
+        JsonNode current = payload;
+        if (current == null && encodedPayload != null) {
+            return encodedPayload.length + " encoded bytes";
+        }
+        return String.valueOf(current);
     }
 
     @Override
@@ -95,9 +210,26 @@ public class Message {
         return result;
     }
 
+    /**
+     * The operation over the entry. Deletions (takedowns) have a higher priority,
+     * so they are not stuck behind large imports when priority queues are enabled.
+     * Creations and updates share the same priority to keep their relative order.
+     * A deletion can still overtake a creation or update of its entry published
+     * before it, so versions (see {@link Message#getVersion()}) should be set when
+     * priority queues are enabled.
+     */
     public enum MessageType {
-        CREATE,
-        DELETE,
-        UPDATE
+        CREATE(0),
+        DELETE(1),
+        UPDATE(0);
+
+        /** The highest priority of a message type, declared as x-max-priority of the queues. */
+        public static final int MAX_PRIORITY = 1;
+
+        public final int priority;
+
+        MessageType(int priority) {
+            this.priority = priority;
+        }
     }
 }
@@ -0,0 +1,64 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Converts {@link Message}s to and from the bytes that go over the message queue.
+ * Implementations must be thread-safe, a single instance is shared by all publishers
+ * and consumers.
+ */
+public interface MessageCodec {
+
+    /**
+     * @return the content type set in the properties of the messages encoded by this codec.
+     */
+    String getContentType();
+
+    /**
+     * @param message the message to be encoded.
+     *
+     * @return the encoded message.
+     *
+     * @throws JsonProcessingException if the message could not be encoded.
+     */
+    byte[] encode(Message message) throws JsonProcessingException;
+
+    /**
+     * Encodes a message into the given stream, which is not closed afterwards.
+     *
+     * @param message the message to be encoded.
+     * @param out the stream where the message will be written.
+     *
+     * @throws IOException if the message could not be encoded or written.
+     */
+    void encode(Message message, OutputStream out) throws IOException;
+
+    /**
+     * Decodes a message. Implementations may keep the payload encoded until
+     * {@link Message#getPayload()} is first called.
+     *
+     * @param body the encoded message.
+     *
+     * @return the decoded message.
+     *
+     * @throws IOException if the message is malformed.
+     */
+    Message decode(byte[] body) throws IOException;
+
+    /**
+     * Decodes a payload kept encoded by {@link #decode(byte[])}.
+     *
+     * @param buffer the buffer holding the payload.
+     * @param offset where the payload starts in the buffer.
+     * @param length the length of the payload.
+     *
+     * @return the decoded payload.
+     *
+     * @throws IOException if the payload is malformed.
+     */
+    JsonNode decodePayload(byte[] buffer, int offset, int length) throws IOException;
+}
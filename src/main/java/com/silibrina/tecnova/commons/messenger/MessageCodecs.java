@@ -0,0 +1,85 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.silibrina.tecnova.commons.exceptions.UnrecoverableErrorException;
+import com.typesafe.config.Config;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Strings.RABBITMQ_CODEC;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getString;
+import static com.silibrina.tecnova.commons.exceptions.ExitStatus.CONFIGURATION_ERROR_STATUS;
+
+/**
+ * Provides the {@link MessageCodec}s known by the messenger services.
+ *
+ * Producers encode with the codec chosen in rabbitmq.codec and set its content type
+ * in the message properties; consumers pick the codec from that content type. Messages
+ * without content type, or with an unknown one, are decoded as JSON, so consumers
+ * understand old and new producers while a new codec is rolled out (consumers first).
+ */
+public final class MessageCodecs {
+    private static final Map<String, MessageCodec> codecs = new ConcurrentHashMap<>();
+
+    static {
+        register(JsonMessageCodec.getInstance());
+        register(SmileMessageCodec.getInstance());
+    }
+
+    private MessageCodecs() {
+    }
+
+    /**
+     * Makes a codec available to consumers, by its content type.
+     *
+     * @param codec the codec to be registered.
+     */
+    public static void register(MessageCodec codec) {
+        codecs.put(codec.getContentType(), codec);
+    }
+
+    /**
+     * Gets the codec able to decode messages of the given content type.
+     *
+     * @param contentType the content type of a received message, may be null.
+     *
+     * @return the codec for this content type, or the JSON codec if it is not known.
+     */
+    public static MessageCodec forContentType(String contentType) {
+        MessageCodec codec = contentType != null ? codecs.get(contentType) : null;
+        return codec != null ? codec : JsonMessageCodec.getInstance();
+    }
+
+    /**
+     * Gets the codec producers must encode messages with, based on the
+     * configuration field rabbitmq.codec (json or smile).
+     *
+     * @param config the configuration of the service.
+     *
+     * @return the configured codec.
+     */
+    public static MessageCodec fromConfig(Config config) {
+        CodecType type = getCodecType(getString(config, RABBITMQ_CODEC, CodecType.JSON.name()));
+        switch (type) {
+            case JSON:
+                return JsonMessageCodec.getInstance();
+            case SMILE:
+                return SmileMessageCodec.getInstance();
+            default:
+                throw new UnrecoverableErrorException("Unknown codec: " + type, CONFIGURATION_ERROR_STATUS);
+        }
+    }
+
+    private static CodecType getCodecType(String type) {
+        try {
+            return CodecType.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new UnrecoverableErrorException("Codec does not exists: " + type, CONFIGURATION_ERROR_STATUS);
+        }
+    }
+
+    private enum CodecType {
+        JSON,
+        SMILE
+    }
+}
@@ -0,0 +1,99 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.rabbitmq.client.AMQP;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * Compresses large message bodies with deflate.
+ *
+ * A compressed body is signaled by the content encoding of the message properties,
+ * so consumers only inflate bodies that were actually compressed. Each thread keeps
+ * its own deflater, inflater and chunk buffer, which are reset between messages
+ * instead of being allocated again.
+ */
+public final class MessageCompression {
+    public static final String DEFLATE = "deflate";
+
+    private static final int CHUNK_SIZE = 8192;
+
+    private static final ThreadLocal<Deflater> deflaters = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED));
+    private static final ThreadLocal<Inflater> inflaters = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[]> chunks = ThreadLocal.withInitial(() -> new byte[CHUNK_SIZE]);
+
+    private MessageCompression() {
+    }
+
+    /**
+     * @param body the body to be compressed.
+     *
+     * @return the body compressed with deflate.
+     */
+    public static byte[] compress(byte[] body) {
+        Deflater deflater = deflaters.get();
+        byte[] chunk = chunks.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(64, body.length / 2));
+
+        deflater.reset();
+        deflater.setInput(body);
+        deflater.finish();
+        while (!deflater.finished()) {
+            int length = deflater.deflate(chunk);
+            out.write(chunk, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @param body a body compressed with {@link #compress(byte[])}.
+     *
+     * @return the original body.
+     *
+     * @throws IOException if the body is not a valid deflate stream.
+     */
+    public static byte[] decompress(byte[] body) throws IOException {
+        Inflater inflater = inflaters.get();
+        byte[] chunk = chunks.get();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(body.length * 4);
+
+        inflater.reset();
+        inflater.setInput(body);
+        try {
+            while (!inflater.finished()) {
+                int length = inflater.inflate(chunk);
+                checkIOCondition("compressed body is truncated", length > 0 || !inflater.needsInput());
+                checkIOCondition("compressed body needs a dictionary", !inflater.needsDictionary());
+                out.write(chunk, 0, length);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("compressed body is malformed", e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Inflates the body of a received message if its properties say it was compressed.
+     *
+     * @param properties the properties of the received message.
+     * @param body the body of the received message.
+     *
+     * @return the uncompressed body.
+     *
+     * @throws IOException if the body is compressed with an unknown encoding or malformed.
+     */
+    public static byte[] decompressIfNeeded(AMQP.BasicProperties properties, byte[] body) throws IOException {
+        String encoding = properties != null ? properties.getContentEncoding() : null;
+        if (encoding == null) {
+            return body;
+        }
+
+        checkIOCondition("unknown content encoding: " + encoding, DEFLATE.equals(encoding));
+        return decompress(body);
+    }
+}
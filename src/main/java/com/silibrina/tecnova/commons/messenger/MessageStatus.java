@@ -4,7 +4,12 @@ public enum MessageStatus {
     UNDEFINED_STATUS(-1),
     ENTRY_NOT_FOUND(-2),
     IO_ERROR(-3),
-    UNKNOWN_ERROR(-4);
+    UNKNOWN_ERROR(-4),
+    CONFIRMED(-5),
+    NOT_CONFIRMED(-6),
+    COALESCED(-7),
+    JOURNALED(-8),
+    SUPERSEDED(-9);
 
     public int status;
 
@@ -12,4 +17,26 @@ public enum MessageStatus {
         this.status = status;
     }
 
+    /**
+     * @param status a status returned by a consumer.
+     *
+     * @return true if the status reports that the task of the message failed.
+     */
+    public static boolean isError(int status) {
+        return status == ENTRY_NOT_FOUND.status
+                || status == IO_ERROR.status
+                || status == UNKNOWN_ERROR.status;
+    }
+
+    /**
+     * @param status a status returned by a consumer.
+     *
+     * @return true if the task of the message failed for a reason that may
+     *          go away, so it is worth trying it again.
+     */
+    public static boolean isRetryable(int status) {
+        return status == IO_ERROR.status
+                || status == UNKNOWN_ERROR.status;
+    }
+
 }
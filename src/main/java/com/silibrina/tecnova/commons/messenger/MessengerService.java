@@ -1,8 +1,11 @@
 package com.silibrina.tecnova.commons.messenger;
 
+import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Connection;
-import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.silibrina.tecnova.commons.messenger.metrics.MessagingMetrics;
 import com.silibrina.tecnova.commons.utils.Preconditions;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
@@ -11,24 +14,66 @@ import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
 
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_CONSUMER_VERSIONS;
 import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_DURABLE;
-import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PORT;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_METRICS;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_PRIORITY;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CHANNEL_POOL_SIZE;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CHANNEL_POOL_TIMEOUT;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_METRICS_SAMPLE_INTERVAL;
 import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PREFETCH;
-import static com.silibrina.tecnova.commons.conf.ConfigConstants.Strings.*;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getBoolean;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getInt;
 import static com.silibrina.tecnova.commons.exceptions.ExitStatus.CONFIGURATION_ERROR_STATUS;
 
 /**
  * This is a service to create a connection with the RabbitMQ service.
+ *
+ * The connection is shared by every service in this process (see {@link ConnectionManager}).
+ * Each service owns one channel, used to declare its queue and to consume, plus a
+ * bounded pool of channels that concurrent callers borrow to publish.
+ *
+ * With rabbitmq.priority.enabled set, the queue is declared as a priority queue
+ * (x-max-priority), so messages are delivered by the priority of their type. A DELETE
+ * may then overtake the CREATE or UPDATE of the same entry published before it; unless
+ * messages carry versions and consumers set rabbitmq.consumer.versions.enabled, the
+ * older message is handled last and brings the deleted entry back.
+ *
+ * With rabbitmq.metrics.enabled set, the services record their messages in the
+ * {@link MessagingMetrics} of the queue, and the depth and consumers of the queue are
+ * sampled with a passive declare every rabbitmq.metrics.sample_interval milliseconds.
+ * How long the channel of each service takes to be recovered after the connection
+ * is lost is recorded there too.
  */
 public class MessengerService implements Closeable {
     private static final Logger logger = LoggerFactory.getLogger(MessengerService.class);
 
+    private static final int DEFAULT_CHANNEL_POOL_SIZE = 8;
+    private static final int DEFAULT_CHANNEL_POOL_TIMEOUT = 30000;
+    private static final int DEFAULT_SAMPLE_INTERVAL = 10000;
+    private static final String MAX_PRIORITY_ARGUMENT = "x-max-priority";
+
     private final Config config;
+    private final ConnectionManager connectionManager;
     private final Connection connection;
     private final Channel channel;
+    private final ChannelPool channelPool;
     private final String queueName;
+    private final boolean priority;
+    private final MessagingMetrics metrics;
+    private final ScheduledFuture<?> sampling;
+    private final List<Map.Entry<String, LongSupplier>> gauges;
+
+    private volatile long lostAt;
 
     protected MessengerService(String queueName) throws IOException, TimeoutException {
         Preconditions.checkValidString("A queue name must be declared", CONFIGURATION_ERROR_STATUS, queueName);
@@ -36,51 +81,196 @@ public class MessengerService implements Closeable {
 
         this.config = ConfigFactory.load();
         this.queueName = queueName;
+        this.priority = getBoolean(config, RABBITMQ_PRIORITY, false);
+        if (priority && !getBoolean(config, RABBITMQ_CONSUMER_VERSIONS, false)) {
+            logger.warn("priority enabled on queue {} without consumer versions: a DELETE may be undone " +
+                    "by an older CREATE or UPDATE of its entry", queueName);
+        }
 
-        this.connection = getConnection();
-        this.channel = getChannel(connection);
+        this.connectionManager = ConnectionManager.getInstance();
+        this.connection = connectionManager.acquire();
+        try {
+            this.channel = getChannel(connection);
+        } catch (IOException | RuntimeException e) {
+            connectionManager.release();
+            throw e;
+        }
+        this.channelPool = new ChannelPool(connectionManager,
+                getInt(config, RABBITMQ_CHANNEL_POOL_SIZE, DEFAULT_CHANNEL_POOL_SIZE),
+                getInt(config, RABBITMQ_CHANNEL_POOL_TIMEOUT, DEFAULT_CHANNEL_POOL_TIMEOUT),
+                this::initializeChannel);
+
+        this.metrics = getBoolean(config, RABBITMQ_METRICS, false) ? MessagingMetrics.forQueue(queueName) : null;
+        this.sampling = metrics != null ? MessagingMetrics.scheduleSampling(this::sampleQueue,
+                getInt(config, RABBITMQ_METRICS_SAMPLE_INTERVAL, DEFAULT_SAMPLE_INTERVAL)) : null;
+        this.gauges = new CopyOnWriteArrayList<>();
+        if (metrics != null) {
+            measureRecovery();
+        }
     }
 
-    private Connection getConnection() throws IOException, TimeoutException {
-        ConnectionFactory factory = new ConnectionFactory();
-        factory.setVirtualHost(config.getString(RABBITMQ_VHOST.field));
-        factory.setHost(config.getString(RABBITMQ_HOST.field));
-        factory.setPort(config.getInt(RABBITMQ_PORT.field));
-        factory.setPassword(config.getString(RABBITMQ_PASSWORD.field));
-        factory.setUsername(config.getString(RABBITMQ_USERNAME.field));
-        return factory.newConnection();
+    /**
+     * Records in the metrics how long the channel of this service takes to be
+     * recovered, from the moment the connection was lost.
+     */
+    private void measureRecovery() {
+        if (!(channel instanceof Recoverable)) {
+            return;
+        }
+
+        channel.addShutdownListener(cause -> {
+            if (ConnectionManager.isRecoverableShutdown(channel, cause)) {
+                lostAt = System.nanoTime();
+            }
+        });
+        ((Recoverable) channel).addRecoveryListener(recoverable -> metrics.recovered(System.nanoTime() - lostAt));
+    }
+
+    /**
+     * Reads the depth and consumers of the queue without declaring it again.
+     */
+    private void sampleQueue() {
+        try {
+            Channel pooled = borrowChannel();
+            try {
+                AMQP.Queue.DeclareOk queue = pooled.queueDeclarePassive(queueName);
+                metrics.sampled(queue.getMessageCount(), queue.getConsumerCount());
+            } finally {
+                releaseChannel(pooled);
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("could not sample queue {}: {}", queueName, e.getMessage());
+        }
     }
 
     private Channel getChannel(Connection connection) throws IOException {
         Channel channel = connection.createChannel();
-        boolean durable = config.getBoolean(RABBITMQ_DURABLE.field);
-        String queueName = getQueue();
 
-        channel.queueDeclare(queueName, durable, false, false, null);
+        declareQueue(channel, getQueue());
         channel.basicQos(config.getInt(RABBITMQ_PREFETCH.field));
         return channel;
     }
 
+    /**
+     * Declares a queue with the same settings as the queue of this service.
+     *
+     * @param channel the channel to declare the queue in.
+     * @param queueName the name of the queue.
+     *
+     * @throws IOException if the queue could not be declared.
+     */
+    protected void declareQueue(Channel channel, String queueName) throws IOException {
+        boolean durable = config.getBoolean(RABBITMQ_DURABLE.field);
+        channel.queueDeclare(queueName, durable, false, false, getQueueArguments());
+    }
+
+    private Map<String, Object> getQueueArguments() {
+        return priority ? Collections.singletonMap(MAX_PRIORITY_ARGUMENT, Message.MessageType.MAX_PRIORITY) : null;
+    }
+
+    /**
+     * @return true if the queue of this service delivers messages by priority.
+     */
+    protected boolean isPriorityEnabled() {
+        return priority;
+    }
+
+    /**
+     * @return the metrics of the queue, or null if rabbitmq.metrics.enabled is not set.
+     */
+    protected MessagingMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Exposes a value of this service with the metrics of the queue until the service
+     * is closed. Does nothing if rabbitmq.metrics.enabled is not set.
+     *
+     * @param name the name of the value.
+     * @param gauge reads the current value.
+     */
+    protected void registerGauge(String name, LongSupplier gauge) {
+        if (metrics != null) {
+            metrics.registerGauge(name, gauge);
+            gauges.add(new AbstractMap.SimpleImmutableEntry<>(name, gauge));
+        }
+    }
+
+    /**
+     * Configures a channel of the pool right after it is opened.
+     * Subclasses may override this to enable features on the publishing channels.
+     *
+     * @param channel the channel that was just opened.
+     *
+     * @throws IOException if the channel could not be configured.
+     */
+    protected void initializeChannel(Channel channel) throws IOException {
+        logger.debug("channel {} opened for queue {}", channel.getChannelNumber(), queueName);
+    }
+
     @Override
     public void close() throws IOException {
+        if (metrics != null) {
+            sampling.cancel(false);
+            for (Map.Entry<String, LongSupplier> gauge : gauges) {
+                metrics.unregisterGauge(gauge.getKey(), gauge.getValue());
+            }
+        }
+
+        logger.debug("closing channel pool...");
+        channelPool.close();
+
         logger.debug("closing channel...");
-        if (channel != null && channel.isOpen()) {
+        // a channel being recovered is closed too, or it comes back with the connection
+        if (channel != null && (channel.isOpen() || channel instanceof Recoverable)) {
             try {
                 channel.close();
             } catch (TimeoutException e) {
                 logger.error("A timeout happened", e);
+            } catch (ShutdownSignalException e) {
+                logger.debug("channel was already closed: {}", e.getMessage());
             }
         }
-        logger.debug("closing connection...");
-        if (connection != null && connection.isOpen()) {
-            connection.close();
-        }
+        logger.debug("releasing connection...");
+        connectionManager.release();
     }
 
     protected Channel getChannel() {
         return channel;
     }
 
+    /**
+     * @return the shared connection this service holds a reference to.
+     */
+    protected Connection getConnection() {
+        return connection;
+    }
+
+    /**
+     * Borrows a channel from the pool of this service. The channel must be given
+     * back with {@link #releaseChannel(Channel)} once the caller is done with it.
+     *
+     * @return a channel reserved to the calling thread.
+     *
+     * @throws IOException if no channel could be opened or released in time.
+     */
+    protected Channel borrowChannel() throws IOException {
+        return channelPool.borrow();
+    }
+
+    /**
+     * Gives back a channel taken with {@link #borrowChannel()}.
+     *
+     * @param channel the borrowed channel.
+     */
+    protected void releaseChannel(Channel channel) {
+        channelPool.release(channel);
+    }
+
+    protected Config getConfig() {
+        return config;
+    }
+
     public String getQueue() {
         return queueName;
     }
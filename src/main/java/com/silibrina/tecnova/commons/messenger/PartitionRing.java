@@ -0,0 +1,97 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+
+/**
+ * Maps entries onto the partitions of a queue with consistent hashing.
+ *
+ * Each partition owns {@value #POINTS_PER_PARTITION} points of a hash ring, and an entry
+ * goes to the partition owning the first point after the hash of its id. Every message
+ * of an entry lands on the same partition, so it keeps its order, and changing the number
+ * of partitions only moves about {@code 1 / partitions} of the entries to other partitions.
+ *
+ * Hashes are computed from {@link String#hashCode()}, which is the same on every JVM,
+ * so every producer routes an entry to the same partition.
+ */
+public final class PartitionRing {
+    private static final int POINTS_PER_PARTITION = 64;
+
+    private final int partitions;
+    private final int[] points;
+    private final int[] owners;
+
+    /**
+     * @param partitions the number of partitions of the queue.
+     */
+    public PartitionRing(int partitions) {
+        checkCondition("a queue needs at least one partition", partitions > 0);
+
+        this.partitions = partitions;
+        long[] ring = new long[partitions * POINTS_PER_PARTITION];
+        for (int partition = 0; partition < partitions; partition++) {
+            for (int point = 0; point < POINTS_PER_PARTITION; point++) {
+                int hash = hash(("partition-" + partition + "-" + point).hashCode());
+                // sorts by hash, keeping the partition in the low bits
+                ring[partition * POINTS_PER_PARTITION + point] = ((long) hash << 32) | partition;
+            }
+        }
+        Arrays.sort(ring);
+
+        this.points = new int[ring.length];
+        this.owners = new int[ring.length];
+        for (int i = 0; i < ring.length; i++) {
+            points[i] = (int) (ring[i] >> 32);
+            owners[i] = (int) ring[i];
+        }
+    }
+
+    /**
+     * @param entryId the id of an entry.
+     *
+     * @return the partition of the entry, between 0 and the number of partitions.
+     */
+    public int partitionOf(String entryId) {
+        int index = Arrays.binarySearch(points, hash(entryId.hashCode()));
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return owners[index < points.length ? index : 0];
+    }
+
+    public int getPartitions() {
+        return partitions;
+    }
+
+    /**
+     * @param queueName the name of the partitioned queue.
+     * @param partition a partition of the queue.
+     *
+     * @return the name of the queue holding the messages of the partition.
+     */
+    public static String queueOf(String queueName, int partition) {
+        return queueName + "." + partition;
+    }
+
+    /**
+     * Spreads the bits of a {@link String#hashCode()}, whose values are close
+     * together for ids that only differ at the end (the finalizer of murmur3).
+     */
+    private static int hash(int value) {
+        int hash = value;
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [partitions: %d]",
+                this.getClass().getSimpleName(), partitions);
+    }
+}
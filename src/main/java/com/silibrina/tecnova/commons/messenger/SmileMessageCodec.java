@@ -0,0 +1,39 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+
+/**
+ * Encodes messages with Smile, the binary form of JSON used by Jackson. The message
+ * has the same fields of {@link JsonMessageCodec}, but field names are written once
+ * and numbers and strings in binary, so large payloads are smaller and faster to parse.
+ *
+ * Smile documents back-reference names seen earlier in the same document, so the
+ * payload can not be cut out of the body: it is decoded with the rest of the message.
+ */
+public class SmileMessageCodec extends JsonMessageCodec {
+    public static final String CONTENT_TYPE = "application/x-jackson-smile";
+
+    private static final SmileMessageCodec instance = new SmileMessageCodec();
+
+    private SmileMessageCodec() {
+        super(new ObjectMapper(new SmileFactory()));
+    }
+
+    /**
+     * @return the Smile codec shared by the messenger services.
+     */
+    public static SmileMessageCodec getInstance() {
+        return instance;
+    }
+
+    @Override
+    public String getContentType() {
+        return CONTENT_TYPE;
+    }
+
+    @Override
+    protected boolean canCopyPayload() {
+        return false;
+    }
+}
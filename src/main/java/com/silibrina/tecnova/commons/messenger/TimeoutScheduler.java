@@ -0,0 +1,69 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A single timer thread shared by the messenger services to expire pending futures.
+ *
+ * Instead of blocking one thread per outstanding message, callers attach a deadline
+ * to the future; the timer completes it with a fallback value if nothing else did
+ * first. Timeouts of futures completed in time are removed from the timer right away.
+ */
+public final class TimeoutScheduler {
+    private static final String THREAD_NAME = "messenger-timeouts";
+
+    private static final ScheduledThreadPoolExecutor timer = newTimer();
+
+    private TimeoutScheduler() {
+    }
+
+    /**
+     * Completes the given future with {@code value} if it is not completed
+     * within the given time.
+     *
+     * @param future the future to be watched.
+     * @param value the value to complete the future with on timeout.
+     * @param timeout how long to wait for the future.
+     * @param unit the unit of {@code timeout}.
+     * @param <T> the type of the value of the future.
+     *
+     * @return the same future, for chaining.
+     */
+    public static <T> CompletableFuture<T> completeOnTimeout(CompletableFuture<T> future, T value,
+                                                             long timeout, TimeUnit unit) {
+        if (future.isDone()) {
+            return future;
+        }
+
+        ScheduledFuture<?> task = timer.schedule(() -> future.complete(value), timeout, unit);
+        future.whenComplete((result, error) -> task.cancel(false));
+        return future;
+    }
+
+    /**
+     * Runs a task once after the given delay on the shared timer thread.
+     * The task must be short, since it delays every other timeout.
+     *
+     * @param task the task to be run.
+     * @param delay how long to wait before running it.
+     * @param unit the unit of {@code delay}.
+     *
+     * @return a handle to cancel the task.
+     */
+    public static ScheduledFuture<?> schedule(Runnable task, long delay, TimeUnit unit) {
+        return timer.schedule(task, delay, unit);
+    }
+
+    private static ScheduledThreadPoolExecutor newTimer() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
@@ -0,0 +1,33 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.silibrina.tecnova.commons.exceptions.UnrecoverableErrorException;
+import com.silibrina.tecnova.commons.messenger.embedded.EmbeddedBus;
+import com.typesafe.config.Config;
+
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Strings.RABBITMQ_TRANSPORT;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getString;
+import static com.silibrina.tecnova.commons.exceptions.ExitStatus.CONFIGURATION_ERROR_STATUS;
+
+/**
+ * Where messages travel, based on the configuration field rabbitmq.transport:
+ * - rabbitmq: through the RabbitMQ broker (default);
+ * - embedded: through the in-process {@link EmbeddedBus}, for single-node deployments and tests.
+ */
+public enum Transport {
+    RABBITMQ,
+    EMBEDDED;
+
+    /**
+     * @param config the configuration to read rabbitmq.transport from.
+     *
+     * @return the configured transport.
+     */
+    public static Transport fromConfig(Config config) {
+        String transport = getString(config, RABBITMQ_TRANSPORT, RABBITMQ.name());
+        try {
+            return Transport.valueOf(transport.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new UnrecoverableErrorException("Transport does not exists: " + transport, CONFIGURATION_ERROR_STATUS);
+        }
+    }
+}
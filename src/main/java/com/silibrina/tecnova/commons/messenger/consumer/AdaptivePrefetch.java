@@ -0,0 +1,175 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+
+/**
+ * Tunes the prefetch of a consumer from how long its messages take to be handled.
+ *
+ * The consumer reports each message it receives and each message it finishes. Every
+ * {@code interval} milliseconds the observations are evaluated:
+ *
+ * - if the consumer reached its prefetch and its workers still ran out of messages,
+ *   the prefetch is doubled, since the workers are waiting for the broker;
+ * - if messages always waited locally for longer than {@code target} milliseconds,
+ *   the prefetch is lowered to what keeps the workers busy for about that long, so
+ *   the surplus goes to other consumers instead of queueing here.
+ *
+ * The prefetch starts at {@code min} and always stays between {@code min} and {@code max}.
+ */
+public class AdaptivePrefetch {
+    private static final Logger logger = LoggerFactory.getLogger(AdaptivePrefetch.class);
+
+    /** Weight of the last observation in the average handling time. */
+    private static final double SMOOTHING = 0.2;
+
+    private final String name;
+    private final int min;
+    private final int max;
+    private final int workers;
+    private final long target;
+    private final long interval;
+    private final PrefetchUpdater updater;
+    private final LongSupplier clock;
+
+    private int prefetch;
+    private int inFlight;
+    private double averageTime;
+    private int maxInFlight;
+    private int minBacklog;
+    private long windowStart;
+
+    /**
+     * @param name name of the consumer, used in the logs.
+     * @param min lowest prefetch allowed.
+     * @param max highest prefetch allowed.
+     * @param workers how many messages the consumer handles at the same time.
+     * @param target time, in milliseconds, a message may wait locally before being handled.
+     * @param interval time, in milliseconds, between two evaluations.
+     * @param updater applies a new prefetch to the channel.
+     */
+    public AdaptivePrefetch(String name, int min, int max, int workers, long target, long interval,
+                            PrefetchUpdater updater) {
+        this(name, min, max, workers, target, interval, updater, System::nanoTime);
+    }
+
+    AdaptivePrefetch(String name, int min, int max, int workers, long target, long interval,
+                     PrefetchUpdater updater, LongSupplier clock) {
+        checkCondition("prefetch bounds must be positive", min > 0 && max >= min);
+        checkCondition("workers must be positive", workers > 0);
+
+        this.name = name;
+        this.min = min;
+        this.max = max;
+        this.workers = workers;
+        this.target = TimeUnit.MILLISECONDS.toNanos(target);
+        this.interval = TimeUnit.MILLISECONDS.toNanos(interval);
+        this.updater = updater;
+        this.clock = clock;
+        this.prefetch = min;
+        this.windowStart = clock.getAsLong();
+        resetWindow();
+    }
+
+    /**
+     * @return the prefetch the channel must start with.
+     */
+    public synchronized int getPrefetch() {
+        return prefetch;
+    }
+
+    /**
+     * Reports a message received from the broker.
+     */
+    public synchronized void received() {
+        inFlight++;
+        maxInFlight = Math.max(maxInFlight, inFlight);
+    }
+
+    /**
+     * Reports messages that were handled and acknowledged.
+     *
+     * @param messages how many messages were handled.
+     * @param elapsed time, in nanoseconds, it took to handle all of them.
+     */
+    public void completed(int messages, long elapsed) {
+        int update;
+        synchronized (this) {
+            inFlight = Math.max(0, inFlight - messages);
+            minBacklog = Math.min(minBacklog, inFlight - workers);
+
+            double time = (double) elapsed / messages;
+            averageTime = averageTime == 0 ? time : averageTime + SMOOTHING * (time - averageTime);
+
+            update = evaluate(clock.getAsLong());
+        }
+
+        if (update > 0) {
+            try {
+                updater.update(update);
+            } catch (IOException e) {
+                logger.error("An error happened while updating prefetch of {}", name, e);
+            }
+        }
+    }
+
+    /**
+     * @return the new prefetch, or 0 if it should not change.
+     */
+    private int evaluate(long now) {
+        if (now - windowStart < interval) {
+            return 0;
+        }
+
+        int next = prefetch;
+        if (minBacklog <= 0 && maxInFlight >= prefetch) {
+            next = (int) Math.min((long) max, prefetch * 2L);
+        } else if (minBacklog > 0 && averageTime > 0 && minBacklog * averageTime / workers > target) {
+            next = Math.min(prefetch, workers + (int) Math.ceil(target * workers / averageTime));
+        }
+        next = Math.max(min, Math.min(max, next));
+
+        int previous = prefetch;
+        windowStart = now;
+        resetWindow();
+        if (next == previous) {
+            return 0;
+        }
+
+        prefetch = next;
+        logger.info("prefetch of {} adjusted from {} to {} (handle time: {} ms, workers: {})",
+                name, previous, next, String.format(Locale.ROOT, "%.2f", averageTime / 1e6), workers);
+        return next;
+    }
+
+    private void resetWindow() {
+        maxInFlight = inFlight;
+        minBacklog = Integer.MAX_VALUE;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "%s [name: %s, prefetch: %d, inFlight: %d, min: %d, max: %d]",
+                this.getClass().getSimpleName(), name, prefetch, inFlight, min, max);
+    }
+
+    /**
+     * Applies a new prefetch to the channel of the consumer.
+     */
+    public interface PrefetchUpdater {
+
+        /**
+         * @param prefetch the new prefetch.
+         *
+         * @throws IOException if the prefetch could not be applied.
+         */
+        void update(int prefetch) throws IOException;
+    }
+}
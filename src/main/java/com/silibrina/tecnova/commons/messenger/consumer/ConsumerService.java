@@ -5,6 +5,8 @@ import com.silibrina.tecnova.commons.messenger.Message;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Service responsible for consume messages from the queue and
@@ -28,4 +30,24 @@ public interface ConsumerService extends Closeable, Consumer {
      * @return a number representing the status of this operation.
      */
     int handle(Message message) throws Exception;
+
+    /**
+     * Executes the tasks of several messages at once. This is only called when
+     * the consumer is configured to consume in batches, allowing bulk writes
+     * instead of one round trip per message.
+     *
+     * The default implementation calls {@link #handle(Message)} for each message.
+     *
+     * @param messages The messages to be consumed, in the order they were received.
+     * @throws Exception if an error occurs that affects the whole batch.
+     *
+     * @return the status of each message, in the same order of {@code messages}.
+     */
+    default List<Integer> handleBatch(List<Message> messages) throws Exception {
+        List<Integer> statuses = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            statuses.add(handle(message));
+        }
+        return statuses;
+    }
 }
@@ -0,0 +1,66 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.silibrina.tecnova.commons.exceptions.UnrecoverableErrorException;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.Transport;
+import com.silibrina.tecnova.commons.messenger.embedded.EmbeddedConsumerService;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PARTITION_COUNT;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getInt;
+import static com.silibrina.tecnova.commons.exceptions.ExitStatus.CONFIGURATION_ERROR_STATUS;
+
+/**
+ * Provides a consumer for a queue, based on the configuration field rabbitmq.transport
+ * (see {@link Transport}). Either way, each message is handled by the given
+ * {@link MessageHandler} and its status is sent back to sync producers.
+ *
+ * Over RabbitMQ, a queue split with rabbitmq.partition.count is consumed by a
+ * {@link PartitionedConsumerService}.
+ */
+public class ConsumerServiceFactory {
+
+    /**
+     * Gets a consumer based on the configuration. The consumer must still be started.
+     *
+     * @param queueName the queue messages are consumed from.
+     * @param handler executes the task of each message.
+     *
+     * @return the consumer instance.
+     */
+    public static ConsumerService getConsumerService(String queueName, MessageHandler handler)
+            throws IOException, TimeoutException {
+        Config config = ConfigFactory.load();
+        Transport transport = Transport.fromConfig(config);
+        switch (transport) {
+            case RABBITMQ:
+                if (getInt(config, RABBITMQ_PARTITION_COUNT, 0) > 0) {
+                    return new PartitionedConsumerService(queueName) {
+                        @Override
+                        public int handle(Message message) throws Exception {
+                            return handler.handle(message);
+                        }
+                    };
+                }
+                return new MessageConsumer(queueName) {
+                    @Override
+                    public int handle(Message message) throws Exception {
+                        return handler.handle(message);
+                    }
+                };
+            case EMBEDDED:
+                return new EmbeddedConsumerService(queueName) {
+                    @Override
+                    public int handle(Message message) throws Exception {
+                        return handler.handle(message);
+                    }
+                };
+            default:
+                throw new UnrecoverableErrorException("Unknown transport: " + transport, CONFIGURATION_ERROR_STATUS);
+        }
+    }
+}
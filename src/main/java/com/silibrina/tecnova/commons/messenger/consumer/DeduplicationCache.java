@@ -0,0 +1,157 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+
+/**
+ * Remembers the messages a consumer already handled, so redeliveries (after a
+ * reconnect, for instance) are not handled again.
+ *
+ * Messages are identified by the message id of their properties. Messages published
+ * without one are identified by a hash of their body, but are only considered
+ * duplicates when the broker flags them as redelivered, since two legitimate messages
+ * may have the same content. The cache keeps at most {@code maxSize} messages, each
+ * for at most {@code ttl} milliseconds after it was handled.
+ */
+public class DeduplicationCache {
+    private static final String HASH_ALGORITHM = "SHA-1";
+
+    private final LinkedHashMap<String, Entry> entries;
+    private final int maxSize;
+    private final long ttl;
+    private final LongSupplier clock;
+    private final AtomicLong skipped;
+
+    /**
+     * @param maxSize maximum number of messages remembered.
+     * @param ttl time, in milliseconds, a message is remembered after being handled.
+     */
+    public DeduplicationCache(int maxSize, long ttl) {
+        this(maxSize, ttl, System::currentTimeMillis);
+    }
+
+    DeduplicationCache(int maxSize, long ttl, LongSupplier clock) {
+        checkCondition("deduplication cache size must be positive", maxSize > 0);
+        checkCondition("deduplication ttl must be positive", ttl > 0);
+
+        this.entries = new LinkedHashMap<>();
+        this.maxSize = maxSize;
+        this.ttl = ttl;
+        this.clock = clock;
+        this.skipped = new AtomicLong();
+    }
+
+    /**
+     * @param properties the properties of the received message.
+     * @param body the body of the received message.
+     *
+     * @return the key identifying the message in this cache.
+     */
+    public static String keyOf(AMQP.BasicProperties properties, byte[] body) {
+        String messageId = properties != null ? properties.getMessageId() : null;
+        if (messageId != null) {
+            return messageId;
+        }
+
+        try {
+            byte[] hash = MessageDigest.getInstance(HASH_ALGORITHM).digest(body);
+            return "#" + new String(Base64.getEncoder().encode(hash), StandardCharsets.US_ASCII);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(HASH_ALGORITHM + " is not available", e);
+        }
+    }
+
+    /**
+     * Looks for an earlier handling of a received message.
+     *
+     * @param key the key of the message, given by {@link #keyOf(AMQP.BasicProperties, byte[])}.
+     * @param envelope the envelope of the received message.
+     * @param properties the properties of the received message.
+     *
+     * @return the status the message was handled with, or null if it must be handled.
+     */
+    public synchronized Integer lookup(String key, Envelope envelope, AMQP.BasicProperties properties) {
+        boolean identified = properties != null && properties.getMessageId() != null;
+        if (!identified && !envelope.isRedeliver()) {
+            return null;
+        }
+
+        expire(clock.getAsLong());
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        skipped.incrementAndGet();
+        return entry.status;
+    }
+
+    /**
+     * Remembers a message that was handled.
+     *
+     * @param key the key of the message, given by {@link #keyOf(AMQP.BasicProperties, byte[])}.
+     * @param status the status the message was handled with.
+     */
+    public synchronized void record(String key, int status) {
+        long now = clock.getAsLong();
+        expire(now);
+
+        entries.remove(key);
+        entries.put(key, new Entry(status, now + ttl));
+        if (entries.size() > maxSize) {
+            Iterator<String> eldest = entries.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    private void expire(long now) {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext() && iterator.next().getValue().expiresAt <= now) {
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the number of messages skipped as duplicates.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of messages currently remembered.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "%s [size: %d, maxSize: %d, skipped: %d]",
+                this.getClass().getSimpleName(), entries.size(), maxSize, skipped.get());
+    }
+
+    private static final class Entry {
+        private final int status;
+        private final long expiresAt;
+
+        private Entry(int status, long expiresAt) {
+            this.status = status;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
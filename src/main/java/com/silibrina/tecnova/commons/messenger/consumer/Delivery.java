@@ -0,0 +1,66 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import com.silibrina.tecnova.commons.messenger.Message;
+
+import java.util.Locale;
+
+/**
+ * A message received from the queue, along with what is needed to acknowledge
+ * and answer it once it was handled.
+ */
+public class Delivery {
+    private final Envelope envelope;
+    private final AMQP.BasicProperties properties;
+    private final byte[] body;
+    private final Message message;
+    private final String key;
+
+    public Delivery(Envelope envelope, AMQP.BasicProperties properties, Message message) {
+        this(envelope, properties, null, message, null);
+    }
+
+    /**
+     * @param body the body as received, kept to publish the message again if needed.
+     * @param key identifies the message in the {@link DeduplicationCache}, or null
+     *            if duplicates are not checked.
+     */
+    public Delivery(Envelope envelope, AMQP.BasicProperties properties, byte[] body, Message message, String key) {
+        this.envelope = envelope;
+        this.properties = properties;
+        this.body = body;
+        this.message = message;
+        this.key = key;
+    }
+
+    public Envelope getEnvelope() {
+        return envelope;
+    }
+
+    public AMQP.BasicProperties getProperties() {
+        return properties;
+    }
+
+    public byte[] getBody() {
+        return body;
+    }
+
+    public Message getMessage() {
+        return message;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getDeliveryTag() {
+        return envelope.getDeliveryTag();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [deliveryTag: %d, message: %s]",
+                this.getClass().getSimpleName(), envelope.getDeliveryTag(), message);
+    }
+}
@@ -0,0 +1,128 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.silibrina.tecnova.commons.messenger.TimeoutScheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+
+/**
+ * Groups deliveries into batches, handed to a {@link BatchHandler} when they reach
+ * a maximum size or when the oldest delivery of the batch waited the maximum time.
+ *
+ * Batches are handled one after the other, on a single thread, in the order they were
+ * formed. This allows the handler to acknowledge a whole batch with a single multiple ack.
+ */
+public class DeliveryBatcher {
+    private final int maxSize;
+    private final long maxWait;
+    private final BatchHandler handler;
+    private final ExecutorService flusher;
+
+    private List<Delivery> pending;
+    private ScheduledFuture<?> timer;
+    private boolean closed;
+
+    /**
+     * @param maxSize maximum number of deliveries in a batch.
+     * @param maxWait maximum time, in milliseconds, a delivery waits for its batch to fill.
+     * @param name name of the thread handling the batches.
+     * @param handler handles each batch.
+     */
+    public DeliveryBatcher(int maxSize, long maxWait, String name, BatchHandler handler) {
+        checkCondition("batch size must be positive", maxSize > 0);
+
+        this.maxSize = maxSize;
+        this.maxWait = maxWait;
+        this.handler = handler;
+        this.flusher = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, name + "-batch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.pending = new ArrayList<>(maxSize);
+    }
+
+    /**
+     * Adds a delivery to the current batch, handing the batch out if it is full.
+     *
+     * @param delivery the delivery to be handled.
+     *
+     * @throws RejectedExecutionException if the batcher was shut down.
+     */
+    public synchronized void add(Delivery delivery) {
+        if (closed) {
+            throw new RejectedExecutionException("batcher was shut down");
+        }
+        if (pending.isEmpty()) {
+            timer = TimeoutScheduler.schedule(this::flush, maxWait, TimeUnit.MILLISECONDS);
+        }
+
+        pending.add(delivery);
+        if (pending.size() >= maxSize) {
+            flush();
+        }
+    }
+
+    /**
+     * Hands out the current batch, even if it is not full.
+     */
+    public synchronized void flush() {
+        if (pending.isEmpty()) {
+            return;
+        }
+
+        List<Delivery> batch = pending;
+        pending = new ArrayList<>(maxSize);
+        timer.cancel(false);
+
+        flusher.execute(() -> handler.handle(batch));
+    }
+
+    /**
+     * Hands out the current batch and stops accepting new ones.
+     */
+    public synchronized void shutdown() {
+        closed = true;
+        flush();
+        flusher.shutdown();
+    }
+
+    /**
+     * Waits for the batches already handed out to be handled.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit the unit of {@code timeout}.
+     *
+     * @return true if every batch was handled, false if the timeout elapsed first.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return flusher.awaitTermination(timeout, unit);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "%s [maxSize: %d, maxWait: %d, pending: %d]",
+                this.getClass().getSimpleName(), maxSize, maxWait, pending.size());
+    }
+
+    /**
+     * Handles a batch of deliveries formed by a {@link DeliveryBatcher}.
+     */
+    public interface BatchHandler {
+
+        /**
+         * @param batch the deliveries, in the order they were received.
+         */
+        void handle(List<Delivery> batch);
+    }
+}
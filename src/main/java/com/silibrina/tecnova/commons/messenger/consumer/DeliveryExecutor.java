@@ -0,0 +1,42 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides where the deliveries of a {@link MessageConsumer} are handled.
+ *
+ * Each task carries a key (the entry id of its message); implementations must run
+ * tasks with the same key in the order they were submitted.
+ */
+public interface DeliveryExecutor {
+
+    /**
+     * Submits the handling of a delivery.
+     *
+     * @param key the key that orders this task with the others of the same key.
+     * @param task the task handling and acknowledging the delivery.
+     */
+    void execute(String key, Runnable task);
+
+    /**
+     * @return how many tasks may run at the same time.
+     */
+    int size();
+
+    /**
+     * Stops accepting new tasks. Tasks already submitted are still executed.
+     */
+    void shutdown();
+
+    /**
+     * Waits for the submitted tasks to finish after a {@link #shutdown()}.
+     *
+     * @param timeout maximum time to wait.
+     * @param unit the unit of {@code timeout}.
+     *
+     * @return true if every task finished, false if the timeout elapsed first.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException;
+}
@@ -0,0 +1,29 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Handles each delivery right on the dispatch thread of the channel, one at a time.
+ * This is the default behavior of a {@link MessageConsumer}.
+ */
+public class InlineDeliveryExecutor implements DeliveryExecutor {
+
+    @Override
+    public void execute(String key, Runnable task) {
+        task.run();
+    }
+
+    @Override
+    public int size() {
+        return 1;
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) {
+        return true;
+    }
+}
@@ -3,19 +3,56 @@ package com.silibrina.tecnova.commons.messenger.consumer;
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
 import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.Recoverable;
 import com.rabbitmq.client.ShutdownSignalException;
 import com.silibrina.tecnova.commons.exceptions.InvalidConditionException;
+import com.silibrina.tecnova.commons.exceptions.UnrecoverableErrorException;
 import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessageCompression;
 import com.silibrina.tecnova.commons.messenger.MessageStatus;
 import com.silibrina.tecnova.commons.messenger.MessengerService;
+import com.silibrina.tecnova.commons.messenger.metrics.MessagingMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_ADAPTIVE_PREFETCH;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_CONSUMER_DEDUP;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_CONSUMER_RETRY;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_CONSUMER_VERSIONS;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_DURABLE;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_ADAPTIVE_PREFETCH_INTERVAL;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_ADAPTIVE_PREFETCH_MAX;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_ADAPTIVE_PREFETCH_MIN;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_ADAPTIVE_PREFETCH_TARGET;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_BATCH_SIZE;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_BATCH_TIMEOUT;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_CARRIERS;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_DEDUP_SIZE;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_DEDUP_TTL;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_DRAIN_TIMEOUT;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_LANES;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_RETRY_ATTEMPTS;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_RETRY_DELAY;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_RETRY_MAX_DELAY;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONSUMER_VERSIONS_SIZE;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PREFETCH;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Strings.RABBITMQ_CONSUMER_MODE;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getBoolean;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getInt;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getString;
+import static com.silibrina.tecnova.commons.exceptions.ExitStatus.CONFIGURATION_ERROR_STATUS;
+
 /**
  * Executor for RabbitMQ.
  *
@@ -24,13 +61,189 @@ import java.util.concurrent.TimeoutException;
  * Starting this service is to declare a basicConsume to handle messages.
  * Closing this service closes the channel with RabbitMQ committing data to disk
  * before executing it.
+ *
+ * Before closing, the consumer drains: it cancels its subscription, gives back messages
+ * that arrive afterwards, and waits up to rabbitmq.consumer.drain_timeout milliseconds
+ * for the messages being handled to finish and be acked. Messages still being handled
+ * after that are abandoned and redelivered by the broker. See {@link #getDrained()}
+ * and {@link #getAbandoned()}.
+ *
+ * When the channel is recovered after the connection was lost, the broker redelivers
+ * every message that was not acked and the client no longer takes acks for them, so the
+ * messages still being handled are abandoned too, and their held back acks are dropped.
+ *
+ * By default messages are handled one at a time on the dispatch thread of the channel.
+ * With rabbitmq.consumer.mode set to "striped", messages are handled on
+ * rabbitmq.consumer.lanes single-threaded lanes chosen by the entry id, so different
+ * entries are handled in parallel (up to rabbitmq.prefetch unacked messages) while
+ * the messages of one entry keep their order. Each message is acked by its lane.
+ *
+ * With rabbitmq.consumer.mode set to "virtual", each message is handled on a thread of its
+ * own (see {@link VirtualDeliveryExecutor}), up to rabbitmq.prefetch at the same time, which
+ * suits handlers blocked on I/O. Messages of one entry still keep their order, and acks are
+ * sent in the order messages arrived (see {@link OrderedAcknowledger}).
+ *
+ * With rabbitmq.consumer.mode set to "batch", messages are grouped in batches of up to
+ * rabbitmq.consumer.batch.size messages (or rabbitmq.consumer.batch.timeout milliseconds)
+ * and handed to {@link #handleBatch(List)}. Each batch is acked with a single multiple ack.
+ *
+ * With rabbitmq.consumer.dedup.enabled set, messages already handled successfully are
+ * remembered in a {@link DeduplicationCache}; redeliveries of them are acked and answered
+ * with the status of the first handling, without calling {@link #handle(Message)} again.
+ *
+ * With rabbitmq.consumer.versions.enabled set, the highest version handled for each entry
+ * is remembered in a {@link VersionTable}; messages older than it are acked and answered
+ * with {@link MessageStatus#SUPERSEDED} without calling {@link #handle(Message)}.
+ *
+ * With rabbitmq.consumer.retry.enabled set, messages failed with a transient error are
+ * handled again later following a {@link RetryPolicy}, instead of being acked and lost.
+ * The producer of a retried message is only answered once it succeeds or is dead-lettered.
+ *
+ * With rabbitmq.adaptive_prefetch.enabled set, rabbitmq.prefetch is replaced by a channel
+ * prefetch tuned by {@link AdaptivePrefetch} from the observed handling time.
+ *
+ * With rabbitmq.metrics.enabled set, each message is recorded in the {@link MessagingMetrics}
+ * of the queue with its status, how long it was handled for and how long it took to arrive.
  */
 public abstract class MessageConsumer extends MessengerService implements ConsumerService, Closeable {
     private static final Logger logger = LoggerFactory.getLogger(MessageConsumer.class);
     private static final boolean AUTO_ACK = false;
 
+    private static final int DEFAULT_BATCH_SIZE = 100;
+    private static final int DEFAULT_BATCH_TIMEOUT = 1000;
+    private static final int DEFAULT_DEDUP_SIZE = 10000;
+    private static final int DEFAULT_DEDUP_TTL = 600000;
+    private static final int DEFAULT_VERSIONS_SIZE = 100000;
+    private static final int DEFAULT_RETRY_ATTEMPTS = 5;
+    private static final int DEFAULT_RETRY_DELAY = 1000;
+    private static final int DEFAULT_RETRY_MAX_DELAY = 300000;
+    private static final int DEFAULT_PREFETCH_MIN = 1;
+    private static final int DEFAULT_PREFETCH_MAX = 256;
+    private static final int DEFAULT_PREFETCH_TARGET = 100;
+    private static final int DEFAULT_PREFETCH_INTERVAL = 5000;
+    private static final int DEFAULT_CARRIERS = 16;
+    private static final int DEFAULT_DRAIN_TIMEOUT = 30000;
+    private static final boolean CHANNEL_PREFETCH = true;
+    private static final boolean CONSUMER_PREFETCH = false;
+    private static final String SKIPPED_DUPLICATES_GAUGE = "skipped_duplicates";
+    private static final String SKIPPED_SUPERSEDED_GAUGE = "skipped_superseded";
+    private static final String PREFETCH_GAUGE = "prefetch";
+
+    private final ConsumerMode mode;
+    private final DeliveryExecutor executor;
+    private final OrderedAcknowledger orderedAcks;
+    private final DeliveryBatcher batcher;
+    private final DeduplicationCache deduplication;
+    private final VersionTable versions;
+    private final RetryPolicy retryPolicy;
+    private final AdaptivePrefetch adaptivePrefetch;
+    private final int drainTimeout;
+
+    private final Object drainLock = new Object();
+    private int inFlight;
+    private boolean draining;
+    private int drained;
+    private int abandoned;
+    private long recoveredUpTo;
+    private volatile long lastDeliveryTag;
+    private volatile String consumerTag;
+
     public MessageConsumer(String queueName) throws IOException, TimeoutException {
         super(queueName);
+
+        this.mode = getConsumerMode(getString(getConfig(), RABBITMQ_CONSUMER_MODE, ConsumerMode.INLINE.name()));
+        this.executor = newDeliveryExecutor();
+        this.orderedAcks = mode == ConsumerMode.VIRTUAL ?
+                new OrderedAcknowledger((deliveryTag, multiple) -> getChannel().basicAck(deliveryTag, multiple)) : null;
+        this.batcher = mode == ConsumerMode.BATCH ? newDeliveryBatcher() : null;
+        this.deduplication = getBoolean(getConfig(), RABBITMQ_CONSUMER_DEDUP, false) ?
+                new DeduplicationCache(getInt(getConfig(), RABBITMQ_CONSUMER_DEDUP_SIZE, DEFAULT_DEDUP_SIZE),
+                        getInt(getConfig(), RABBITMQ_CONSUMER_DEDUP_TTL, DEFAULT_DEDUP_TTL)) : null;
+        this.versions = getBoolean(getConfig(), RABBITMQ_CONSUMER_VERSIONS, false) ?
+                new VersionTable(getInt(getConfig(), RABBITMQ_CONSUMER_VERSIONS_SIZE, DEFAULT_VERSIONS_SIZE)) : null;
+        this.retryPolicy = getBoolean(getConfig(), RABBITMQ_CONSUMER_RETRY, false) ? newRetryPolicy() : null;
+        this.adaptivePrefetch = getBoolean(getConfig(), RABBITMQ_ADAPTIVE_PREFETCH, false) ? newAdaptivePrefetch() : null;
+        this.drainTimeout = getInt(getConfig(), RABBITMQ_CONSUMER_DRAIN_TIMEOUT, DEFAULT_DRAIN_TIMEOUT);
+
+        if (deduplication != null) {
+            registerGauge(SKIPPED_DUPLICATES_GAUGE, deduplication::getSkipped);
+        }
+        if (versions != null) {
+            registerGauge(SKIPPED_SUPERSEDED_GAUGE, versions::getSkipped);
+        }
+        if (adaptivePrefetch != null) {
+            registerGauge(PREFETCH_GAUGE, adaptivePrefetch::getPrefetch);
+        }
+        if (getChannel() instanceof Recoverable) {
+            ((Recoverable) getChannel()).addRecoveryListener(recoverable -> recovered());
+        }
+    }
+
+    /**
+     * The per-consumer prefetch is raised to the upper bound, so only the channel
+     * prefetch, which the broker lets change while consuming, limits the consumer.
+     */
+    private AdaptivePrefetch newAdaptivePrefetch() throws IOException {
+        int workers = mode == ConsumerMode.BATCH ?
+                getInt(getConfig(), RABBITMQ_CONSUMER_BATCH_SIZE, DEFAULT_BATCH_SIZE) : executor.size();
+        int min = Math.max(workers, getInt(getConfig(), RABBITMQ_ADAPTIVE_PREFETCH_MIN, DEFAULT_PREFETCH_MIN));
+        int max = Math.max(min, getInt(getConfig(), RABBITMQ_ADAPTIVE_PREFETCH_MAX, DEFAULT_PREFETCH_MAX));
+
+        Channel channel = getChannel();
+        AdaptivePrefetch prefetch = new AdaptivePrefetch(getQueue(), min, max, workers,
+                getInt(getConfig(), RABBITMQ_ADAPTIVE_PREFETCH_TARGET, DEFAULT_PREFETCH_TARGET),
+                getInt(getConfig(), RABBITMQ_ADAPTIVE_PREFETCH_INTERVAL, DEFAULT_PREFETCH_INTERVAL),
+                value -> channel.basicQos(value, CHANNEL_PREFETCH));
+        channel.basicQos(max, CONSUMER_PREFETCH);
+        channel.basicQos(prefetch.getPrefetch(), CHANNEL_PREFETCH);
+        return prefetch;
+    }
+
+    private RetryPolicy newRetryPolicy() throws IOException {
+        RetryPolicy policy = new RetryPolicy(getQueue(),
+                getInt(getConfig(), RABBITMQ_CONSUMER_RETRY_ATTEMPTS, DEFAULT_RETRY_ATTEMPTS),
+                getInt(getConfig(), RABBITMQ_CONSUMER_RETRY_DELAY, DEFAULT_RETRY_DELAY),
+                getInt(getConfig(), RABBITMQ_CONSUMER_RETRY_MAX_DELAY, DEFAULT_RETRY_MAX_DELAY));
+        policy.declare(getChannel(), getConfig().getBoolean(RABBITMQ_DURABLE.field));
+        return policy;
+    }
+
+    private DeliveryExecutor newDeliveryExecutor() {
+        switch (mode) {
+            case INLINE:
+            case BATCH:
+                return new InlineDeliveryExecutor();
+            case STRIPED:
+                int lanes = getInt(getConfig(), RABBITMQ_CONSUMER_LANES, Runtime.getRuntime().availableProcessors());
+                return new StripedDeliveryExecutor(lanes, getQueue());
+            case VIRTUAL:
+                // without a prefetch the broker does not bound deliveries, so neither would this
+                int prefetch = getConfig().getInt(RABBITMQ_PREFETCH.field);
+                return new VirtualDeliveryExecutor(prefetch > 0 ? prefetch : DEFAULT_PREFETCH_MAX,
+                        getInt(getConfig(), RABBITMQ_CONSUMER_CARRIERS, DEFAULT_CARRIERS), getQueue());
+            default:
+                throw new UnrecoverableErrorException("Unknown consumer mode: " + mode, CONFIGURATION_ERROR_STATUS);
+        }
+    }
+
+    private DeliveryBatcher newDeliveryBatcher() {
+        int size = getInt(getConfig(), RABBITMQ_CONSUMER_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        int timeout = getInt(getConfig(), RABBITMQ_CONSUMER_BATCH_TIMEOUT, DEFAULT_BATCH_TIMEOUT);
+        int prefetch = getConfig().getInt(RABBITMQ_PREFETCH.field);
+
+        if (prefetch > 0 && prefetch < size) {
+            logger.warn("prefetch ({}) is lower than the batch size ({}), batches will only be " +
+                    "handed out by timeout", prefetch, size);
+        }
+        return new DeliveryBatcher(size, timeout, getQueue(), this::handleBatchSafely);
+    }
+
+    private static ConsumerMode getConsumerMode(String mode) {
+        try {
+            return ConsumerMode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new UnrecoverableErrorException("Consumer mode does not exists: " + mode, CONFIGURATION_ERROR_STATUS);
+        }
     }
 
     @Override
@@ -38,7 +251,16 @@ public abstract class MessageConsumer extends MessengerService implements Consum
         String queueName = getQueue();
         Channel channel = getChannel();
 
-        channel.basicConsume(queueName, AUTO_ACK, this);
+        consumerTag = channel.basicConsume(queueName, AUTO_ACK, "", false, isExclusive(), null, this);
+    }
+
+    /**
+     * @return true if this must be the only consumer of its queue. Starting an exclusive
+     *          consumer fails if the queue already has a consumer, and no other consumer
+     *          can start while it consumes.
+     */
+    protected boolean isExclusive() {
+        return false;
     }
 
     @Override
@@ -68,24 +290,515 @@ public abstract class MessageConsumer extends MessengerService implements Consum
 
     @Override
     public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) throws IOException {
-        int status = MessageStatus.UNDEFINED_STATUS.status;
+        lastDeliveryTag = envelope.getDeliveryTag();
+        if (orderedAcks != null) {
+            orderedAcks.register(envelope.getDeliveryTag());
+        }
+        String key = deduplication != null ? DeduplicationCache.keyOf(properties, body) : null;
+
+        Message message;
         try {
-            status = handle(Message.fromByteArray(body));
-        } catch (InvalidConditionException e) {
-            logger.warn(e.getMessage());
-            status = e.getStatus().status;
+            message = Message.fromByteArray(MessageCompression.decompressIfNeeded(properties, body),
+                    properties.getContentType());
+        } catch (Exception e) {
+            int status = getStatus(e);
+            deadLetter(properties, body, status);
+            acknowledge(envelope, properties, status);
+            return;
+        }
+
+        if (!accept(envelope.getDeliveryTag())) {
+            giveBack(envelope);
+            return;
+        }
+
+        if (adaptivePrefetch != null) {
+            adaptivePrefetch.received();
+        }
+        recordLag(properties);
+
+        Delivery delivery = new Delivery(envelope, properties, body, message, key);
+        try {
+            dispatch(delivery);
+        } catch (RejectedExecutionException e) {
+            // the consumer started draining after accepting the message
+            finished(envelope.getDeliveryTag());
+            giveBack(envelope);
+        }
+    }
+
+    /**
+     * Hands an accepted message to the batcher or to the executor of the consumer mode.
+     *
+     * @throws RejectedExecutionException if they were shut down since the message was accepted.
+     */
+    private void dispatch(Delivery delivery) {
+        if (batcher != null) {
+            batcher.add(delivery);
+            return;
+        }
+
+        Message message = delivery.getMessage();
+        executor.execute(message.getEntryId(), () -> {
+            long start = System.nanoTime();
+            try {
+                int status = handleOnce(delivery);
+                recordHandled(message, status, System.nanoTime() - start);
+                complete(delivery, status);
+            } finally {
+                // failures are sampled too, or slow failing messages would not slow the prefetch down
+                if (adaptivePrefetch != null) {
+                    adaptivePrefetch.completed(1, System.nanoTime() - start);
+                }
+                finished(delivery.getDeliveryTag());
+            }
+        });
+    }
+
+    /**
+     * Counts a message as being handled, unless the consumer is draining.
+     *
+     * @return false if the consumer is draining and the message must be given back.
+     */
+    private boolean accept(long deliveryTag) {
+        synchronized (drainLock) {
+            if (draining) {
+                return false;
+            }
+            if (deliveryTag > recoveredUpTo) {
+                inFlight++;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Counts a message as handled, unless it was already counted as abandoned by a recovery.
+     */
+    private void finished(long deliveryTag) {
+        synchronized (drainLock) {
+            if (deliveryTag > recoveredUpTo) {
+                inFlight--;
+                drainLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Abandons the messages being handled when the channel was recovered, since the client
+     * no longer takes their acks and the broker redelivers them. Delivery tags keep growing
+     * across a recovery, so later deliveries are told apart by their tag.
+     */
+    void recovered() {
+        long upTo = lastDeliveryTag;
+        int lost;
+        synchronized (drainLock) {
+            lost = inFlight;
+            abandoned += lost;
+            inFlight = 0;
+            recoveredUpTo = Math.max(recoveredUpTo, upTo);
+            drainLock.notifyAll();
+        }
+
+        if (orderedAcks != null) {
+            orderedAcks.reset(upTo + 1);
+        }
+        logger.warn("channel of {} was recovered, abandoned {} messages being handled", getQueue(), lost);
+    }
+
+    /**
+     * Gives a message that arrived while draining back to its queue, for another consumer to handle.
+     */
+    private void giveBack(Envelope envelope) {
+        try {
+            getChannel().basicReject(envelope.getDeliveryTag(), true);
+            if (orderedAcks != null) {
+                orderedAcks.skip(envelope.getDeliveryTag());
+            }
         } catch (IOException e) {
-            logger.error("An error happened during I/O", e);
-            status = MessageStatus.IO_ERROR.status;
+            logger.warn("could not give back message, it is redelivered once the channel is closed", e);
+        }
+    }
+
+    /**
+     * Handles a batch formed by the {@link DeliveryBatcher}, acknowledging all of it at
+     * once and answering each message with its own status.
+     */
+    private void handleBatchSafely(List<Delivery> batch) {
+        try {
+            handleBatchAndAck(batch);
+        } finally {
+            for (Delivery delivery : batch) {
+                finished(delivery.getDeliveryTag());
+            }
+        }
+    }
+
+    private void handleBatchAndAck(List<Delivery> batch) {
+        long start = System.nanoTime();
+        List<Integer> statuses = new ArrayList<>(Collections.nCopies(batch.size(), MessageStatus.UNDEFINED_STATUS.status));
+        List<Integer> fresh = new ArrayList<>(batch.size());
+        List<Message> messages = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Integer previous = findSkipped(batch.get(i));
+            if (previous != null) {
+                statuses.set(i, previous);
+            } else {
+                fresh.add(i);
+                messages.add(batch.get(i).getMessage());
+            }
+        }
+
+        if (!messages.isEmpty()) {
+            List<Integer> handled;
+            try {
+                handled = handleBatch(messages);
+            } catch (Exception e) {
+                handled = Collections.nCopies(messages.size(), getStatus(e));
+            }
+
+            if (handled == null || handled.size() != messages.size()) {
+                logger.error("handleBatch returned {} statuses for {} messages",
+                        handled == null ? 0 : handled.size(), messages.size());
+            }
+            for (int i = 0; handled != null && i < fresh.size() && i < handled.size(); i++) {
+                Delivery delivery = batch.get(fresh.get(i));
+                statuses.set(fresh.get(i), handled.get(i));
+                remember(delivery, handled.get(i));
+            }
+        }
+
+        long elapsed = (System.nanoTime() - start) / batch.size();
+        for (int i = 0; i < batch.size(); i++) {
+            recordHandled(batch.get(i).getMessage(), statuses.get(i), elapsed);
+        }
+
+        boolean[] retried = new boolean[batch.size()];
+        int lastAcked = -1;
+        for (int i = 0; i < batch.size(); i++) {
+            try {
+                retried[i] = retry(batch.get(i), statuses.get(i));
+                lastAcked = i;
+            } catch (IOException e) {
+                retried[i] = requeue(batch.get(i), e);
+                if (!retried[i]) {
+                    lastAcked = i;
+                }
+            }
+        }
+
+        // acking a rejected tag closes the channel, but rejected tags before the last one are just passed over
+        if (lastAcked >= 0) {
+            try {
+                getChannel().basicAck(batch.get(lastAcked).getDeliveryTag(), true);
+            } catch (IOException e) {
+                logger.error("An error happened while acknowledging batch", e);
+            }
+        }
+
+        int failures = 0;
+        for (int i = 0; i < batch.size(); i++) {
+            int status = statuses.get(i);
+            if (MessageStatus.isError(status)) {
+                logger.warn("message failed with status {}: {}", status, batch.get(i).getMessage());
+                failures++;
+            }
+            if (!retried[i]) {
+                replyIfAsked(batch.get(i).getProperties(), status);
+            }
+        }
+        logger.debug("batch of {} messages handled, {} failed", batch.size(), failures);
+        if (adaptivePrefetch != null) {
+            adaptivePrefetch.completed(batch.size(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Records how long a message took from its publish to this consumer, if the producer said when it was published.
+     */
+    private void recordLag(AMQP.BasicProperties properties) {
+        MessagingMetrics metrics = getMetrics();
+        Map<String, Object> headers = properties.getHeaders();
+        Object publishedAt = headers != null ? headers.get(MessagingMetrics.PUBLISHED_AT_HEADER) : null;
+        if (metrics != null && publishedAt instanceof Number) {
+            metrics.delivered(((Number) publishedAt).longValue());
+        }
+    }
+
+    private void recordHandled(Message message, int status, long nanos) {
+        MessagingMetrics metrics = getMetrics();
+        if (metrics != null) {
+            metrics.handled(message.getType(), status, nanos);
+        }
+    }
+
+    private int handleOnce(Delivery delivery) {
+        Integer previous = findSkipped(delivery);
+        if (previous != null) {
+            return previous;
+        }
+
+        int status = handleSafely(delivery.getMessage());
+        remember(delivery, status);
+        return status;
+    }
+
+    /**
+     * @return the status to answer a message that must not be handled, or null if it must be handled.
+     */
+    private Integer findSkipped(Delivery delivery) {
+        Integer previous = findDuplicate(delivery);
+        if (previous == null && versions != null && versions.isSuperseded(delivery.getMessage())) {
+            logger.info("skipping superseded message: {}", delivery.getMessage());
+            return MessageStatus.SUPERSEDED.status;
+        }
+        return previous;
+    }
+
+    /**
+     * @return the status of an earlier handling of the message, or null if it was not handled yet.
+     */
+    private Integer findDuplicate(Delivery delivery) {
+        if (deduplication == null || delivery.getKey() == null) {
+            return null;
+        }
+
+        Integer previous = deduplication.lookup(delivery.getKey(), delivery.getEnvelope(), delivery.getProperties());
+        if (previous != null) {
+            logger.info("skipping duplicate message {}: {}", delivery.getKey(), delivery.getMessage());
+        }
+        return previous;
+    }
+
+    /**
+     * Remembers a handled message. Failed messages are not remembered, so they
+     * can be handled again if redelivered.
+     */
+    private void remember(Delivery delivery, int status) {
+        if (MessageStatus.isError(status)) {
+            return;
+        }
+        if (deduplication != null && delivery.getKey() != null) {
+            deduplication.record(delivery.getKey(), status);
+        }
+        if (versions != null) {
+            versions.record(delivery.getMessage());
+        }
+    }
+
+    /**
+     * @return the number of redelivered messages skipped because they were already
+     *          handled, or 0 if rabbitmq.consumer.dedup.enabled is not set.
+     */
+    public long getSkippedDuplicates() {
+        return deduplication != null ? deduplication.getSkipped() : 0L;
+    }
+
+    /**
+     * @return the number of messages skipped because a newer version of their entry was
+     *          already handled, or 0 if rabbitmq.consumer.versions.enabled is not set.
+     */
+    public long getSkippedSuperseded() {
+        return versions != null ? versions.getSkipped() : 0L;
+    }
+
+    private int handleSafely(Message message) {
+        try {
+            return handle(message);
         } catch (Exception e) {
-            logger.error("An error happened", e);
-            status = MessageStatus.UNKNOWN_ERROR.status;
+            return getStatus(e);
+        }
+    }
+
+    /**
+     * @param e the error raised while handling a message.
+     *
+     * @return the status the message is answered with.
+     */
+    public static int getStatus(Exception e) {
+        if (e instanceof InvalidConditionException) {
+            logger.warn(e.getMessage());
+            return ((InvalidConditionException) e).getStatus().status;
+        } else if (e instanceof IOException) {
+            logger.error("An error happened during I/O", e);
+            return MessageStatus.IO_ERROR.status;
+        }
+        logger.error("An error happened", e);
+        return MessageStatus.UNKNOWN_ERROR.status;
+    }
+
+    /**
+     * Acknowledges a handled message, scheduling it to be handled again first if it
+     * failed and retries are enabled. Retried messages are answered on their last attempt.
+     */
+    private void complete(Delivery delivery, int status) {
+        try {
+            if (retry(delivery, status)) {
+                ack(delivery.getDeliveryTag());
+                return;
+            }
+        } catch (IOException e) {
+            requeue(delivery, e);
+            return;
+        }
+        acknowledge(delivery.getEnvelope(), delivery.getProperties(), status);
+    }
+
+    /**
+     * @return true if the message was published to be handled again later.
+     *
+     * @throws IOException if the message could not be published for a retry.
+     */
+    private boolean retry(Delivery delivery, int status) throws IOException {
+        if (retryPolicy == null || !MessageStatus.isError(status)) {
+            return false;
+        }
+        return retryPolicy.retry(getChannel(), delivery.getProperties(), delivery.getBody(), status);
+    }
+
+    /**
+     * Gives a message that could not be published for a retry back to its queue, so it is not lost.
+     *
+     * @return true if the message was given back.
+     */
+    private boolean requeue(Delivery delivery, IOException cause) {
+        logger.error("An error happened while retrying message, requeueing it", cause);
+        try {
+            getChannel().basicReject(delivery.getDeliveryTag(), true);
+            if (orderedAcks != null) {
+                orderedAcks.skip(delivery.getDeliveryTag());
+            }
+            return true;
+        } catch (IOException e) {
+            logger.error("An error happened while requeueing message", e);
+            return false;
+        }
+    }
+
+    /**
+     * Moves a message that can not even be decoded straight to the dead-letter queue.
+     */
+    private void deadLetter(AMQP.BasicProperties properties, byte[] body, int status) {
+        if (retryPolicy == null) {
+            return;
+        }
+
+        try {
+            retryPolicy.deadLetter(getChannel(), properties, body, status);
+        } catch (IOException e) {
+            logger.error("An error happened while dead-lettering message, it will be lost", e);
+        }
+    }
+
+    private void acknowledge(Envelope envelope, AMQP.BasicProperties properties, int status) {
+        try {
+            ack(envelope.getDeliveryTag());
+        } catch (IOException e) {
+            logger.error("An error happened while acknowledging message", e);
         } finally {
-            getChannel().basicAck(envelope.getDeliveryTag(), false);
             replyIfAsked(properties, status);
         }
     }
 
+    /**
+     * Acks a single message, or, in virtual mode, once every earlier message is acked too.
+     */
+    private void ack(long deliveryTag) throws IOException {
+        if (orderedAcks != null) {
+            orderedAcks.ack(deliveryTag);
+        } else {
+            getChannel().basicAck(deliveryTag, false);
+        }
+    }
+
+    /**
+     * Drains the consumer and closes its channel.
+     */
+    @Override
+    public void close() throws IOException {
+        drain();
+        super.close();
+    }
+
+    /**
+     * Stops receiving messages and waits for those being handled to finish and be acked,
+     * up to rabbitmq.consumer.drain_timeout milliseconds.
+     */
+    private void drain() {
+        int before;
+        synchronized (drainLock) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+            before = inFlight;
+        }
+
+        String tag = consumerTag;
+        if (tag != null && getChannel().isOpen()) {
+            try {
+                getChannel().basicCancel(tag);
+            } catch (IOException e) {
+                logger.warn("An error happened while cancelling consumer {}", tag, e);
+            }
+        }
+
+        if (batcher != null) {
+            batcher.shutdown();
+        }
+        executor.shutdown();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(drainTimeout);
+        synchronized (drainLock) {
+            try {
+                long remaining;
+                while (inFlight > 0 && (remaining = deadline - System.nanoTime()) > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(drainLock, remaining);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            int left = Math.max(0, inFlight);
+            abandoned += left;
+            drained = Math.max(0, before - left);
+        }
+
+        if (orderedAcks != null && getChannel().isOpen()) {
+            try {
+                orderedAcks.flush();
+            } catch (IOException e) {
+                logger.warn("An error happened while acknowledging drained messages", e);
+            }
+        }
+
+        if (drained < before) {
+            logger.warn("drained {} messages of {}, abandoned {} still being handled after {} ms",
+                    drained, getQueue(), before - drained, drainTimeout);
+        } else {
+            logger.info("drained {} messages of {}", drained, getQueue());
+        }
+    }
+
+    /**
+     * @return the number of messages that were being handled when the consumer was
+     *          closed and finished in time, or 0 if it was not closed yet.
+     */
+    public int getDrained() {
+        synchronized (drainLock) {
+            return drained;
+        }
+    }
+
+    /**
+     * @return the number of messages still being handled once the drain timed out or the
+     *          channel was recovered, which the broker redelivers.
+     */
+    public int getAbandoned() {
+        synchronized (drainLock) {
+            return abandoned;
+        }
+    }
+
     /**
      * This method is used by the tests.
      * It is a workaround to wait for a result while testing.
@@ -120,4 +833,10 @@ public abstract class MessageConsumer extends MessengerService implements Consum
         return buffer.getInt();
     }
 
+    private enum ConsumerMode {
+        INLINE,
+        STRIPED,
+        VIRTUAL,
+        BATCH
+    }
 }
@@ -0,0 +1,21 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.silibrina.tecnova.commons.messenger.Message;
+
+/**
+ * The task executed for each consumed message, independent of the transport
+ * the message came through (see {@link ConsumerServiceFactory}).
+ */
+@FunctionalInterface
+public interface MessageHandler {
+
+    /**
+     * Executes the task based on the message.
+     *
+     * @param message The message to be consumed.
+     * @throws Exception if an error occurs while dealing with I/O.
+     *
+     * @return a number representing the status of this operation.
+     */
+    int handle(Message message) throws Exception;
+}
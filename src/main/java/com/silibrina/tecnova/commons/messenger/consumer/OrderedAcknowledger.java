@@ -0,0 +1,159 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Acks the deliveries of a channel in the order they arrived, even when they are
+ * handled concurrently and finish in any order.
+ *
+ * A delivery that finished is held back until every delivery before it finished
+ * too; then the whole run is acked with a single multiple ack. A slow message thus
+ * keeps the following ones unacked, so the prefetch of the channel bounds how far
+ * the consumer gets ahead of its oldest message, and a crash never loses a message
+ * that was acked before an older one was done.
+ *
+ * Only deliveries registered with {@link #register(long)} hold back the following ones,
+ * so tags that never reach the consumer (e.g. deliveries dropped when the channel shut
+ * down) do not stop the acks. Every registered delivery must be acked or skipped.
+ */
+public class OrderedAcknowledger {
+    private final Acknowledger acknowledger;
+    private final TreeMap<Long, State> deliveries;
+
+    private long settled;
+
+    /**
+     * @param acknowledger acks deliveries on the channel.
+     */
+    public OrderedAcknowledger(Acknowledger acknowledger) {
+        this.acknowledger = acknowledger;
+        this.deliveries = new TreeMap<>();
+    }
+
+    /**
+     * Records a delivery as it is received, so the following deliveries wait for it.
+     *
+     * @param deliveryTag the tag of the delivery.
+     */
+    public synchronized void register(long deliveryTag) {
+        if (deliveryTag > settled) {
+            deliveries.putIfAbsent(deliveryTag, State.RECEIVED);
+        }
+    }
+
+    /**
+     * Acks a delivery once every earlier registered delivery was acked or skipped.
+     *
+     * @param deliveryTag the tag of the delivery.
+     *
+     * @throws IOException if the ack could not be sent.
+     */
+    public synchronized void ack(long deliveryTag) throws IOException {
+        finish(deliveryTag, true);
+    }
+
+    /**
+     * Marks a delivery that was already rejected, so it does not hold back the following ones.
+     *
+     * @param deliveryTag the tag of the delivery.
+     *
+     * @throws IOException if an ack released by this delivery could not be sent.
+     */
+    public synchronized void skip(long deliveryTag) throws IOException {
+        finish(deliveryTag, false);
+    }
+
+    private void finish(long deliveryTag, boolean ack) throws IOException {
+        if (deliveryTag <= settled) {
+            return;
+        }
+        deliveries.put(deliveryTag, ack ? State.ACKED : State.SKIPPED);
+
+        long last = 0;
+        Map.Entry<Long, State> first;
+        while ((first = deliveries.firstEntry()) != null && first.getValue() != State.RECEIVED) {
+            deliveries.pollFirstEntry();
+            settled = first.getKey();
+            if (first.getValue() == State.ACKED) {
+                last = settled;
+            }
+        }
+
+        // acking under the lock keeps acks in order on the channel
+        if (last > 0) {
+            acknowledger.ack(last, true);
+        }
+    }
+
+    /**
+     * Acks, one by one, the deliveries held back by an earlier one. This is meant for a
+     * consumer that stops waiting for the earlier deliveries, so what finished is not redone.
+     *
+     * @throws IOException if an ack could not be sent.
+     */
+    public synchronized void flush() throws IOException {
+        for (Map.Entry<Long, State> delivery : deliveries.entrySet()) {
+            if (delivery.getValue() == State.ACKED) {
+                acknowledger.ack(delivery.getKey(), false);
+            }
+        }
+        if (!deliveries.isEmpty()) {
+            settled = deliveries.lastKey();
+        }
+        deliveries.clear();
+    }
+
+    /**
+     * Forgets every delivery received so far, for a channel that was recovered: the
+     * client no longer takes acks for them, and the broker redelivers them. Later acks
+     * or skips of those deliveries are ignored.
+     *
+     * @param firstTag a tag above every delivery received before the recovery.
+     */
+    public synchronized void reset(long firstTag) {
+        settled = Math.max(settled, firstTag - 1);
+        deliveries.clear();
+    }
+
+    /**
+     * @return the number of deliveries that finished but wait for an earlier one.
+     */
+    public synchronized int getHeldBack() {
+        int heldBack = 0;
+        for (State state : deliveries.values()) {
+            if (state != State.RECEIVED) {
+                heldBack++;
+            }
+        }
+        return heldBack;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "%s [settled: %d, heldBack: %d]",
+                this.getClass().getSimpleName(), settled, getHeldBack());
+    }
+
+    private enum State {
+        RECEIVED,
+        ACKED,
+        SKIPPED
+    }
+
+    /**
+     * Acks deliveries on the channel they came from.
+     */
+    public interface Acknowledger {
+
+        /**
+         * @param deliveryTag the tag of the delivery acked.
+         * @param multiple true to ack every delivery up to this tag too.
+         *
+         * @throws IOException if the ack could not be sent.
+         */
+        void ack(long deliveryTag, boolean multiple) throws IOException;
+    }
+}
@@ -0,0 +1,296 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.DefaultConsumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.silibrina.tecnova.commons.messenger.ConnectionManager;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessengerService;
+import com.silibrina.tecnova.commons.messenger.PartitionRing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PARTITION_COUNT;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PARTITION_REBALANCE_INTERVAL;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getInt;
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * Consumes a queue split in rabbitmq.partition.count partitions (see {@link PartitionRing}),
+ * sharing the partitions with the consumers of the same queue on other nodes.
+ *
+ * Each partition is consumed by at most one consumer at a time, with an exclusive
+ * {@link MessageConsumer} of its own, so the messages of an entry are handled in order.
+ * Consumers announce themselves by consuming {@code <queue>.members}, whose consumer count
+ * tells how many consumers share the queue. Every rabbitmq.partition.rebalance_interval
+ * milliseconds, each consumer claims free partitions up to its fair share
+ * ({@code ceil(partitions / consumers)}) and gives back the ones above it, so partitions
+ * spread over the nodes as they come and go, and the partitions of a node that died are
+ * claimed by the others.
+ *
+ * Messages being handled when a partition is given back are redelivered to its next
+ * owner, which may handle them again (see rabbitmq.consumer.dedup).
+ */
+public abstract class PartitionedConsumerService extends MessengerService implements ConsumerService {
+    private static final Logger logger = LoggerFactory.getLogger(PartitionedConsumerService.class);
+
+    private static final String MEMBERS_SUFFIX = ".members";
+    private static final int DEFAULT_REBALANCE_INTERVAL = 10000;
+
+    private final int partitions;
+    private final long rebalanceInterval;
+    private final String membersQueue;
+    private final NavigableMap<Integer, PartitionConsumer> claimed;
+
+    private ScheduledExecutorService rebalancer;
+
+    public PartitionedConsumerService(String queueName) throws IOException, TimeoutException {
+        super(queueName);
+
+        this.partitions = getInt(getConfig(), RABBITMQ_PARTITION_COUNT, 0);
+        checkIOCondition("rabbitmq.partition.count must be set to consume partitions", partitions > 0);
+        this.rebalanceInterval = getInt(getConfig(), RABBITMQ_PARTITION_REBALANCE_INTERVAL, DEFAULT_REBALANCE_INTERVAL);
+        this.membersQueue = queueName + MEMBERS_SUFFIX;
+        this.claimed = new ConcurrentSkipListMap<>();
+
+        for (int partition = 0; partition < partitions; partition++) {
+            declareQueue(getChannel(), PartitionRing.queueOf(queueName, partition));
+        }
+    }
+
+    /**
+     * Joins the consumers of the queue and claims a first share of the partitions.
+     */
+    @Override
+    public synchronized void start() throws IOException {
+        checkIOCondition("consumer is already started", rebalancer == null);
+
+        Channel channel = getChannel();
+        channel.queueDeclare(membersQueue, false, false, true, null);
+        channel.basicConsume(membersQueue, true, new DefaultConsumer(channel));
+
+        rebalancer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "partitions-" + getQueue());
+            thread.setDaemon(true);
+            return thread;
+        });
+        rebalance();
+        rebalancer.scheduleWithFixedDelay(this::rebalance, rebalanceInterval, rebalanceInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Claims or gives back partitions so this consumer holds its fair share of them.
+     */
+    void rebalance() {
+        try {
+            for (Map.Entry<Integer, PartitionConsumer> entry : claimed.entrySet()) {
+                if (entry.getValue().isLost()) {
+                    logger.warn("partition {} of {} was not restored after a recovery", entry.getKey(), getQueue());
+                    release(entry.getKey());
+                }
+            }
+
+            int share = getFairShare(partitions, countConsumers(membersQueue));
+
+            // starts at a random partition, so consumers starting together try different ones first
+            int first = ThreadLocalRandom.current().nextInt(partitions);
+            for (int i = 0; i < partitions && claimed.size() < share; i++) {
+                int partition = (first + i) % partitions;
+                if (!claimed.containsKey(partition)
+                        && countConsumers(PartitionRing.queueOf(getQueue(), partition)) == 0) {
+                    claim(partition);
+                }
+            }
+
+            while (claimed.size() > share) {
+                release(claimed.lastKey());
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.warn("could not rebalance partitions of {}: {}", getQueue(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return how many partitions each of the given consumers should hold.
+     */
+    static int getFairShare(int partitions, int consumers) {
+        return (partitions + Math.max(1, consumers) - 1) / Math.max(1, consumers);
+    }
+
+    private int countConsumers(String queueName) throws IOException {
+        Channel channel = borrowChannel();
+        try {
+            return channel.queueDeclarePassive(queueName).getConsumerCount();
+        } finally {
+            releaseChannel(channel);
+        }
+    }
+
+    private void claim(int partition) {
+        PartitionConsumer consumer;
+        try {
+            consumer = new PartitionConsumer(partition);
+        } catch (IOException | TimeoutException e) {
+            logger.warn("could not open partition {} of {}: {}", partition, getQueue(), e.getMessage());
+            return;
+        }
+
+        try {
+            consumer.start();
+            claimed.put(partition, consumer);
+            logger.info("claimed partition {} of {}", partition, getQueue());
+        } catch (IOException e) {
+            logger.debug("partition {} of {} was claimed by another consumer", partition, getQueue());
+            closeQuietly(consumer);
+        }
+    }
+
+    private void release(int partition) {
+        PartitionConsumer consumer = claimed.remove(partition);
+        if (consumer != null) {
+            logger.info("giving back partition {} of {}", partition, getQueue());
+            closeQuietly(consumer);
+        }
+    }
+
+    private void closeQuietly(MessageConsumer consumer) {
+        try {
+            consumer.close();
+        } catch (IOException | RuntimeException e) {
+            logger.warn("An error happened while closing consumer of {}", consumer.getQueue(), e);
+        }
+    }
+
+    /**
+     * @return the partitions this consumer holds right now.
+     */
+    public NavigableSet<Integer> getClaimed() {
+        return claimed.navigableKeySet();
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (rebalancer != null) {
+                rebalancer.shutdownNow();
+                try {
+                    rebalancer.awaitTermination(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+
+        for (Integer partition : claimed.keySet()) {
+            release(partition);
+        }
+        super.close();
+    }
+
+    @Override
+    public void handleConsumeOk(String consumerTag) {
+        logger.debug("tag: {}", consumerTag);
+    }
+
+    @Override
+    public void handleCancelOk(String consumerTag) {
+        logger.debug("tag: {}", consumerTag);
+    }
+
+    @Override
+    public void handleCancel(String consumerTag) {
+        logger.debug("tag: {}", consumerTag);
+    }
+
+    @Override
+    public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+        logger.debug("tag: {}, reason: {}", consumerTag, sig.getMessage());
+    }
+
+    @Override
+    public void handleRecoverOk(String consumerTag) {
+        logger.debug("tag: {}", consumerTag);
+    }
+
+    /**
+     * Messages are delivered to the consumers of the partitions, never to this one.
+     */
+    @Override
+    public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+        logger.warn("partitioned consumer of {} ignored a delivery", getQueue());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [queue: %s, partitions: %d, claimed: %s]",
+                this.getClass().getSimpleName(), getQueue(), partitions, claimed.keySet());
+    }
+
+    /**
+     * Consumes a single partition exclusively, handing its messages to this service.
+     */
+    private final class PartitionConsumer extends MessageConsumer {
+        private final int partition;
+
+        private PartitionConsumer(int partition) throws IOException, TimeoutException {
+            super(PartitionRing.queueOf(PartitionedConsumerService.this.getQueue(), partition));
+            this.partition = partition;
+        }
+
+        @Override
+        public int handle(Message message) throws Exception {
+            return PartitionedConsumerService.this.handle(message);
+        }
+
+        @Override
+        public List<Integer> handleBatch(List<Message> messages) throws Exception {
+            return PartitionedConsumerService.this.handleBatch(messages);
+        }
+
+        @Override
+        protected boolean isExclusive() {
+            return true;
+        }
+
+        /**
+         * @return true if the channel was closed while this consumer held the partition, e.g.
+         *          because its exclusive consumer could not be restored after a recovery.
+         */
+        private boolean isLost() {
+            return !getChannel().isOpen() && !ConnectionManager.getInstance().isRecovering(getChannel());
+        }
+
+        /**
+         * A partition whose channel was closed is no longer consumed, so it is
+         * dropped for the next rebalance to claim it again (here or elsewhere).
+         * A channel lost with the connection keeps its partition, since the
+         * exclusive consumer is restored when the connection is recovered.
+         */
+        @Override
+        public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+            super.handleShutdownSignal(consumerTag, sig);
+            if (ConnectionManager.isRecoverableShutdown(getChannel(), sig)) {
+                return;
+            }
+            if (claimed.remove(partition, this)) {
+                logger.warn("lost partition {} of {}: {}", partition, PartitionedConsumerService.this.getQueue(),
+                        sig.getMessage());
+            }
+        }
+    }
+}
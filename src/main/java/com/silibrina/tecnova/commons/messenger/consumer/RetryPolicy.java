@@ -0,0 +1,169 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+
+/**
+ * Decides what happens to a message whose handling failed.
+ *
+ * Messages failed with a status that may succeed later (see {@link MessageStatus#isRetryable(int)})
+ * are published to a delay queue, where they wait before being dead-lettered back to the
+ * queue of the consumer. Each attempt has its own delay queue ({@code <queue>.retry.<attempt>}),
+ * with a message TTL that doubles on each attempt, up to {@code maxDelay}. After
+ * {@code maxAttempts} failed attempts, the message is published to the dead-letter queue
+ * ({@code <queue>.dead}), where it stays until an operator handles it.
+ *
+ * The number of attempts travels with the message in the {@link #ATTEMPTS_HEADER} header.
+ */
+public class RetryPolicy {
+    private static final Logger logger = LoggerFactory.getLogger(RetryPolicy.class);
+
+    public static final String ATTEMPTS_HEADER = "x-retry-attempts";
+    public static final String STATUS_HEADER = "x-retry-status";
+
+    private static final String EXCHANGE = "";
+    private static final String RETRY_SUFFIX = ".retry.";
+    private static final String DEAD_LETTER_SUFFIX = ".dead";
+
+    private final String queueName;
+    private final int maxAttempts;
+    private final long delay;
+    private final long maxDelay;
+
+    /**
+     * @param queueName the queue the retried messages go back to.
+     * @param maxAttempts how many times a message is handled before being dead-lettered.
+     * @param delay time, in milliseconds, before the first retry.
+     * @param maxDelay maximum time, in milliseconds, between two attempts.
+     */
+    public RetryPolicy(String queueName, int maxAttempts, long delay, long maxDelay) {
+        checkCondition("max attempts must be positive", maxAttempts > 0);
+        checkCondition("retry delay must be positive", delay > 0 && maxDelay >= delay);
+
+        this.queueName = queueName;
+        this.maxAttempts = maxAttempts;
+        this.delay = delay;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Declares the delay queues and the dead-letter queue.
+     *
+     * @param channel the channel used to declare the queues.
+     * @param durable whether the queues survive a broker restart.
+     *
+     * @throws IOException if a queue could not be declared.
+     */
+    public void declare(Channel channel, boolean durable) throws IOException {
+        for (int attempt = 1; attempt < maxAttempts; attempt++) {
+            Map<String, Object> arguments = new HashMap<>();
+            arguments.put("x-message-ttl", getDelay(attempt));
+            arguments.put("x-dead-letter-exchange", EXCHANGE);
+            arguments.put("x-dead-letter-routing-key", queueName);
+            channel.queueDeclare(getDelayQueue(attempt), durable, false, false, arguments);
+        }
+        channel.queueDeclare(getDeadLetterQueue(), durable, false, false, null);
+    }
+
+    /**
+     * Schedules a failed message to be handled again, or dead-letters it if it
+     * already failed {@code maxAttempts} times.
+     *
+     * @param channel the channel used to publish the message.
+     * @param properties the properties the message was received with.
+     * @param body the body the message was received with.
+     * @param status the status its handling failed with.
+     *
+     * @return true if the message will be delivered again, false if it was
+     *          dead-lettered or its status is not worth a retry.
+     *
+     * @throws IOException if the message could not be published.
+     */
+    public boolean retry(Channel channel, AMQP.BasicProperties properties, byte[] body, int status) throws IOException {
+        if (!MessageStatus.isRetryable(status)) {
+            return false;
+        }
+
+        int attempt = getAttempts(properties) + 1;
+        if (attempt >= maxAttempts) {
+            deadLetter(channel, properties, body, status);
+            return false;
+        }
+
+        logger.info("message {} failed with status {}, retrying in {} ms (attempt {}/{})",
+                properties.getMessageId(), status, getDelay(attempt), attempt + 1, maxAttempts);
+        channel.basicPublish(EXCHANGE, getDelayQueue(attempt), withAttempts(properties, attempt, status), body);
+        return true;
+    }
+
+    /**
+     * Publishes a message to the dead-letter queue.
+     *
+     * @param channel the channel used to publish the message.
+     * @param properties the properties the message was received with.
+     * @param body the body the message was received with.
+     * @param status the status its handling failed with.
+     *
+     * @throws IOException if the message could not be published.
+     */
+    public void deadLetter(Channel channel, AMQP.BasicProperties properties, byte[] body, int status) throws IOException {
+        int attempts = getAttempts(properties) + 1;
+        logger.warn("message {} failed with status {} after {} attempts, moving it to {}",
+                properties.getMessageId(), status, attempts, getDeadLetterQueue());
+        channel.basicPublish(EXCHANGE, getDeadLetterQueue(), withAttempts(properties, attempts, status), body);
+    }
+
+    /**
+     * @param attempt the number of the retry, starting at 1.
+     *
+     * @return time, in milliseconds, the message waits before the given retry.
+     */
+    long getDelay(int attempt) {
+        long current = delay;
+        for (int i = 1; i < attempt && current < maxDelay; i++) {
+            current *= 2;
+        }
+        return Math.min(current, maxDelay);
+    }
+
+    String getDelayQueue(int attempt) {
+        return queueName + RETRY_SUFFIX + attempt;
+    }
+
+    String getDeadLetterQueue() {
+        return queueName + DEAD_LETTER_SUFFIX;
+    }
+
+    /**
+     * @return how many times the message was retried before this delivery.
+     */
+    static int getAttempts(AMQP.BasicProperties properties) {
+        Map<String, Object> headers = properties != null ? properties.getHeaders() : null;
+        Object attempts = headers != null ? headers.get(ATTEMPTS_HEADER) : null;
+        return attempts instanceof Number ? ((Number) attempts).intValue() : 0;
+    }
+
+    static AMQP.BasicProperties withAttempts(AMQP.BasicProperties properties, int attempts, int status) {
+        Map<String, Object> headers = properties.getHeaders() != null ?
+                new HashMap<>(properties.getHeaders()) : new HashMap<>();
+        headers.put(ATTEMPTS_HEADER, attempts);
+        headers.put(STATUS_HEADER, status);
+        return properties.builder().headers(headers).build();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [queue: %s, maxAttempts: %d, delay: %d, maxDelay: %d]",
+                this.getClass().getSimpleName(), queueName, maxAttempts, delay, maxDelay);
+    }
+}
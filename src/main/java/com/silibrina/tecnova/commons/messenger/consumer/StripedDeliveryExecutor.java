@@ -0,0 +1,80 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+
+/**
+ * Handles deliveries on a fixed number of single-threaded lanes.
+ *
+ * The key of each task is hashed onto one lane, so messages of different entries
+ * are handled in parallel while the messages of the same entry keep the order
+ * they arrived in (a CREATE is never handled after the UPDATE that follows it).
+ */
+public class StripedDeliveryExecutor implements DeliveryExecutor {
+    private final ExecutorService[] lanes;
+
+    /**
+     * @param size number of lanes.
+     * @param name prefix of the name of the lane threads.
+     */
+    public StripedDeliveryExecutor(int size, String name) {
+        checkCondition("number of lanes must be positive", size > 0);
+
+        this.lanes = new ExecutorService[size];
+        for (int i = 0; i < size; i++) {
+            String threadName = String.format(Locale.getDefault(), "%s-lane-%d", name, i);
+            lanes[i] = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, threadName);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    @Override
+    public void execute(String key, Runnable task) {
+        lanes[laneOf(key)].execute(task);
+    }
+
+    @Override
+    public void shutdown() {
+        for (ExecutorService lane : lanes) {
+            lane.shutdown();
+        }
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (ExecutorService lane : lanes) {
+            long remaining = deadline - System.nanoTime();
+            if (!lane.awaitTermination(Math.max(0L, remaining), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param key the key of a task.
+     *
+     * @return the index of the lane that runs the tasks with this key.
+     */
+    int laneOf(String key) {
+        int hash = key.hashCode();
+        hash ^= (hash >>> 16);
+        return (hash & Integer.MAX_VALUE) % lanes.length;
+    }
+
+    /**
+     * @return the number of lanes.
+     */
+    @Override
+    public int size() {
+        return lanes.length;
+    }
+}
@@ -0,0 +1,99 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.silibrina.tecnova.commons.messenger.Message;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+
+/**
+ * Remembers the highest version of each entry a consumer handled, so messages made
+ * stale by a newer one are skipped instead of being handled (see {@link Message#getVersion()}).
+ *
+ * This covers messages of one entry that arrive out of order, e.g. a CREATE redelivered
+ * after the DELETE that followed it was handled, or messages of one entry handled in
+ * parallel by different consumers. Only successfully handled messages count: a newer
+ * message that failed does not make the older ones stale. Messages with the version
+ * last handled are not skipped, since redeliveries are the job of the
+ * {@link DeduplicationCache}, and neither are messages without a version.
+ *
+ * The table keeps the versions of at most {@code maxSize} entries, forgetting the
+ * entries handled the longest time ago first.
+ */
+public class VersionTable {
+    private final LinkedHashMap<String, Long> versions;
+    private final int maxSize;
+    private final AtomicLong skipped;
+
+    /**
+     * @param maxSize maximum number of entries remembered.
+     */
+    public VersionTable(int maxSize) {
+        checkCondition("version table size must be positive", maxSize > 0);
+
+        this.versions = new LinkedHashMap<>();
+        this.maxSize = maxSize;
+        this.skipped = new AtomicLong();
+    }
+
+    /**
+     * @param message a received message.
+     *
+     * @return true if a newer version of the entry of the message was already handled.
+     */
+    public synchronized boolean isSuperseded(Message message) {
+        if (message.getVersion() == Message.NO_VERSION) {
+            return false;
+        }
+
+        Long handled = versions.get(message.getEntryId());
+        if (handled == null || message.getVersion() >= handled) {
+            return false;
+        }
+
+        skipped.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Remembers the version of a message that was handled successfully.
+     *
+     * @param message the handled message.
+     */
+    public synchronized void record(Message message) {
+        if (message.getVersion() == Message.NO_VERSION) {
+            return;
+        }
+
+        Long handled = versions.remove(message.getEntryId());
+        versions.put(message.getEntryId(), handled != null ? Math.max(handled, message.getVersion()) : message.getVersion());
+        if (versions.size() > maxSize) {
+            Iterator<String> eldest = versions.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return the number of messages skipped as superseded.
+     */
+    public long getSkipped() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of entries currently remembered.
+     */
+    public synchronized int size() {
+        return versions.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "%s [size: %d, maxSize: %d, skipped: %d]",
+                this.getClass().getSimpleName(), versions.size(), maxSize, skipped.get());
+    }
+}
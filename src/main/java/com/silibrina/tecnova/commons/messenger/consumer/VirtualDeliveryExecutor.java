@@ -0,0 +1,157 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+
+/**
+ * Handles each delivery on a thread of its own, for handlers that spend most of
+ * their time blocked on I/O.
+ *
+ * On runtimes with virtual threads (Java 21 and later) every delivery gets a new
+ * virtual thread, so thousands of handlers can wait on Mongo or on files without
+ * sizing a pool. Elsewhere deliveries are handled on a fixed pool of {@code carriers}
+ * platform threads.
+ *
+ * At most {@code size} deliveries are handled at the same time; {@link #execute(String, Runnable)}
+ * blocks the caller while every slot is taken. Deliveries with the same key are handled
+ * one after the other, in the order they were submitted.
+ */
+public class VirtualDeliveryExecutor implements DeliveryExecutor {
+    private static final Logger logger = LoggerFactory.getLogger(VirtualDeliveryExecutor.class);
+
+    private final int size;
+    private final boolean virtual;
+    private final ExecutorService threads;
+    private final Semaphore permits;
+    private final Map<String, Deque<Runnable>> running;
+
+    /**
+     * @param size maximum number of deliveries handled at the same time.
+     * @param carriers number of threads used when virtual threads are not available.
+     * @param name prefix of the name of the threads.
+     */
+    public VirtualDeliveryExecutor(int size, int carriers, String name) {
+        checkCondition("number of concurrent deliveries must be positive", size > 0);
+        checkCondition("number of carriers must be positive", carriers > 0);
+
+        ExecutorService virtualThreads = newVirtualThreadExecutor(name);
+        this.size = size;
+        this.virtual = virtualThreads != null;
+        this.threads = virtualThreads != null ? virtualThreads : newCarrierPool(Math.min(size, carriers), name);
+        this.permits = new Semaphore(size);
+        this.running = new HashMap<>();
+
+        logger.debug("handling up to {} deliveries of {} on {} threads", size, name, virtual ? "virtual" : "carrier");
+    }
+
+    /**
+     * @return an executor starting a virtual thread per task, or null if the runtime has no virtual threads.
+     */
+    private static ExecutorService newVirtualThreadExecutor(String name) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            builder = builderType.getMethod("name", String.class, long.class).invoke(builder, name + "-virtual-", 0L);
+            ThreadFactory factory = (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+
+            Method executor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            return (ExecutorService) executor.invoke(null, factory);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.debug("virtual threads are not available: {}", e.toString());
+            return null;
+        }
+    }
+
+    private static ExecutorService newCarrierPool(int carriers, String name) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(carriers, runnable -> {
+            Thread thread = new Thread(runnable,
+                    String.format(Locale.getDefault(), "%s-carrier-%d", name, count.getAndIncrement()));
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @Override
+    public void execute(String key, Runnable task) {
+        permits.acquireUninterruptibly();
+        synchronized (running) {
+            Deque<Runnable> queued = running.get(key);
+            if (queued != null) {
+                queued.addLast(task);
+                return;
+            }
+            running.put(key, new ArrayDeque<>());
+        }
+
+        try {
+            threads.execute(() -> runInOrder(key, task));
+        } catch (RuntimeException e) {
+            synchronized (running) {
+                running.remove(key);
+            }
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Runs a task and then the tasks submitted with the same key meanwhile.
+     */
+    private void runInOrder(String key, Runnable task) {
+        Runnable next = task;
+        while (next != null) {
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                logger.error("An error happened while handling a delivery", e);
+            } finally {
+                permits.release();
+            }
+
+            synchronized (running) {
+                next = running.get(key).pollFirst();
+                if (next == null) {
+                    running.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if deliveries run on virtual threads, false if on the carrier pool.
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public void shutdown() {
+        threads.shutdown();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return threads.awaitTermination(timeout, unit);
+    }
+}
@@ -0,0 +1,46 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Parks waiting threads on a condition until they are signaled. Uses no CPU while
+ * idle, at the cost of taking a lock on every signal.
+ */
+public class BlockingWaitStrategy implements WaitStrategy {
+    private final Lock lock;
+    private final Condition changed;
+
+    public BlockingWaitStrategy() {
+        this.lock = new ReentrantLock();
+        this.changed = lock.newCondition();
+    }
+
+    @Override
+    public void await(BooleanSupplier ready) throws InterruptedException {
+        if (ready.getAsBoolean()) {
+            return;
+        }
+
+        lock.lock();
+        try {
+            while (!ready.getAsBoolean()) {
+                changed.await();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void signal() {
+        lock.lock();
+        try {
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import com.silibrina.tecnova.commons.exceptions.UnrecoverableErrorException;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_EMBEDDED_BUFFER_SIZE;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Strings.RABBITMQ_EMBEDDED_PRODUCER;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Strings.RABBITMQ_EMBEDDED_WAIT;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getInt;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getString;
+import static com.silibrina.tecnova.commons.exceptions.ExitStatus.CONFIGURATION_ERROR_STATUS;
+
+/**
+ * The queues of the in-process message bus, used instead of RabbitMQ when
+ * rabbitmq.transport is "embedded".
+ *
+ * Each queue name maps to a {@link RingBuffer}, created on first use from the
+ * configuration section rabbitmq.embedded:
+ * - buffer_size: number of slots, a power of two;
+ * - producer: "multi" if several threads publish to the queue, "single" otherwise;
+ * - wait: blocking, sleeping, yielding or busy_spin (see {@link WaitStrategy}).
+ *
+ * Messages only live in memory, so they are lost if the process stops.
+ */
+public final class EmbeddedBus {
+    private static final int DEFAULT_BUFFER_SIZE = 1024;
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+    private static final long PARK_NANOS = 100000L;
+
+    private static final ConcurrentMap<String, RingBuffer<EmbeddedDelivery>> queues = new ConcurrentHashMap<>();
+
+    private EmbeddedBus() {
+    }
+
+    /**
+     * @param queueName the name of the queue.
+     *
+     * @return the buffer of the queue, created if this is its first use.
+     */
+    static RingBuffer<EmbeddedDelivery> getQueue(String queueName) {
+        return queues.computeIfAbsent(queueName, name -> newQueue(ConfigFactory.load()));
+    }
+
+    private static RingBuffer<EmbeddedDelivery> newQueue(Config config) {
+        int size = getInt(config, RABBITMQ_EMBEDDED_BUFFER_SIZE, DEFAULT_BUFFER_SIZE);
+        boolean multiProducer = getProducerType(getString(config, RABBITMQ_EMBEDDED_PRODUCER,
+                ProducerType.MULTI.name())) == ProducerType.MULTI;
+        WaitStrategy waitStrategy = getWaitStrategy(getString(config, RABBITMQ_EMBEDDED_WAIT,
+                WaitStrategyType.BLOCKING.name()));
+
+        return new RingBuffer<>(size, EmbeddedDelivery::new, multiProducer, waitStrategy);
+    }
+
+    static WaitStrategy getWaitStrategy(String type) {
+        WaitStrategyType waitStrategyType;
+        try {
+            waitStrategyType = WaitStrategyType.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new UnrecoverableErrorException("Wait strategy does not exists: " + type, CONFIGURATION_ERROR_STATUS);
+        }
+
+        switch (waitStrategyType) {
+            case BLOCKING:
+                return new BlockingWaitStrategy();
+            case SLEEPING:
+                return new SpinningWaitStrategy(SPINS, YIELDS, PARK_NANOS);
+            case YIELDING:
+                return new SpinningWaitStrategy(SPINS, Integer.MAX_VALUE, 0);
+            case BUSY_SPIN:
+                return new SpinningWaitStrategy(Integer.MAX_VALUE, 0, 0);
+            default:
+                throw new UnrecoverableErrorException("Unknown wait strategy: " + waitStrategyType, CONFIGURATION_ERROR_STATUS);
+        }
+    }
+
+    private static ProducerType getProducerType(String type) {
+        try {
+            return ProducerType.valueOf(type.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new UnrecoverableErrorException("Producer type does not exists: " + type, CONFIGURATION_ERROR_STATUS);
+        }
+    }
+
+    private enum ProducerType {
+        SINGLE,
+        MULTI
+    }
+
+    private enum WaitStrategyType {
+        BLOCKING,
+        SLEEPING,
+        YIELDING,
+        BUSY_SPIN
+    }
+}
@@ -0,0 +1,146 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.consumer.ConsumerService;
+import com.silibrina.tecnova.commons.messenger.consumer.MessageConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * Consumes messages from a queue of the in-process {@link EmbeddedBus}.
+ *
+ * Messages are handled one at a time, in the order they were published, by
+ * {@link #handle(Message)} on a thread of this consumer. The status of each message
+ * is sent back to sync producers, exactly as {@link MessageConsumer} does over
+ * RabbitMQ. A queue has at most one consumer at a time.
+ */
+public abstract class EmbeddedConsumerService implements ConsumerService {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedConsumerService.class);
+
+    private static final long CLOSE_TIMEOUT = 30L;
+
+    private final String queueName;
+    private final RingBuffer<EmbeddedDelivery> queue;
+
+    private Thread worker;
+    private volatile boolean running;
+    private volatile boolean handling;
+
+    public EmbeddedConsumerService(String queueName) {
+        this.queueName = queueName;
+        this.queue = EmbeddedBus.getQueue(queueName);
+    }
+
+    @Override
+    public synchronized void start() throws IOException {
+        checkIOCondition("consumer is already started", worker == null);
+        checkIOCondition("queue " + queueName + " already has a consumer", queue.attachConsumer());
+
+        running = true;
+        worker = new Thread(this::consume, "embedded-" + queueName);
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    private void consume() {
+        long next = queue.getNextToConsume();
+        try {
+            while (running) {
+                long available = queue.waitFor(next);
+                handling = true;
+                for (; next <= available; next++) {
+                    EmbeddedDelivery delivery = queue.get(next);
+                    int status = handleSafely(delivery.getMessage());
+                    CompletableFuture<Integer> result = delivery.getResult();
+                    delivery.clear();
+                    if (result != null) {
+                        result.complete(status);
+                    }
+                }
+                queue.release(available);
+                handling = false;
+            }
+        } catch (InterruptedException e) {
+            logger.debug("consumer of {} interrupted", queueName);
+        } finally {
+            queue.detachConsumer();
+        }
+    }
+
+    private int handleSafely(Message message) {
+        try {
+            return handle(message);
+        } catch (Exception e) {
+            return MessageConsumer.getStatus(e);
+        }
+    }
+
+    /**
+     * Stops consuming once the message being handled is done. Messages left in the
+     * queue stay there for the next consumer.
+     */
+    @Override
+    public void close() throws IOException {
+        Thread current;
+        synchronized (this) {
+            current = worker;
+        }
+        if (current == null) {
+            return;
+        }
+
+        running = false;
+        if (!handling) {
+            current.interrupt();
+        }
+        try {
+            current.join(TimeUnit.SECONDS.toMillis(CLOSE_TIMEOUT));
+            if (current.isAlive()) {
+                current.interrupt();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public String getQueue() {
+        return queueName;
+    }
+
+    @Override
+    public void handleConsumeOk(String consumerTag) {
+    }
+
+    @Override
+    public void handleCancelOk(String consumerTag) {
+    }
+
+    @Override
+    public void handleCancel(String consumerTag) {
+    }
+
+    @Override
+    public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+    }
+
+    @Override
+    public void handleRecoverOk(String consumerTag) {
+    }
+
+    /**
+     * Messages of the embedded bus never go through AMQP, so there is nothing to receive here.
+     */
+    @Override
+    public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+        logger.warn("embedded consumer of {} ignored an AMQP delivery", queueName);
+    }
+}
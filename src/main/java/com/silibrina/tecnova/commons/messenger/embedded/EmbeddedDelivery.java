@@ -0,0 +1,35 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import com.silibrina.tecnova.commons.messenger.Message;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A slot of the {@link RingBuffer} of an embedded queue: the message and, when the
+ * producer waits for it, the future completed with the status of its handling.
+ */
+class EmbeddedDelivery {
+    private Message message;
+    private CompletableFuture<Integer> result;
+
+    void set(Message message, CompletableFuture<Integer> result) {
+        this.message = message;
+        this.result = result;
+    }
+
+    Message getMessage() {
+        return message;
+    }
+
+    CompletableFuture<Integer> getResult() {
+        return result;
+    }
+
+    /**
+     * Drops the references of a handled slot, so they can be collected before the slot is reused.
+     */
+    void clear() {
+        this.message = null;
+        this.result = null;
+    }
+}
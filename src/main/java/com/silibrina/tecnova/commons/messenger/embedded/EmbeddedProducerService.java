@@ -0,0 +1,122 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import com.silibrina.tecnova.commons.messenger.TimeoutScheduler;
+import com.silibrina.tecnova.commons.messenger.producer.ProducerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * Publishes messages to a queue of the in-process {@link EmbeddedBus}.
+ *
+ * Messages are handed to the consumer as they are, without being encoded. As with
+ * {@link com.silibrina.tecnova.commons.messenger.producer.SimpleProducerService}, in
+ * sync mode publishing returns the status the consumer handled the message with;
+ * otherwise it returns {@link MessageStatus#UNDEFINED_STATUS} as soon as the message
+ * is in the queue. Publishing waits for a free slot if the queue is full.
+ */
+public class EmbeddedProducerService implements ProducerService {
+    private static final Logger logger = LoggerFactory.getLogger(EmbeddedProducerService.class);
+
+    private static final long TIMEOUT = 300000L;
+
+    private final String queueName;
+    private final boolean isSync;
+    private final RingBuffer<EmbeddedDelivery> queue;
+
+    private volatile boolean closed;
+
+    /**
+     * @param queueName the name of the queue to publish content.
+     * @param isSync if publish should wait for the task to be executed.
+     */
+    public EmbeddedProducerService(String queueName, boolean isSync) {
+        this.queueName = queueName;
+        this.isSync = isSync;
+        this.queue = EmbeddedBus.getQueue(queueName);
+    }
+
+    @Override
+    public int publish(Message message) throws IOException, InterruptedException {
+        return await(dispatch(message), System.currentTimeMillis() + TIMEOUT);
+    }
+
+    @Override
+    public CompletableFuture<Integer> publishAsync(Message message) {
+        return publishAsync(message, TIMEOUT, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public CompletableFuture<Integer> publishAsync(Message message, long timeout, TimeUnit unit) {
+        try {
+            return TimeoutScheduler.completeOnTimeout(dispatch(message),
+                    MessageStatus.UNDEFINED_STATUS.status, timeout, unit);
+        } catch (IOException e) {
+            CompletableFuture<Integer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    @Override
+    public List<Integer> publishAll(Collection<Message> messages) throws IOException, InterruptedException {
+        List<CompletableFuture<Integer>> results = new ArrayList<>(messages.size());
+        for (Message message : messages) {
+            results.add(dispatch(message));
+        }
+
+        long deadline = System.currentTimeMillis() + TIMEOUT;
+        List<Integer> statuses = new ArrayList<>(messages.size());
+        for (CompletableFuture<Integer> result : results) {
+            statuses.add(await(result, deadline));
+        }
+        return statuses;
+    }
+
+    private CompletableFuture<Integer> dispatch(Message message) throws IOException {
+        checkIOCondition("producer is closed", !closed);
+
+        CompletableFuture<Integer> result = isSync ? new CompletableFuture<>() :
+                CompletableFuture.completedFuture(MessageStatus.UNDEFINED_STATUS.status);
+        try {
+            long sequence = queue.next();
+            queue.get(sequence).set(message, isSync ? result : null);
+            queue.publish(sequence);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a free slot");
+        }
+        logger.debug("queue: {}, message: {}", queueName, message);
+        return result;
+    }
+
+    private int await(CompletableFuture<Integer> result, long deadline) throws IOException, InterruptedException {
+        try {
+            long remaining = Math.max(0L, deadline - System.currentTimeMillis());
+            return result.get(remaining, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            logger.info("timed out waiting for an answer (message was queued).");
+            return MessageStatus.UNDEFINED_STATUS.status;
+        } catch (ExecutionException e) {
+            throw new IOException("message could not be handled", e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+}
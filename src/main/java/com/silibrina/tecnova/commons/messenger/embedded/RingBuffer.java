@@ -0,0 +1,195 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+
+/**
+ * A bounded queue of preallocated slots, shared by producers and a single consumer
+ * without locks.
+ *
+ * Every slot is created up front and reused, so publishing allocates nothing. Positions
+ * in the buffer are sequences that only grow; sequence {@code s} lives in slot
+ * {@code s & (capacity - 1)}. A producer claims a sequence with {@link #next()}, fills
+ * its slot and makes it visible with {@link #publish(long)}. The consumer waits for a
+ * sequence with {@link #waitFor(long)}, which returns the highest sequence it can read
+ * at once, and frees the slots it is done with with {@link #release(long)}. Producers
+ * wait for free slots when the consumer falls a whole buffer behind.
+ *
+ * With a single producer, claiming is a plain increment and must only ever happen on
+ * one thread. With multiple producers, sequences are claimed with a CAS and each slot
+ * records the round it was published in, since slots may be published out of order.
+ *
+ * @param <E> the type of the slots.
+ */
+public class RingBuffer<E> {
+    private static final long INITIAL = -1L;
+
+    private final Object[] slots;
+    private final int mask;
+    private final int shift;
+    private final boolean multiProducer;
+    private final WaitStrategy waitStrategy;
+
+    private final AtomicLong claimed;
+    private final AtomicLong consumed;
+    private final AtomicIntegerArray published;
+    private final AtomicBoolean consumerAttached;
+
+    /**
+     * @param capacity number of slots, a power of two.
+     * @param factory creates each slot up front.
+     * @param multiProducer whether several threads publish at the same time.
+     * @param waitStrategy how the consumer and the producers wait for each other.
+     */
+    public RingBuffer(int capacity, Supplier<E> factory, boolean multiProducer, WaitStrategy waitStrategy) {
+        checkCondition("ring buffer capacity must be a power of two", capacity > 0 && Integer.bitCount(capacity) == 1);
+
+        this.slots = new Object[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = factory.get();
+        }
+        this.mask = capacity - 1;
+        this.shift = Integer.numberOfTrailingZeros(capacity);
+        this.multiProducer = multiProducer;
+        this.waitStrategy = waitStrategy;
+
+        this.claimed = new AtomicLong(INITIAL);
+        this.consumed = new AtomicLong(INITIAL);
+        this.published = new AtomicIntegerArray(capacity);
+        for (int i = 0; i < capacity; i++) {
+            published.set(i, -1);
+        }
+        this.consumerAttached = new AtomicBoolean();
+    }
+
+    /**
+     * Claims the next sequence, waiting for the consumer to free a slot if the buffer is full.
+     *
+     * @return the claimed sequence, to be filled and given to {@link #publish(long)}.
+     *
+     * @throws InterruptedException if interrupted while waiting for a free slot.
+     */
+    public long next() throws InterruptedException {
+        if (!multiProducer) {
+            long next = claimed.get() + 1;
+            awaitSlot(next);
+            claimed.lazySet(next);
+            return next;
+        }
+
+        while (true) {
+            long current = claimed.get();
+            long next = current + 1;
+            if (next - slots.length > consumed.get()) {
+                awaitSlot(next);
+                continue;
+            }
+            if (claimed.compareAndSet(current, next)) {
+                return next;
+            }
+        }
+    }
+
+    private void awaitSlot(long sequence) throws InterruptedException {
+        long wrapPoint = sequence - slots.length;
+        if (wrapPoint > consumed.get()) {
+            waitStrategy.await(() -> wrapPoint <= consumed.get());
+        }
+    }
+
+    /**
+     * @param sequence a sequence claimed by a producer or handed to the consumer.
+     *
+     * @return the slot of the sequence.
+     */
+    @SuppressWarnings("unchecked")
+    public E get(long sequence) {
+        return (E) slots[(int) sequence & mask];
+    }
+
+    /**
+     * Makes a claimed sequence visible to the consumer.
+     *
+     * @param sequence the sequence returned by {@link #next()}.
+     */
+    public void publish(long sequence) {
+        published.lazySet((int) sequence & mask, (int) (sequence >>> shift));
+        waitStrategy.signal();
+    }
+
+    /**
+     * Waits until the given sequence is published.
+     *
+     * @param sequence the next sequence the consumer wants to read.
+     *
+     * @return the highest sequence, at least {@code sequence}, that can be read now.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    public long waitFor(long sequence) throws InterruptedException {
+        waitStrategy.await(() -> isPublished(sequence));
+
+        long highest = sequence;
+        long limit = claimed.get();
+        while (highest < limit && isPublished(highest + 1)) {
+            highest++;
+        }
+        return highest;
+    }
+
+    private boolean isPublished(long sequence) {
+        return published.get((int) sequence & mask) == (int) (sequence >>> shift);
+    }
+
+    /**
+     * Frees every slot up to the given sequence for the producers.
+     *
+     * @param sequence the last sequence the consumer is done with.
+     */
+    public void release(long sequence) {
+        consumed.lazySet(sequence);
+        waitStrategy.signal();
+    }
+
+    /**
+     * @return the next sequence the consumer must read.
+     */
+    public long getNextToConsume() {
+        return consumed.get() + 1;
+    }
+
+    /**
+     * Reserves this buffer to a consumer, since only one may read from it.
+     *
+     * @return true if no other consumer is attached.
+     */
+    public boolean attachConsumer() {
+        return consumerAttached.compareAndSet(false, true);
+    }
+
+    public void detachConsumer() {
+        consumerAttached.set(false);
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return how many published messages the consumer did not free yet.
+     */
+    public long size() {
+        return Math.max(0L, claimed.get() - consumed.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [capacity: %d, size: %d, multiProducer: %b]",
+                this.getClass().getSimpleName(), slots.length, size(), multiProducer);
+    }
+}
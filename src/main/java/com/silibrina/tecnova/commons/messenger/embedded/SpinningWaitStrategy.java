@@ -0,0 +1,58 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import java.util.Locale;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Polls the condition without ever blocking: first spinning, then yielding the CPU
+ * and, if {@code parkNanos} is positive, sleeping that long between checks.
+ * Signals are free, so this has the lowest latency, paid with CPU while idle.
+ */
+public class SpinningWaitStrategy implements WaitStrategy {
+    private final int spins;
+    private final int yields;
+    private final long parkNanos;
+
+    /**
+     * @param spins checks done in a tight loop.
+     * @param yields checks done yielding the CPU after the spins.
+     * @param parkNanos time slept between checks after the yields, or 0 to keep yielding.
+     */
+    public SpinningWaitStrategy(int spins, int yields, long parkNanos) {
+        this.spins = spins;
+        this.yields = yields;
+        this.parkNanos = parkNanos;
+    }
+
+    @Override
+    public void await(BooleanSupplier ready) throws InterruptedException {
+        int attempt = 0;
+        while (!ready.getAsBoolean()) {
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            if (attempt < spins) {
+                attempt++;
+            } else if (attempt < (long) spins + yields) {
+                attempt++;
+                Thread.yield();
+            } else if (parkNanos > 0) {
+                LockSupport.parkNanos(parkNanos);
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    @Override
+    public void signal() {
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [spins: %d, yields: %d, parkNanos: %d]",
+                this.getClass().getSimpleName(), spins, yields, parkNanos);
+    }
+}
@@ -0,0 +1,25 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import java.util.function.BooleanSupplier;
+
+/**
+ * How threads of a {@link RingBuffer} wait for each other: the consumer for new
+ * messages and the producers for free slots.
+ */
+public interface WaitStrategy {
+
+    /**
+     * Waits until the condition holds.
+     *
+     * @param ready checked until it returns true.
+     *
+     * @throws InterruptedException if interrupted while waiting.
+     */
+    void await(BooleanSupplier ready) throws InterruptedException;
+
+    /**
+     * Wakes up the threads waiting in {@link #await(BooleanSupplier)} so they check
+     * their condition again.
+     */
+    void signal();
+}
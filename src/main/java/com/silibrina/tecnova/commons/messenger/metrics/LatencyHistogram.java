@@ -0,0 +1,166 @@
+package com.silibrina.tecnova.commons.messenger.metrics;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A histogram of durations that many threads record into without locks.
+ *
+ * Durations are counted in microseconds, in buckets that grow exponentially: each
+ * power of two is split in {@value #SUB_BUCKETS} buckets, so a percentile is off by
+ * at most a quarter of its value, from a microsecond up to days. Recording is a
+ * couple of atomic increments and never allocates.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKETS = 4;
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKETS = SUB_BUCKETS + (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray buckets;
+    private final LongAdder sum;
+    private final LongAccumulator max;
+
+    public LatencyHistogram() {
+        this.buckets = new AtomicLongArray(BUCKETS);
+        this.sum = new LongAdder();
+        this.max = new LongAccumulator(Math::max, 0L);
+    }
+
+    /**
+     * @param nanos the duration to be recorded, in nanoseconds.
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0L, TimeUnit.NANOSECONDS.toMicros(nanos));
+        buckets.incrementAndGet(indexOf(micros));
+        sum.add(micros);
+        max.accumulate(micros);
+    }
+
+    static int indexOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros));
+        int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return Math.min(BUCKETS - 1, SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket);
+    }
+
+    /**
+     * @return the largest duration, in microseconds, counted in the given bucket.
+     */
+    static long upperBoundOf(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+
+        int exponent = (index - SUB_BUCKETS) / SUB_BUCKETS + SUB_BUCKET_BITS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * @return the durations recorded so far. Recording goes on while the snapshot is
+     *          taken, so it may miss the durations recorded meanwhile.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, sum.sum(), max.get());
+    }
+
+    /**
+     * The durations recorded by a histogram up to some point, in milliseconds.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public double getMean() {
+            return count > 0 ? toMillis(sum) / count : 0.0;
+        }
+
+        public double getMax() {
+            return toMillis(max);
+        }
+
+        /**
+         * @param quantile a number between 0 and 1, e.g. 0.99 for the 99th percentile.
+         *
+         * @return the duration that the given share of the recorded durations did not exceed.
+         */
+        public double getPercentile(double quantile) {
+            if (count == 0) {
+                return 0.0;
+            }
+
+            long rank = Math.max(1L, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return toMillis(Math.min(upperBoundOf(i), max));
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * @param other the snapshot of another histogram.
+         *
+         * @return the durations of both snapshots together.
+         */
+        public Snapshot merge(Snapshot other) {
+            long[] merged = new long[counts.length];
+            for (int i = 0; i < counts.length; i++) {
+                merged[i] = counts[i] + other.counts[i];
+            }
+            return new Snapshot(merged, count + other.count, sum + other.sum, Math.max(max, other.max));
+        }
+
+        public ObjectNode toJson() {
+            ObjectNode json = JsonNodeFactory.instance.objectNode();
+            json.put("count", count);
+            json.put("mean", getMean());
+            json.put("p50", getPercentile(0.5));
+            json.put("p90", getPercentile(0.9));
+            json.put("p99", getPercentile(0.99));
+            json.put("max", getMax());
+            return json;
+        }
+
+        private static double toMillis(long micros) {
+            return micros / 1000.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.getDefault(), "%s [count: %d, p50: %.3f, p99: %.3f, max: %.3f]",
+                    this.getClass().getSimpleName(), count, getPercentile(0.5), getPercentile(0.99), getMax());
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package com.silibrina.tecnova.commons.messenger.metrics;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.silibrina.tecnova.commons.messenger.Message.MessageType;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and histograms of the messages of a queue, shared by every producer and
+ * consumer of the queue in this process, enabled by rabbitmq.metrics.enabled.
+ *
+ * Producers record each publish with its {@link MessageType}, the status it ended with
+ * and how long the broker took to confirm it (or the consumer to answer it, in sync mode).
+ * Consumers record each handled message with its status, how long it was handled for and
+ * its lag, the time between its publish and its delivery. Services sample the depth and
+ * consumers of the queue every rabbitmq.metrics.sample_interval milliseconds. Together
+ * they tell whether messages wait on the producer, in the broker or in the handler.
+ *
+ * Counters only grow; rates are the difference between two snapshots. Every queue is
+ * registered in JMX (see {@link MessagingMetricsMXBean}) and in {@link #getAll()}.
+ */
+public class MessagingMetrics implements MessagingMetricsMXBean {
+    private static final Logger logger = LoggerFactory.getLogger(MessagingMetrics.class);
+
+    public static final String PUBLISHED_AT_HEADER = "x-published-at";
+
+    private static final String DOMAIN = "com.silibrina.tecnova.commons";
+    private static final String THREAD_NAME = "messenger-metrics";
+    private static final long UNSAMPLED = -1L;
+
+    private static final ConcurrentMap<String, MessagingMetrics> queues = new ConcurrentHashMap<>();
+    private static final ScheduledThreadPoolExecutor sampler = newSampler();
+
+    private final String queueName;
+    private final Map<MessageType, ConcurrentMap<String, LongAdder>> published;
+    private final Map<MessageType, ConcurrentMap<String, LongAdder>> handled;
+    private final Map<MessageType, LatencyHistogram> publishLatency;
+    private final Map<MessageType, LatencyHistogram> handleTime;
+    private final LatencyHistogram lag;
+    private final LatencyHistogram recovery;
+    private final ConcurrentMap<String, LongSupplier> gauges;
+
+    private volatile long queueDepth;
+    private volatile long consumerCount;
+    private volatile long sampledAt;
+
+    private MessagingMetrics(String queueName) {
+        this.queueName = queueName;
+        this.published = new EnumMap<>(MessageType.class);
+        this.handled = new EnumMap<>(MessageType.class);
+        this.publishLatency = new EnumMap<>(MessageType.class);
+        this.handleTime = new EnumMap<>(MessageType.class);
+        for (MessageType type : MessageType.values()) {
+            published.put(type, new ConcurrentHashMap<>());
+            handled.put(type, new ConcurrentHashMap<>());
+            publishLatency.put(type, new LatencyHistogram());
+            handleTime.put(type, new LatencyHistogram());
+        }
+        this.lag = new LatencyHistogram();
+        this.recovery = new LatencyHistogram();
+        this.gauges = new ConcurrentHashMap<>();
+        this.queueDepth = UNSAMPLED;
+        this.consumerCount = UNSAMPLED;
+    }
+
+    /**
+     * @param queueName the name of the queue.
+     *
+     * @return the metrics of the queue, created and registered in JMX on first use.
+     */
+    public static MessagingMetrics forQueue(String queueName) {
+        MessagingMetrics metrics = queues.get(queueName);
+        return metrics != null ? metrics : queues.computeIfAbsent(queueName, MessagingMetrics::newMetrics);
+    }
+
+    private static MessagingMetrics newMetrics(String queueName) {
+        MessagingMetrics metrics = new MessagingMetrics(queueName);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(DOMAIN + ":type=Messaging,queue=" + ObjectName.quote(queueName));
+            if (!server.isRegistered(name)) {
+                server.registerMBean(metrics, name);
+            }
+        } catch (JMException e) {
+            logger.warn("could not register metrics of queue {} in JMX", queueName, e);
+        }
+        return metrics;
+    }
+
+    /**
+     * @return the metrics of every queue used in this process, by queue name.
+     */
+    public static Map<String, MessagingMetrics> getAll() {
+        return Collections.unmodifiableMap(queues);
+    }
+
+    /**
+     * Runs a sampling task periodically on the thread shared by the metrics of every queue.
+     *
+     * @param task the sampling task, which should call {@link #sampled(long, long)}.
+     * @param interval milliseconds between two runs.
+     *
+     * @return a handle to stop sampling.
+     */
+    public static ScheduledFuture<?> scheduleSampling(Runnable task, long interval) {
+        return sampler.scheduleWithFixedDelay(task, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param type the type of the published message.
+     * @param status the status the publish ended with.
+     * @param nanos time between the publish and its confirm or answer.
+     */
+    public void published(MessageType type, int status, long nanos) {
+        increment(published.get(type), status);
+        publishLatency.get(type).record(nanos);
+    }
+
+    /**
+     * @param type the type of the handled message.
+     * @param status the status the message was handled with.
+     * @param nanos time the message was handled for.
+     */
+    public void handled(MessageType type, int status, long nanos) {
+        increment(handled.get(type), status);
+        handleTime.get(type).record(nanos);
+    }
+
+    /**
+     * @param publishedAt when the message was published, in epoch milliseconds.
+     */
+    public void delivered(long publishedAt) {
+        lag.record(TimeUnit.MILLISECONDS.toNanos(Math.max(0L, System.currentTimeMillis() - publishedAt)));
+    }
+
+    /**
+     * @param nanos how long a channel of the queue was down before the client recovered it.
+     */
+    public void recovered(long nanos) {
+        recovery.record(nanos);
+    }
+
+    /**
+     * @param queueDepth messages ready in the queue.
+     * @param consumerCount consumers of the queue.
+     */
+    public void sampled(long queueDepth, long consumerCount) {
+        this.queueDepth = queueDepth;
+        this.consumerCount = consumerCount;
+        this.sampledAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Exposes a value of a service of the queue with the other metrics.
+     *
+     * @param name the name of the value.
+     * @param gauge reads the current value.
+     */
+    public void registerGauge(String name, LongSupplier gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     * Stops exposing a value, if it is still the one registered under the name.
+     */
+    public void unregisterGauge(String name, LongSupplier gauge) {
+        gauges.remove(name, gauge);
+    }
+
+    private static void increment(ConcurrentMap<String, LongAdder> counters, int status) {
+        String key = statusName(status);
+        LongAdder counter = counters.get(key);
+        if (counter == null) {
+            counter = counters.computeIfAbsent(key, ignored -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    /**
+     * @return the name of a {@link MessageStatus}, or the status itself if it came from a handler.
+     */
+    static String statusName(int status) {
+        for (MessageStatus value : MessageStatus.values()) {
+            if (value.status == status) {
+                return value.name();
+            }
+        }
+        return String.valueOf(status);
+    }
+
+    @Override
+    public String getQueue() {
+        return queueName;
+    }
+
+    @Override
+    public Map<String, Long> getPublished() {
+        return count(published);
+    }
+
+    @Override
+    public Map<String, Long> getHandled() {
+        return count(handled);
+    }
+
+    private static Map<String, Long> count(Map<MessageType, ConcurrentMap<String, LongAdder>> counters) {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<MessageType, ConcurrentMap<String, LongAdder>> byType : counters.entrySet()) {
+            for (Map.Entry<String, LongAdder> byStatus : byType.getValue().entrySet()) {
+                counts.put(byType.getKey().name() + "." + byStatus.getKey(), byStatus.getValue().sum());
+            }
+        }
+        return counts;
+    }
+
+    @Override
+    public double getPublishLatencyP99() {
+        return merged(publishLatency).getPercentile(0.99);
+    }
+
+    @Override
+    public double getHandleTimeP99() {
+        return merged(handleTime).getPercentile(0.99);
+    }
+
+    @Override
+    public double getLagP99() {
+        return lag.snapshot().getPercentile(0.99);
+    }
+
+    private static LatencyHistogram.Snapshot merged(Map<MessageType, LatencyHistogram> histograms) {
+        LatencyHistogram.Snapshot merged = null;
+        for (LatencyHistogram histogram : histograms.values()) {
+            LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+            merged = merged == null ? snapshot : merged.merge(snapshot);
+        }
+        return merged;
+    }
+
+    @Override
+    public long getRecoveries() {
+        return recovery.snapshot().getCount();
+    }
+
+    @Override
+    public double getRecoveryTimeMax() {
+        return recovery.snapshot().getMax();
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth;
+    }
+
+    @Override
+    public long getConsumerCount() {
+        return consumerCount;
+    }
+
+    @Override
+    public Map<String, Long> getGauges() {
+        Map<String, Long> values = new TreeMap<>();
+        for (Map.Entry<String, LongSupplier> gauge : gauges.entrySet()) {
+            values.put(gauge.getKey(), gauge.getValue().getAsLong());
+        }
+        return values;
+    }
+
+    @Override
+    public String getSnapshot() {
+        return toJson().toString();
+    }
+
+    /**
+     * @return every metric of the queue.
+     */
+    public ObjectNode toJson() {
+        ObjectNode json = JsonNodeFactory.instance.objectNode();
+        json.put("queue", queueName);
+
+        ObjectNode publishedJson = json.putObject("published");
+        for (Map.Entry<String, Long> count : getPublished().entrySet()) {
+            publishedJson.put(count.getKey(), count.getValue());
+        }
+        ObjectNode handledJson = json.putObject("handled");
+        for (Map.Entry<String, Long> count : getHandled().entrySet()) {
+            handledJson.put(count.getKey(), count.getValue());
+        }
+
+        ObjectNode publishLatencyJson = json.putObject("publish_latency");
+        ObjectNode handleTimeJson = json.putObject("handle_time");
+        for (MessageType type : MessageType.values()) {
+            publishLatencyJson.set(type.name(), publishLatency.get(type).snapshot().toJson());
+            handleTimeJson.set(type.name(), handleTime.get(type).snapshot().toJson());
+        }
+        json.set("lag", lag.snapshot().toJson());
+        json.set("recovery", recovery.snapshot().toJson());
+
+        ObjectNode queueJson = json.putObject("broker");
+        queueJson.put("depth", queueDepth);
+        queueJson.put("consumers", consumerCount);
+        queueJson.put("sampled_at", sampledAt);
+
+        ObjectNode gaugesJson = json.putObject("gauges");
+        for (Map.Entry<String, Long> gauge : getGauges().entrySet()) {
+            gaugesJson.put(gauge.getKey(), gauge.getValue());
+        }
+        return json;
+    }
+
+    private static ScheduledThreadPoolExecutor newSampler() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [queue: %s, depth: %d, consumers: %d]",
+                this.getClass().getSimpleName(), queueName, queueDepth, consumerCount);
+    }
+}
@@ -0,0 +1,56 @@
+package com.silibrina.tecnova.commons.messenger.metrics;
+
+import java.util.Map;
+
+/**
+ * The metrics of a queue as exposed through JMX, under
+ * {@code com.silibrina.tecnova.commons:type=Messaging,queue=<queue>}.
+ * Durations are in milliseconds.
+ */
+public interface MessagingMetricsMXBean {
+
+    String getQueue();
+
+    /**
+     * @return messages published, by "TYPE.STATUS".
+     */
+    Map<String, Long> getPublished();
+
+    /**
+     * @return messages handled by consumers, by "TYPE.STATUS".
+     */
+    Map<String, Long> getHandled();
+
+    double getPublishLatencyP99();
+
+    double getHandleTimeP99();
+
+    double getLagP99();
+
+    /**
+     * @return times a channel of the queue was recovered after the connection was lost.
+     */
+    long getRecoveries();
+
+    double getRecoveryTimeMax();
+
+    /**
+     * @return messages ready in the queue when it was last sampled, or -1 if it was never sampled.
+     */
+    long getQueueDepth();
+
+    /**
+     * @return consumers of the queue when it was last sampled, or -1 if it was never sampled.
+     */
+    long getConsumerCount();
+
+    /**
+     * @return the values registered by the services of the queue, by name.
+     */
+    Map<String, Long> getGauges();
+
+    /**
+     * @return every metric of the queue, as JSON.
+     */
+    String getSnapshot();
+}
@@ -0,0 +1,247 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.Message.MessageType;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * A producer that holds messages for a short window before handing them to another
+ * producer, collapsing the messages of the same entry that make each other redundant:
+ *
+ * - UPDATE followed by UPDATE: only the last UPDATE is published;
+ * - CREATE followed by DELETE: nothing is published;
+ * - UPDATE or DELETE followed by DELETE: only the DELETE is published.
+ *
+ * Any other sequence is published as is. Messages of the same entry keep their order,
+ * and entries are flushed in the order they first appeared in the window.
+ *
+ * Since messages are only published when the window closes, {@link #publish(Message)}
+ * returns {@link MessageStatus#UNDEFINED_STATUS} right away; use {@link #publishAsync(Message)}
+ * to know the outcome. The future of a message replaced by a later one follows the
+ * later one, and both messages of a dropped pair complete with {@link MessageStatus#COALESCED}.
+ */
+public class CoalescingProducerService implements ProducerService {
+    private static final Logger logger = LoggerFactory.getLogger(CoalescingProducerService.class);
+    private static final String THREAD_NAME = "producer-coalescer";
+
+    private final ProducerService delegate;
+    private final ScheduledExecutorService flusher;
+
+    private Map<String, Deque<Pending>> pending;
+    private boolean closed;
+
+    /**
+     * @param delegate the producer the collapsed messages are published with.
+     * @param window time, in milliseconds, messages are held before being published.
+     */
+    public CoalescingProducerService(ProducerService delegate, long window) {
+        checkCondition("coalescing window must be positive", window > 0);
+
+        this.delegate = delegate;
+        this.pending = new LinkedHashMap<>();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flusher.scheduleWithFixedDelay(this::flush, window, window, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int publish(Message message) throws IOException {
+        enqueue(message);
+        return MessageStatus.UNDEFINED_STATUS.status;
+    }
+
+    @Override
+    public CompletableFuture<Integer> publishAsync(Message message) {
+        try {
+            return enqueue(message);
+        } catch (IOException e) {
+            CompletableFuture<Integer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * The timeout does not apply here: messages are always published when the window closes.
+     */
+    @Override
+    public CompletableFuture<Integer> publishAsync(Message message, long timeout, TimeUnit unit) {
+        return publishAsync(message);
+    }
+
+    @Override
+    public List<Integer> publishAll(Collection<Message> messages) throws IOException {
+        for (Message message : messages) {
+            enqueue(message);
+        }
+        return new ArrayList<>(Collections.nCopies(messages.size(), MessageStatus.UNDEFINED_STATUS.status));
+    }
+
+    private synchronized CompletableFuture<Integer> enqueue(Message message) throws IOException {
+        checkIOCondition("producer is closed", !closed);
+
+        Pending incoming = new Pending(message);
+        Deque<Pending> queue = pending.computeIfAbsent(message.getEntryId(), key -> new ArrayDeque<>());
+        coalesce(queue, incoming);
+        if (queue.isEmpty()) {
+            pending.remove(message.getEntryId());
+        }
+        return incoming.future;
+    }
+
+    private void coalesce(Deque<Pending> queue, Pending incoming) {
+        Pending current = incoming;
+        while (!queue.isEmpty()) {
+            Pending last = queue.peekLast();
+            switch (merge(last.message.getType(), current.message.getType())) {
+                case REPLACE:
+                    queue.pollLast();
+                    follow(last.future, current.future);
+                    break;
+                case DROP_BOTH:
+                    queue.pollLast();
+                    last.future.complete(MessageStatus.COALESCED.status);
+                    current.future.complete(MessageStatus.COALESCED.status);
+                    return;
+                default:
+                    queue.addLast(current);
+                    return;
+            }
+        }
+        queue.addLast(current);
+    }
+
+    /**
+     * Decides what happens to a pending message when a new message of the same entry arrives.
+     *
+     * @param previous the type of the last pending message of the entry.
+     * @param next the type of the new message.
+     *
+     * @return how both messages must be combined.
+     */
+    static Merge merge(MessageType previous, MessageType next) {
+        if (next == MessageType.DELETE) {
+            return previous == MessageType.CREATE ? Merge.DROP_BOTH : Merge.REPLACE;
+        }
+        if (next == MessageType.UPDATE && previous == MessageType.UPDATE) {
+            return Merge.REPLACE;
+        }
+        return Merge.KEEP_BOTH;
+    }
+
+    private static void follow(CompletableFuture<Integer> follower, CompletableFuture<Integer> leader) {
+        leader.whenComplete((status, error) -> {
+            if (error != null) {
+                follower.completeExceptionally(error);
+            } else {
+                follower.complete(status);
+            }
+        });
+    }
+
+    /**
+     * Publishes every pending message with the delegate producer.
+     */
+    public void flush() {
+        Map<String, Deque<Pending>> batch;
+        synchronized (this) {
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        List<Pending> items = new ArrayList<>();
+        List<Message> messages = new ArrayList<>();
+        for (Deque<Pending> queue : batch.values()) {
+            for (Pending item : queue) {
+                items.add(item);
+                messages.add(item.message);
+            }
+        }
+
+        try {
+            List<Integer> statuses = delegate.publishAll(messages);
+            for (int i = 0; i < items.size(); i++) {
+                items.get(i).future.complete(i < statuses.size() ?
+                        statuses.get(i) : MessageStatus.UNDEFINED_STATUS.status);
+            }
+            logger.debug("flushed {} messages of {} entries", messages.size(), batch.size());
+        } catch (PartialPublishException e) {
+            logger.error("An error happened while publishing coalesced messages", e);
+            List<Integer> statuses = e.getStatuses();
+            for (int i = 0; i < items.size(); i++) {
+                if (i < statuses.size()) {
+                    items.get(i).future.complete(statuses.get(i));
+                } else {
+                    items.get(i).future.completeExceptionally(e);
+                }
+            }
+        } catch (IOException | RuntimeException | InterruptedException e) {
+            if (e instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+            }
+            logger.error("An error happened while publishing coalesced messages", e);
+            for (Pending item : items) {
+                item.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * Publishes the pending messages and closes the delegate producer.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+        }
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        delegate.close();
+    }
+
+    enum Merge {
+        KEEP_BOTH,
+        REPLACE,
+        DROP_BOTH
+    }
+
+    private static final class Pending {
+        private final Message message;
+        private final CompletableFuture<Integer> future;
+
+        private Pending(Message message) {
+            this.message = message;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
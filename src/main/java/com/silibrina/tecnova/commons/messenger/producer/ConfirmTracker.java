@@ -0,0 +1,166 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Keeps track of the messages published on a channel in confirm mode that were
+ * not yet confirmed by the broker.
+ *
+ * Each publish registers its delivery tag and returns a future, which is completed
+ * with {@link MessageStatus#CONFIRMED} on ack or {@link MessageStatus#NOT_CONFIRMED}
+ * on nack. Since the broker may confirm several tags at once (multiple flag), the
+ * outstanding tags are kept sorted, so a single confirm completes every tag up to it.
+ *
+ * Messages are kept until confirmed, so they can be published again with
+ * {@link #republish(Channel)} if the channel is recovered after losing its connection.
+ */
+public class ConfirmTracker implements ConfirmListener {
+    private final ConcurrentNavigableMap<Long, Pending> outstanding;
+
+    public ConfirmTracker() {
+        this.outstanding = new ConcurrentSkipListMap<>();
+    }
+
+    /**
+     * Publishes a message on the channel, keeping it until the broker confirms it.
+     *
+     * @param channel the channel, in confirm mode, this tracker listens to.
+     * @param publication publishes the message on a channel.
+     *
+     * @return a future completed when the broker confirms the message.
+     *
+     * @throws IOException if the message could not be published.
+     */
+    public synchronized CompletableFuture<Integer> publish(Channel channel, Publication publication)
+            throws IOException {
+        Pending pending = new Pending(publication);
+        publish(channel, pending);
+        return pending.future;
+    }
+
+    /**
+     * Publishes again, in their original order, the messages that were waiting for a
+     * confirm when the channel lost its connection. Delivery tags start over on a
+     * recovered channel, so the messages are registered under their new tags, keeping
+     * their futures. Messages the broker did receive before the failure end up published twice.
+     *
+     * @param channel the recovered channel.
+     *
+     * @return the number of messages published again.
+     */
+    public synchronized int republish(Channel channel) {
+        List<Pending> lost = new ArrayList<>(outstanding.values());
+        outstanding.clear();
+
+        int republished = 0;
+        for (Pending pending : lost) {
+            try {
+                publish(channel, pending);
+                republished++;
+            } catch (IOException | RuntimeException e) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+        return republished;
+    }
+
+    private void publish(Channel channel, Pending pending) throws IOException {
+        long deliveryTag = channel.getNextPublishSeqNo();
+        outstanding.put(deliveryTag, pending);
+        try {
+            pending.publication.publish(channel);
+        } catch (IOException | RuntimeException e) {
+            outstanding.remove(deliveryTag);
+            throw e;
+        }
+    }
+
+    @Override
+    public void handleAck(long deliveryTag, boolean multiple) {
+        complete(deliveryTag, multiple, MessageStatus.CONFIRMED);
+    }
+
+    @Override
+    public void handleNack(long deliveryTag, boolean multiple) {
+        complete(deliveryTag, multiple, MessageStatus.NOT_CONFIRMED);
+    }
+
+    /**
+     * Fails every outstanding message, used when the channel is closed before
+     * the broker could confirm them.
+     *
+     * @param cause the reason the messages will never be confirmed.
+     */
+    public void failAll(Throwable cause) {
+        Iterator<Pending> iterator = outstanding.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().future.completeExceptionally(cause);
+            iterator.remove();
+        }
+    }
+
+    /**
+     * @return the number of messages waiting for a confirm.
+     */
+    public int size() {
+        return outstanding.size();
+    }
+
+    private void complete(long deliveryTag, boolean multiple, MessageStatus status) {
+        if (multiple) {
+            Iterator<Pending> iterator = outstanding.headMap(deliveryTag, true).values().iterator();
+            while (iterator.hasNext()) {
+                iterator.next().future.complete(status.status);
+                iterator.remove();
+            }
+        } else {
+            Pending pending = outstanding.remove(deliveryTag);
+            if (pending != null) {
+                pending.future.complete(status.status);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [outstanding: %d]",
+                this.getClass().getSimpleName(), outstanding.size());
+    }
+
+    /**
+     * Publishes a message, once or again after the channel is recovered.
+     */
+    public interface Publication {
+
+        /**
+         * @param channel the channel to publish the message on.
+         *
+         * @throws IOException if the message could not be published.
+         */
+        void publish(Channel channel) throws IOException;
+    }
+
+    /**
+     * A message waiting for its confirm.
+     */
+    private static final class Pending {
+        private final Publication publication;
+        private final CompletableFuture<Integer> future;
+
+        private Pending(Publication publication) {
+            this.publication = publication;
+            this.future = new CompletableFuture<>();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.silibrina.tecnova.commons.exceptions.UnrecoverableErrorException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.exceptions.ExitStatus.CONFIGURATION_ERROR_STATUS;
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * Limits how many published messages may wait for their confirm (or answer) at the same time.
+ *
+ * A slot is taken before publishing and given back once the result of the message
+ * arrives. When every slot is taken, the {@link Mode} decides what happens to the caller:
+ *
+ * - BLOCK: waits up to {@code timeout} milliseconds for a free slot;
+ * - FAIL: fails right away;
+ * - PENDING: async callers get a future that is completed once a slot is free, in
+ *   the order they asked; sync callers block as in BLOCK.
+ */
+public class InFlightWindow {
+    private final int size;
+    private final Mode mode;
+    private final long timeout;
+    private final Semaphore permits;
+    private final Queue<CompletableFuture<Void>> waiting;
+
+    /**
+     * @param size maximum number of messages in flight.
+     * @param mode what to do when the window is full.
+     * @param timeout time, in milliseconds, a blocked caller waits for a free slot.
+     */
+    public InFlightWindow(int size, Mode mode, long timeout) {
+        checkCondition("in-flight window size must be positive", size > 0);
+
+        this.size = size;
+        this.mode = mode;
+        this.timeout = timeout;
+        this.permits = new Semaphore(size);
+        this.waiting = new ArrayDeque<>();
+    }
+
+    /**
+     * Takes a slot, blocking the caller unless the mode is FAIL.
+     *
+     * @throws IOException if the window is full and the mode is FAIL, or no slot was freed in time.
+     */
+    public void acquire() throws IOException {
+        if (permits.tryAcquire()) {
+            return;
+        }
+        checkIOCondition("in-flight window is full", mode != Mode.FAIL);
+
+        try {
+            checkIOCondition("timed out waiting for the in-flight window", permits.tryAcquire(timeout, TimeUnit.MILLISECONDS));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for the in-flight window");
+        }
+    }
+
+    /**
+     * Takes a slot for an async caller.
+     *
+     * @return a future completed once the slot is taken, or failed as in {@link #acquire()}.
+     */
+    public CompletableFuture<Void> acquireAsync() {
+        if (mode == Mode.PENDING) {
+            synchronized (waiting) {
+                if (waiting.isEmpty() && permits.tryAcquire()) {
+                    return CompletableFuture.completedFuture(null);
+                }
+
+                CompletableFuture<Void> slot = new CompletableFuture<>();
+                waiting.add(slot);
+                return slot;
+            }
+        }
+
+        CompletableFuture<Void> slot = new CompletableFuture<>();
+        try {
+            acquire();
+            slot.complete(null);
+        } catch (IOException e) {
+            slot.completeExceptionally(e);
+        }
+        return slot;
+    }
+
+    /**
+     * Gives a slot back, handing it straight to the oldest pending caller if there is one.
+     */
+    public void release() {
+        while (true) {
+            CompletableFuture<Void> next;
+            synchronized (waiting) {
+                next = waiting.poll();
+                if (next == null) {
+                    permits.release();
+                    return;
+                }
+            }
+
+            if (next.complete(null)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of slots currently taken.
+     */
+    public int getInUse() {
+        return size - permits.availablePermits();
+    }
+
+    /**
+     * @return the number of async callers waiting for a slot.
+     */
+    public int getWaiting() {
+        synchronized (waiting) {
+            return waiting.size();
+        }
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public static Mode getMode(String mode) {
+        try {
+            return Mode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new UnrecoverableErrorException("In-flight window mode does not exists: " + mode, CONFIGURATION_ERROR_STATUS);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [inUse: %d, size: %d, mode: %s]",
+                this.getClass().getSimpleName(), getInUse(), size, mode);
+    }
+
+    public enum Mode {
+        BLOCK,
+        FAIL,
+        PENDING
+    }
+}
@@ -0,0 +1,354 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkCondition;
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * An append-only journal of messages waiting to be published, kept on disk so they
+ * survive broker outages and restarts of the application.
+ *
+ * Records are appended to memory-mapped segment files of fixed size
+ * ({@code outbox-<sequence>.log}), each one made of:
+ *
+ * - length of the payload (4 bytes), written last so a record is only visible once complete;
+ * - CRC32 of the payload (4 bytes), so torn writes are detected when the journal is opened;
+ * - state (1 byte), flipped in place when the record is acked;
+ * - the payload.
+ *
+ * Records are read and acked in the order they were appended. Once every record of a
+ * segment is acked and the writer moved on to a newer segment, the segment is deleted.
+ *
+ * Appends are not forced to disk one by one: they survive a crash of the application,
+ * but the last ones may be lost if the machine itself goes down.
+ */
+public class OutboxJournal implements Closeable {
+    private static final Logger logger = LoggerFactory.getLogger(OutboxJournal.class);
+
+    private static final String PREFIX = "outbox-";
+    private static final String SUFFIX = ".log";
+    private static final int HEADER_SIZE = 9;
+    private static final int CRC_OFFSET = 4;
+    private static final int STATE_OFFSET = 8;
+    private static final byte PENDING = 0;
+    private static final byte ACKED = 1;
+
+    private final File directory;
+    private final int segmentSize;
+    private final Deque<Segment> segments;
+
+    private int readPosition;
+    private int pending;
+    private boolean closed;
+
+    /**
+     * Opens the journal in the given directory, recovering the records left by a previous run.
+     *
+     * @param directory where the segment files are kept.
+     * @param segmentSize size, in bytes, of each segment file.
+     *
+     * @throws IOException if the directory or its segments could not be opened.
+     */
+    public OutboxJournal(File directory, int segmentSize) throws IOException {
+        checkCondition("outbox segment size is too small", segmentSize > HEADER_SIZE);
+        checkIOCondition("could not create outbox directory " + directory,
+                directory.isDirectory() || directory.mkdirs());
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.segments = new ArrayDeque<>();
+
+        recover();
+    }
+
+    private void recover() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+        if (files != null) {
+            Arrays.sort(files, (first, second) -> Long.compare(sequenceOf(first), sequenceOf(second)));
+            for (File file : files) {
+                Segment segment = new Segment(file, sequenceOf(file), segmentSize);
+                pending += segment.scan();
+                segments.addLast(segment);
+            }
+        }
+
+        if (segments.isEmpty()) {
+            segments.addLast(newSegment(0));
+        } else {
+            segments.peekLast().clearTail();
+        }
+
+        skipAcked();
+        if (pending > 0) {
+            logger.info("recovered {} messages from outbox {}", pending, directory);
+        }
+    }
+
+    /**
+     * Appends a record to the end of the journal.
+     *
+     * @param payload the content of the record.
+     *
+     * @throws IOException if the journal is closed, the record is empty or does not fit
+     *                      a segment, or a new segment could not be created.
+     */
+    public synchronized void append(byte[] payload) throws IOException {
+        checkIOCondition("outbox is closed", !closed);
+        // a zero length marks the end of a segment when it is scanned
+        checkIOCondition("outbox records can not be empty", payload.length > 0);
+        int size = HEADER_SIZE + payload.length;
+        checkIOCondition("message does not fit an outbox segment", size <= segmentSize);
+
+        Segment segment = segments.peekLast();
+        if (segment.writePosition + size > segmentSize) {
+            segment.buffer.force();
+            segment = newSegment(segment.sequence + 1);
+            segments.addLast(segment);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        int position = segment.writePosition;
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(position + HEADER_SIZE);
+        buffer.put(payload);
+        segment.buffer.putInt(position + CRC_OFFSET, (int) crc.getValue());
+        segment.buffer.put(position + STATE_OFFSET, PENDING);
+        segment.buffer.putInt(position, payload.length);
+
+        segment.writePosition += size;
+        pending++;
+    }
+
+    /**
+     * @return the oldest record not acked yet, or null if every record was acked.
+     */
+    public synchronized Record peek() {
+        skipAcked();
+
+        Segment segment = segments.peekFirst();
+        if (closed || readPosition >= segment.writePosition) {
+            return null;
+        }
+
+        int length = segment.buffer.getInt(readPosition);
+        byte[] payload = new byte[length];
+        ByteBuffer buffer = segment.buffer.duplicate();
+        buffer.position(readPosition + HEADER_SIZE);
+        buffer.get(payload);
+        return new Record(segment.sequence, readPosition, payload);
+    }
+
+    /**
+     * Marks the record returned by {@link #peek()} as done, so it is not read again.
+     *
+     * @param record the oldest record, as returned by {@link #peek()}.
+     *
+     * @throws IOException if the record is not the oldest one.
+     */
+    public synchronized void ack(Record record) throws IOException {
+        checkIOCondition("outbox is closed", !closed);
+        Segment segment = segments.peekFirst();
+        checkIOCondition("outbox records must be acked in order",
+                segment.sequence == record.sequence && readPosition == record.position);
+
+        segment.buffer.put(readPosition + STATE_OFFSET, ACKED);
+        readPosition += HEADER_SIZE + record.payload.length;
+        pending--;
+        skipAcked();
+    }
+
+    /**
+     * Moves the reader past acked records, deleting the segments left behind.
+     */
+    private void skipAcked() {
+        while (true) {
+            Segment segment = segments.peekFirst();
+            while (readPosition < segment.writePosition
+                    && segment.buffer.get(readPosition + STATE_OFFSET) == ACKED) {
+                readPosition += HEADER_SIZE + segment.buffer.getInt(readPosition);
+            }
+
+            if (readPosition < segment.writePosition || segment == segments.peekLast()) {
+                return;
+            }
+
+            segments.pollFirst();
+            segment.delete();
+            readPosition = 0;
+        }
+    }
+
+    /**
+     * @return the number of records not acked yet.
+     */
+    public synchronized int size() {
+        return pending;
+    }
+
+    public synchronized boolean isEmpty() {
+        return pending == 0;
+    }
+
+    /**
+     * @return the number of segment files currently kept.
+     */
+    synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    private Segment newSegment(long sequence) throws IOException {
+        File file = new File(directory, String.format(Locale.ROOT, "%s%020d%s", PREFIX, sequence, SUFFIX));
+        return new Segment(file, sequence, segmentSize);
+    }
+
+    private static long sequenceOf(File file) {
+        String name = file.getName();
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.getDefault(), "%s [directory: %s, pending: %d, segments: %d]",
+                this.getClass().getSimpleName(), directory, pending, segments.size());
+    }
+
+    /**
+     * A record read from the journal.
+     */
+    public static final class Record {
+        private final long sequence;
+        private final int position;
+        private final byte[] payload;
+
+        private Record(long sequence, int position, byte[] payload) {
+            this.sequence = sequence;
+            this.position = position;
+            this.payload = payload;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    private static final class Segment {
+        private final File file;
+        private final long sequence;
+        private final RandomAccessFile randomAccessFile;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        private int writePosition;
+
+        private Segment(File file, long sequence, int size) throws IOException {
+            this.file = file;
+            this.sequence = sequence;
+            this.randomAccessFile = new RandomAccessFile(file, "rw");
+            if (randomAccessFile.length() < size) {
+                randomAccessFile.setLength(size);
+            }
+            this.channel = randomAccessFile.getChannel();
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        /**
+         * Finds the end of the valid records of this segment.
+         *
+         * @return the number of records not acked yet.
+         */
+        private int scan() {
+            int pending = 0;
+            int position = 0;
+            CRC32 crc = new CRC32();
+            while (position + HEADER_SIZE <= buffer.capacity()) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || length > buffer.capacity() - position - HEADER_SIZE) {
+                    break;
+                }
+
+                ByteBuffer payload = buffer.duplicate();
+                payload.position(position + HEADER_SIZE);
+                payload.limit(position + HEADER_SIZE + length);
+                crc.reset();
+                crc.update(payload);
+                if ((int) crc.getValue() != buffer.getInt(position + CRC_OFFSET)) {
+                    logger.warn("discarding torn record at {} of {}", position, file);
+                    break;
+                }
+
+                if (buffer.get(position + STATE_OFFSET) == PENDING) {
+                    pending++;
+                }
+                position += HEADER_SIZE + length;
+            }
+            writePosition = position;
+            return pending;
+        }
+
+        /**
+         * Zeroes what a torn write left after the last valid record, so it is not
+         * mistaken for a record once new ones are appended.
+         */
+        private void clearTail() {
+            if (writePosition + HEADER_SIZE > buffer.capacity() || buffer.getInt(writePosition) == 0) {
+                return;
+            }
+
+            for (int position = writePosition; position < buffer.capacity(); position++) {
+                buffer.put(position, (byte) 0);
+            }
+            buffer.force();
+        }
+
+        private void close() throws IOException {
+            buffer.force();
+            channel.close();
+            randomAccessFile.close();
+        }
+
+        private void delete() {
+            try {
+                channel.close();
+                randomAccessFile.close();
+            } catch (IOException e) {
+                logger.warn("An error happened while closing outbox segment {}", file, e);
+            }
+            if (!file.delete()) {
+                logger.warn("could not delete outbox segment {}", file);
+            }
+        }
+    }
+}
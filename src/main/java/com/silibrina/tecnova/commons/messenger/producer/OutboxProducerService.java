@@ -0,0 +1,337 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import com.silibrina.tecnova.commons.messenger.metrics.MessagingMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.LongSupplier;
+
+/**
+ * A producer that keeps publishing while the broker is unreachable.
+ *
+ * Messages are handed to the producer created by a {@link ProducerFactory} while the
+ * broker is up. When the producer can not be created, a publish fails or the broker
+ * does not confirm a message ({@link MessageStatus#NOT_CONFIRMED}), messages are
+ * appended to an {@link OutboxJournal} instead, and {@link MessageStatus#JOURNALED}
+ * is returned right away. A background thread keeps trying to reach the broker every
+ * {@code retryInterval} milliseconds and, once it does, publishes the journal in order.
+ * While the journal is not empty, new messages are journaled too, so they are not
+ * published ahead of older ones.
+ *
+ * This ordering is best-effort. Whether the journal is empty is checked without
+ * holding it, so a message published by one thread may overtake a message another
+ * thread is journaling at the same time, and an async publish that fails is journaled
+ * only once it completes, after the messages published directly in the meantime.
+ * Consumers that care about the order of the messages of an entry should rely on
+ * their versions (see {@link Message#getVersion()}).
+ *
+ * Messages are published at least once: a message whose publish failed halfway may
+ * also be published again from the journal. A message is removed from the journal only
+ * once the broker confirmed it (or a consumer answered it), so the producer created by
+ * the factory must have publisher confirms enabled.
+ */
+public class OutboxProducerService implements ProducerService {
+    private static final Logger logger = LoggerFactory.getLogger(OutboxProducerService.class);
+    private static final String THREAD_NAME = "producer-outbox";
+    private static final String PENDING_GAUGE = "outbox_pending";
+
+    private final ProducerFactory factory;
+    private final OutboxJournal journal;
+    private final ScheduledExecutorService replayer;
+
+    private final LongSupplier pendingGauge;
+
+    private volatile ProducerService delegate;
+    private volatile MessagingMetrics metrics;
+
+    /**
+     * @param factory creates the producer that actually publishes the messages.
+     * @param journal where messages wait while the broker is unreachable.
+     * @param retryInterval time, in milliseconds, between two attempts to publish the journal.
+     */
+    public OutboxProducerService(ProducerFactory factory, OutboxJournal journal, long retryInterval) {
+        this.factory = factory;
+        this.journal = journal;
+        this.pendingGauge = this::getPending;
+        this.replayer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, THREAD_NAME);
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        connect();
+        this.replayer.scheduleWithFixedDelay(this::replay, retryInterval, retryInterval, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int publish(Message message) throws IOException, InterruptedException {
+        ProducerService producer = getProducer();
+        if (producer != null) {
+            try {
+                int status = producer.publish(message);
+                if (status != MessageStatus.NOT_CONFIRMED.status) {
+                    return status;
+                }
+                logger.warn("broker did not confirm message, keeping it in the outbox");
+            } catch (IOException | RuntimeException e) {
+                logger.warn("could not publish message, keeping it in the outbox: {}", e.getMessage());
+            }
+        }
+
+        journal(message);
+        return MessageStatus.JOURNALED.status;
+    }
+
+    @Override
+    public CompletableFuture<Integer> publishAsync(Message message) {
+        ProducerService producer = getProducer();
+        return producer != null ? journalOnFailure(message, producer.publishAsync(message)) : journalAsync(message);
+    }
+
+    @Override
+    public CompletableFuture<Integer> publishAsync(Message message, long timeout, TimeUnit unit) {
+        ProducerService producer = getProducer();
+        return producer != null ?
+                journalOnFailure(message, producer.publishAsync(message, timeout, unit)) : journalAsync(message);
+    }
+
+    /**
+     * If the batch fails, the messages that were not published are journaled. When
+     * the producer can not tell which ones were, every message of it is journaled,
+     * including those that may have reached the broker.
+     */
+    @Override
+    public List<Integer> publishAll(Collection<Message> messages) throws IOException, InterruptedException {
+        ProducerService producer = getProducer();
+        if (producer != null) {
+            try {
+                return journalNotConfirmed(messages, producer.publishAll(messages));
+            } catch (PartialPublishException e) {
+                logger.warn("could not publish every message, keeping the rest in the outbox: {}", e.getMessage());
+                return journalRemaining(messages, journalNotConfirmed(messages, e.getStatuses()));
+            } catch (IOException | RuntimeException e) {
+                logger.warn("could not publish messages, keeping them in the outbox: {}", e.getMessage());
+            }
+        }
+
+        for (Message message : messages) {
+            journal(message);
+        }
+        return new ArrayList<>(Collections.nCopies(messages.size(), MessageStatus.JOURNALED.status));
+    }
+
+    /**
+     * Journals the messages of a batch the broker did not confirm.
+     *
+     * @return the statuses of the batch, with {@link MessageStatus#JOURNALED} for those messages.
+     */
+    private List<Integer> journalNotConfirmed(Collection<Message> messages, List<Integer> statuses) throws IOException {
+        List<Integer> result = new ArrayList<>(statuses);
+        Iterator<Message> iterator = messages.iterator();
+        for (int i = 0; i < result.size() && iterator.hasNext(); i++) {
+            Message message = iterator.next();
+            if (result.get(i) == MessageStatus.NOT_CONFIRMED.status) {
+                journal(message);
+                result.set(i, MessageStatus.JOURNALED.status);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Journals the messages of a batch after those that were published.
+     *
+     * @param published the statuses of the messages that were published.
+     *
+     * @return the statuses of the whole batch.
+     */
+    private List<Integer> journalRemaining(Collection<Message> messages, List<Integer> published) throws IOException {
+        List<Integer> result = new ArrayList<>(published);
+        Iterator<Message> iterator = messages.iterator();
+        for (int i = 0; iterator.hasNext(); i++) {
+            Message message = iterator.next();
+            if (i >= published.size()) {
+                journal(message);
+                result.add(MessageStatus.JOURNALED.status);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The check is not atomic with the publish that follows it: see the ordering notes of this class.
+     *
+     * @return the producer to publish with right away, or null if messages must go to the journal.
+     */
+    private ProducerService getProducer() {
+        ProducerService producer = delegate;
+        return producer != null && journal.isEmpty() ? producer : null;
+    }
+
+    private CompletableFuture<Integer> journalOnFailure(Message message, CompletableFuture<Integer> result) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        result.whenComplete((status, error) -> {
+            if (error == null && status != MessageStatus.NOT_CONFIRMED.status) {
+                future.complete(status);
+                return;
+            }
+
+            logger.warn("could not publish message, keeping it in the outbox: {}",
+                    error != null ? error.getMessage() : "broker did not confirm it");
+            try {
+                journal(message);
+                future.complete(MessageStatus.JOURNALED.status);
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+            }
+        });
+        return future;
+    }
+
+    private CompletableFuture<Integer> journalAsync(Message message) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        try {
+            journal(message);
+            future.complete(MessageStatus.JOURNALED.status);
+        } catch (IOException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    private void journal(Message message) throws IOException {
+        journal.append(message.toByteArray());
+    }
+
+    /**
+     * @return the number of messages waiting in the journal.
+     */
+    public int getPending() {
+        return journal.size();
+    }
+
+    /**
+     * Exposes the number of messages waiting in the journal with the metrics of
+     * the queue, until this producer is closed.
+     *
+     * @param metrics the metrics of the queue of this producer.
+     */
+    public void registerMetrics(MessagingMetrics metrics) {
+        this.metrics = metrics;
+        metrics.registerGauge(PENDING_GAUGE, pendingGauge);
+    }
+
+    /**
+     * Publishes the journal in order, stopping at the first message the broker does not take.
+     */
+    void replay() {
+        ProducerService producer = delegate != null ? delegate : connect();
+        if (producer == null || journal.isEmpty()) {
+            return;
+        }
+
+        int replayed = 0;
+        OutboxJournal.Record record;
+        try {
+            while ((record = journal.peek()) != null) {
+                Message message;
+                try {
+                    message = Message.fromByteArray(record.getPayload());
+                } catch (IOException e) {
+                    logger.error("discarding unreadable message from the outbox", e);
+                    journal.ack(record);
+                    continue;
+                }
+
+                if (!isDelivered(producer.publish(message))) {
+                    logger.warn("broker did not confirm message from the outbox, retrying later");
+                    return;
+                }
+                journal.ack(record);
+                replayed++;
+            }
+            logger.info("published {} messages from the outbox", replayed);
+        } catch (IOException | RuntimeException e) {
+            logger.warn("broker still unreachable, {} messages in the outbox: {}", journal.size(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param status the status a publish of the producer returned.
+     *
+     * @return true if the broker confirmed the message or a consumer answered it. A
+     *          message without a confirm in time ({@link MessageStatus#UNDEFINED_STATUS})
+     *          may not have reached the broker, so it is kept in the journal.
+     */
+    private static boolean isDelivered(int status) {
+        return status != MessageStatus.NOT_CONFIRMED.status && status != MessageStatus.UNDEFINED_STATUS.status;
+    }
+
+    private synchronized ProducerService connect() {
+        if (delegate != null) {
+            return delegate;
+        }
+
+        try {
+            delegate = factory.create();
+            logger.info("broker reachable, publishing directly");
+        } catch (IOException | TimeoutException | RuntimeException e) {
+            logger.warn("broker unreachable, keeping messages in the outbox: {}", e.getMessage());
+        }
+        return delegate;
+    }
+
+    /**
+     * Stops replaying and closes the journal. Messages still in the journal are
+     * published the next time a producer is opened on it.
+     */
+    @Override
+    public void close() throws IOException {
+        MessagingMetrics registered = metrics;
+        if (registered != null) {
+            registered.unregisterGauge(PENDING_GAUGE, pendingGauge);
+        }
+
+        replayer.shutdown();
+        try {
+            replayer.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        journal.close();
+        ProducerService producer = delegate;
+        if (producer != null) {
+            producer.close();
+        }
+    }
+
+    /**
+     * Creates the producer the messages are published with.
+     */
+    public interface ProducerFactory {
+
+        /**
+         * @return a producer connected to the broker.
+         *
+         * @throws IOException if the producer could not be created.
+         * @throws TimeoutException if the broker could not be reached in time.
+         */
+        ProducerService create() throws IOException, TimeoutException;
+    }
+}
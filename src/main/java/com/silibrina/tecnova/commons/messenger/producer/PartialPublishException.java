@@ -0,0 +1,36 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Thrown by {@link ProducerService#publishAll(java.util.Collection)} when publishing
+ * stopped partway through the messages.
+ *
+ * Carries the statuses of the messages published before the failure, in order, so
+ * callers only publish the remaining ones again: the message at index
+ * {@code getStatuses().size()} and every message after it were not published.
+ */
+public class PartialPublishException extends IOException {
+    private static final long serialVersionUID = -2937560185466318294L;
+
+    private final List<Integer> statuses;
+
+    /**
+     * @param statuses the statuses of the messages published before the failure.
+     * @param cause why the next message could not be published.
+     */
+    public PartialPublishException(List<Integer> statuses, Throwable cause) {
+        super("published " + statuses.size() + " messages before failing: " + cause.getMessage(), cause);
+
+        this.statuses = Collections.unmodifiableList(statuses);
+    }
+
+    /**
+     * @return the statuses of the messages published before the failure.
+     */
+    public List<Integer> getStatuses() {
+        return statuses;
+    }
+}
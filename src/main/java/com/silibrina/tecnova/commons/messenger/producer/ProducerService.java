@@ -4,6 +4,10 @@ import com.silibrina.tecnova.commons.messenger.Message;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A service to produce messages for task creation. Messages will be
@@ -27,4 +31,48 @@ public interface ProducerService extends Closeable {
      * @return a number representing the status of this action.
      */
     int publish(Message message) throws IOException, InterruptedException;
+
+    /**
+     * Publishes a message to the message queue (RabbitMQ) without blocking the caller
+     * while the answer is awaited. The future is completed with the answer of the
+     * consumer in sync mode, with the confirm of the broker when publisher confirms
+     * are enabled, or right after publishing otherwise.
+     *
+     * If nothing arrives within the default timeout of this service, the future is
+     * completed with {@link com.silibrina.tecnova.commons.messenger.MessageStatus#UNDEFINED_STATUS}.
+     * Errors while publishing complete the future exceptionally.
+     *
+     * @param message a message representing a task to be created at the coherence service.
+     *
+     * @return a future with the status of this action.
+     */
+    CompletableFuture<Integer> publishAsync(Message message);
+
+    /**
+     * Same as {@link #publishAsync(Message)}, with a timeout for this call only.
+     *
+     * @param message a message representing a task to be created at the coherence service.
+     * @param timeout how long to wait for the answer or confirm.
+     * @param unit the unit of {@code timeout}.
+     *
+     * @return a future with the status of this action.
+     */
+    CompletableFuture<Integer> publishAsync(Message message, long timeout, TimeUnit unit);
+
+    /**
+     * Publishes several messages to the message queue (RabbitMQ) at once.
+     * Messages are published in order on a single channel and, when publisher
+     * confirms are enabled, the confirms are awaited once for the whole batch.
+     *
+     * @param messages the messages representing tasks to be created at the coherence service.
+     *
+     * @throws IOException if some error occurs while publishing. Implementations throw a
+     *                      {@link PartialPublishException} when the messages before the
+     *                      failing one were published, so those are not published again.
+     * @throws InterruptedException if it is interrupted while waiting for the confirms
+     *                      or answers.
+     *
+     * @return the status of each message, in the iteration order of {@code messages}.
+     */
+    List<Integer> publishAll(Collection<Message> messages) throws IOException, InterruptedException;
 }
@@ -0,0 +1,87 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.silibrina.tecnova.commons.conf.ConfigLoader;
+import com.silibrina.tecnova.commons.messenger.Transport;
+import com.silibrina.tecnova.commons.messenger.embedded.EmbeddedProducerService;
+import com.silibrina.tecnova.commons.messenger.metrics.MessagingMetrics;
+import com.typesafe.config.Config;
+import com.typesafe.config.ConfigFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_COALESCE;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_CONFIRM;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_METRICS;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_OUTBOX;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_COALESCE_WINDOW;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_OUTBOX_RETRY_INTERVAL;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_OUTBOX_SEGMENT_SIZE;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Strings.RABBITMQ_OUTBOX_DIR;
+import static com.silibrina.tecnova.commons.utils.Preconditions.checkIOCondition;
+
+/**
+ * Provides a producer for a queue, based on the configuration section rabbitmq.
+ *
+ * If rabbitmq.transport is "embedded", messages go through the in-process bus
+ * (see {@link EmbeddedProducerService}) instead of RabbitMQ, and the outbox is not used.
+ *
+ * If rabbitmq.coalesce.enabled is set, the producer holds messages for
+ * rabbitmq.coalesce.window milliseconds and collapses redundant messages of the
+ * same entry before publishing them (see {@link CoalescingProducerService}).
+ *
+ * If rabbitmq.outbox.enabled is set, messages are kept in a journal under
+ * rabbitmq.outbox.dir while the broker is unreachable (see {@link OutboxProducerService}).
+ * The producer can then be created even if the broker is down. The outbox needs
+ * rabbitmq.confirm.enabled, since it only forgets messages the broker confirmed.
+ */
+public class ProducerServiceFactory {
+    private static final int DEFAULT_COALESCE_WINDOW = 50;
+    private static final String DEFAULT_OUTBOX_DIR = "/tmp/opendata/outbox";
+    private static final int DEFAULT_OUTBOX_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final int DEFAULT_OUTBOX_RETRY_INTERVAL = 1000;
+
+    /**
+     * Gets a producer based on the configuration.
+     *
+     * @param queueName the queue messages are published to.
+     * @param isSync whether publish waits for the consumer to handle the message.
+     *
+     * @return the producer instance.
+     */
+    public static ProducerService getProducerService(String queueName, boolean isSync) throws IOException, TimeoutException {
+        Config config = ConfigFactory.load();
+        ProducerService producer;
+        if (Transport.fromConfig(config) == Transport.EMBEDDED) {
+            producer = new EmbeddedProducerService(queueName, isSync);
+        } else if (ConfigLoader.getBoolean(config, RABBITMQ_OUTBOX, false)) {
+            producer = newOutboxProducerService(config, queueName, isSync);
+        } else {
+            producer = new SimpleProducerService(queueName, isSync);
+        }
+
+        if (ConfigLoader.getBoolean(config, RABBITMQ_COALESCE, false)) {
+            int window = ConfigLoader.getInt(config, RABBITMQ_COALESCE_WINDOW, DEFAULT_COALESCE_WINDOW);
+            return new CoalescingProducerService(producer, window);
+        }
+        return producer;
+    }
+
+    private static ProducerService newOutboxProducerService(Config config, String queueName, boolean isSync)
+            throws IOException {
+        checkIOCondition("rabbitmq.outbox.enabled requires rabbitmq.confirm.enabled",
+                ConfigLoader.getBoolean(config, RABBITMQ_CONFIRM, false));
+
+        File directory = new File(ConfigLoader.getString(config, RABBITMQ_OUTBOX_DIR, DEFAULT_OUTBOX_DIR), queueName);
+        OutboxJournal journal = new OutboxJournal(directory,
+                ConfigLoader.getInt(config, RABBITMQ_OUTBOX_SEGMENT_SIZE, DEFAULT_OUTBOX_SEGMENT_SIZE));
+
+        OutboxProducerService producer = new OutboxProducerService(() -> new SimpleProducerService(queueName, isSync),
+                journal, ConfigLoader.getInt(config, RABBITMQ_OUTBOX_RETRY_INTERVAL, DEFAULT_OUTBOX_RETRY_INTERVAL));
+        if (ConfigLoader.getBoolean(config, RABBITMQ_METRICS, false)) {
+            producer.registerMetrics(MessagingMetrics.forQueue(queueName));
+        }
+        return producer;
+    }
+}
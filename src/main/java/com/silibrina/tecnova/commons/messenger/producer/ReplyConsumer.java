@@ -0,0 +1,116 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.silibrina.tecnova.commons.messenger.consumer.MessageConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Receives the answers of sync publishes through RabbitMQ direct reply-to.
+ *
+ * The same consumer is registered on every publishing channel of a producer, on the
+ * pseudo-queue {@link #REPLY_TO}, so no reply queue has to be declared per message.
+ * Each sync publish registers a unique correlation id and gets a future, which is
+ * completed with the status sent back by the consumer of the message.
+ */
+public class ReplyConsumer implements Consumer {
+    private static final Logger logger = LoggerFactory.getLogger(ReplyConsumer.class);
+
+    public static final String REPLY_TO = "amq.rabbitmq.reply-to";
+    public static final boolean AUTO_ACK = true;
+
+    private final ConcurrentMap<String, CompletableFuture<Integer>> pending;
+    private final String prefix;
+    private final AtomicLong sequence;
+
+    public ReplyConsumer() {
+        this.pending = new ConcurrentHashMap<>();
+        this.prefix = UUID.randomUUID().toString();
+        this.sequence = new AtomicLong();
+    }
+
+    /**
+     * @return a correlation id that was never used by any producer.
+     */
+    public String nextCorrelationId() {
+        return prefix + "-" + sequence.incrementAndGet();
+    }
+
+    /**
+     * Registers a message waiting for an answer. The registration is dropped
+     * when the future completes, either by the answer or by cancellation.
+     *
+     * @param correlationId the correlation id the message is published with.
+     *
+     * @return a future completed with the status of the message.
+     */
+    public CompletableFuture<Integer> register(String correlationId) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        pending.put(correlationId, future);
+        future.whenComplete((status, error) -> pending.remove(correlationId, future));
+        return future;
+    }
+
+    /**
+     * @return the number of messages waiting for an answer.
+     */
+    public int size() {
+        return pending.size();
+    }
+
+    @Override
+    public void handleDelivery(String consumerTag, Envelope envelope, AMQP.BasicProperties properties, byte[] body) {
+        String correlationId = properties.getCorrelationId();
+        CompletableFuture<Integer> future = correlationId != null ? pending.get(correlationId) : null;
+
+        if (future == null) {
+            logger.debug("discarding answer of unknown or expired message: {}", correlationId);
+            return;
+        }
+
+        int status = MessageConsumer.getStatus(body);
+        logger.debug("correlationId: {}, resultMessage: {}", correlationId, status);
+        future.complete(status);
+    }
+
+    @Override
+    public void handleConsumeOk(String consumerTag) {
+        logger.debug("tag: {}", consumerTag);
+    }
+
+    @Override
+    public void handleCancelOk(String consumerTag) {
+        logger.debug("tag: {}", consumerTag);
+    }
+
+    @Override
+    public void handleCancel(String consumerTag) {
+        logger.debug("tag: {}", consumerTag);
+    }
+
+    @Override
+    public void handleShutdownSignal(String consumerTag, ShutdownSignalException sig) {
+        logger.debug("tag: {}, reason: {}", consumerTag, sig.getMessage());
+    }
+
+    @Override
+    public void handleRecoverOk(String consumerTag) {
+        logger.debug("tag: {}", consumerTag);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.getDefault(), "%s [pending: %d]",
+                this.getClass().getSimpleName(), pending.size());
+    }
+}
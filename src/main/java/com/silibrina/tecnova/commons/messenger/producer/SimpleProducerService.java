@@ -2,31 +2,110 @@ package com.silibrina.tecnova.commons.messenger.producer;
 
 import com.rabbitmq.client.AMQP;
 import com.rabbitmq.client.Channel;
-import com.rabbitmq.client.QueueingConsumer;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.silibrina.tecnova.commons.messenger.ConnectionManager;
 import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessageCodec;
+import com.silibrina.tecnova.commons.messenger.MessageCodecs;
+import com.silibrina.tecnova.commons.messenger.MessageCompression;
 import com.silibrina.tecnova.commons.messenger.MessageStatus;
 import com.silibrina.tecnova.commons.messenger.MessengerService;
-import com.silibrina.tecnova.commons.messenger.consumer.MessageConsumer;
+import com.silibrina.tecnova.commons.messenger.PartitionRing;
+import com.silibrina.tecnova.commons.messenger.TimeoutScheduler;
+import com.silibrina.tecnova.commons.messenger.metrics.MessagingMetrics;
 import play.Logger;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Booleans.RABBITMQ_CONFIRM;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_COMPRESSION_THRESHOLD;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_CONFIRM_TIMEOUT;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PARTITION_COUNT;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PUBLISH_BATCH_SIZE;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Integers.RABBITMQ_PUBLISH_WINDOW;
+import static com.silibrina.tecnova.commons.conf.ConfigConstants.Strings.RABBITMQ_PUBLISH_WINDOW_MODE;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getBoolean;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getInt;
+import static com.silibrina.tecnova.commons.conf.ConfigLoader.getString;
 
 /**
  * A simple messenger service to produce messages to the RabbitMQ.
  * This messages will be consumed by the coherence service.
+ *
+ * When publisher confirms are enabled (rabbitmq.confirm.enabled), the publishing
+ * channels are put in confirm mode and {@link #publish(Message)} returns once the
+ * broker has taken responsibility for the message. The channel is given back to
+ * the pool before waiting, so other threads keep publishing on it meanwhile.
+ * If the connection is lost, messages not confirmed yet are published again once the
+ * connection is recovered, after its queues and consumers (see
+ * {@link ConfirmTracker#republish(Channel)}), so they may reach consumers twice.
+ *
+ * In sync mode the answers come back through direct reply-to: every publishing
+ * channel consumes from {@link ReplyConsumer#REPLY_TO} and each message carries its
+ * own correlation id, so concurrent sync publishes get their own answers.
+ *
+ * Messages are encoded with the codec chosen in rabbitmq.codec (see {@link MessageCodecs}).
+ * Bodies larger than rabbitmq.compression.threshold bytes are compressed
+ * (see {@link MessageCompression}); a threshold of 0 disables compression.
+ *
+ * With rabbitmq.publish.window.size set, at most that many messages wait for their
+ * confirm (or answer) at the same time; see {@link InFlightWindow} for what happens
+ * to publishers when the window is full.
+ *
+ * With rabbitmq.metrics.enabled set, each message carries the time it was published,
+ * for consumers to measure their lag, and every publish is recorded in the
+ * {@link MessagingMetrics} of the queue with its status and how long it took to end.
+ *
+ * With rabbitmq.partition.count set, the queue is split in that many partition queues
+ * ({@code <queue>.<partition>}) and each message is published to the partition of its
+ * entry (see {@link PartitionRing}), so the messages of an entry keep their order while
+ * different partitions are consumed by different nodes.
  */
 public class SimpleProducerService extends MessengerService implements ProducerService {
     private static final Logger.ALogger logger = Logger.of(SimpleProducerService.class);
 
     private static final String EXCHANGE = "";
     private static final long TIMEOUT = 300000L;
-
-    private static final String CONTENT_TYPE = "application/json";
-    private static final String CORRELATION_ID = "id-1";
+    private static final int DEFAULT_CONFIRM_TIMEOUT = 30000;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final int BUFFER_SIZE = 4096;
+    private static final String IN_FLIGHT_GAUGE = "in_flight";
+    private static final String WINDOW_THREAD_NAME = "producer-window-";
 
     private final boolean isSync;
+    private final boolean confirm;
+    private final long confirmTimeout;
+    private final int batchSize;
+    private final Map<Channel, ConfirmTracker> confirmTrackers;
+    private final ReplyConsumer replyConsumer;
+    private final MessageCodec codec;
+    private final int compressionThreshold;
+    private final AMQP.BasicProperties plainProperties;
+    private final AMQP.BasicProperties compressedProperties;
+    private final String messageIdPrefix;
+    private final AtomicLong messageSequence;
+    private final InFlightWindow window;
+    private final PartitionRing partitions;
+    private final ExecutorService windowDispatcher;
+    private final RecoveryListener republisher;
 
     /**
      * Instantiates a messenger producer service, creating connection and channel with
@@ -42,65 +121,426 @@ public class SimpleProducerService extends MessengerService implements ProducerS
         super(queueName);
 
         this.isSync = isSync;
+        this.confirm = getBoolean(getConfig(), RABBITMQ_CONFIRM, false);
+        this.confirmTimeout = getInt(getConfig(), RABBITMQ_CONFIRM_TIMEOUT, DEFAULT_CONFIRM_TIMEOUT);
+        this.batchSize = Math.max(1, getInt(getConfig(), RABBITMQ_PUBLISH_BATCH_SIZE, DEFAULT_BATCH_SIZE));
+        this.confirmTrackers = new ConcurrentHashMap<>();
+        this.replyConsumer = new ReplyConsumer();
+        this.codec = MessageCodecs.fromConfig(getConfig());
+        this.compressionThreshold = getInt(getConfig(), RABBITMQ_COMPRESSION_THRESHOLD, 0);
+        this.plainProperties = defaultProperties(false);
+        this.compressedProperties = defaultProperties(true);
+        this.messageIdPrefix = UUID.randomUUID().toString();
+        this.messageSequence = new AtomicLong();
+        this.window = newInFlightWindow();
+        this.partitions = newPartitionRing();
+        this.windowDispatcher = window != null ? Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, WINDOW_THREAD_NAME + queueName);
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        if (window != null) {
+            registerGauge(IN_FLIGHT_GAUGE, this::getInFlight);
+        }
+
+        // channel listeners run before queues and consumers are recovered, so the
+        // reply-to consumer would be missing; the connection is told last
+        this.republisher = confirm && getConnection() instanceof Recoverable ? recoverable -> republish() : null;
+        if (republisher != null) {
+            ((Recoverable) getConnection()).addRecoveryListener(republisher);
+        }
+    }
+
+    /**
+     * Publishes again, on their recovered channels, the messages that were waiting
+     * for a confirm when the connection was lost.
+     */
+    private void republish() {
+        for (Map.Entry<Channel, ConfirmTracker> entry : confirmTrackers.entrySet()) {
+            int republished = entry.getValue().republish(entry.getKey());
+            if (republished > 0) {
+                logger.info("published {} unconfirmed messages again", republished);
+            }
+        }
+    }
+
+    private PartitionRing newPartitionRing() throws IOException {
+        int count = getInt(getConfig(), RABBITMQ_PARTITION_COUNT, 0);
+        if (count <= 0) {
+            return null;
+        }
+
+        for (int partition = 0; partition < count; partition++) {
+            declareQueue(getChannel(), PartitionRing.queueOf(getQueue(), partition));
+        }
+        return new PartitionRing(count);
+    }
+
+    private InFlightWindow newInFlightWindow() {
+        int size = getInt(getConfig(), RABBITMQ_PUBLISH_WINDOW, 0);
+        if (size <= 0) {
+            return null;
+        }
+
+        InFlightWindow.Mode mode = InFlightWindow.getMode(
+                getString(getConfig(), RABBITMQ_PUBLISH_WINDOW_MODE, InFlightWindow.Mode.BLOCK.name()));
+        return new InFlightWindow(size, mode, getTimeout());
     }
 
     @Override
-    public int publish(Message message) throws IOException, InterruptedException {
-        Channel channel = getChannel();
-        AMQP.BasicProperties properties = defaultProperties();
-        QueueingConsumer consumerQueue = null;
-        String queue = getQueue();
+    protected void initializeChannel(Channel channel) throws IOException {
+        super.initializeChannel(channel);
+
+        if (confirm) {
+            ConfirmTracker tracker = new ConfirmTracker();
+            channel.confirmSelect();
+            channel.addConfirmListener(tracker);
+            channel.addShutdownListener(cause -> {
+                if (ConnectionManager.isRecoverableShutdown(channel, cause)) {
+                    logger.warn("connection lost, {} messages wait to be published again", tracker.size());
+                    return;
+                }
+                confirmTrackers.remove(channel);
+                tracker.failAll(cause);
+            });
+            confirmTrackers.put(channel, tracker);
+        }
 
         if (isSync) {
-            consumerQueue = new QueueingConsumer(channel);
-            String replyQueueName = declareReplyQueue(channel, consumerQueue);
-            properties = defaultSyncProperties(replyQueueName);
+            channel.basicConsume(ReplyConsumer.REPLY_TO, ReplyConsumer.AUTO_ACK, replyConsumer);
         }
+    }
 
-        logger.debug("channel: {}, queue: {}, message: {}", channel, queue, message);
-        channel.basicPublish(EXCHANGE, queue, properties, message.toByteArray());
+    @Override
+    public int publish(Message message) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + getTimeout();
+        if (window != null) {
+            window.acquire();
+        }
+        return await(dispatchInWindow(message), deadline);
+    }
 
-        return waitAnswerIfSync(consumerQueue);
+    @Override
+    public CompletableFuture<Integer> publishAsync(Message message) {
+        return publishAsync(message, getTimeout(), TimeUnit.MILLISECONDS);
     }
 
-    private int waitAnswerIfSync(QueueingConsumer consumerQueue) throws InterruptedException, UnsupportedEncodingException {
-        if (isSync) {
-            QueueingConsumer.Delivery result = consumerQueue.nextDelivery(TIMEOUT);
-            return receiveResponse(result);
+    @Override
+    public CompletableFuture<Integer> publishAsync(Message message, long timeout, TimeUnit unit) {
+        try {
+            if (window == null) {
+                return TimeoutScheduler.completeOnTimeout(dispatch(message),
+                        MessageStatus.UNDEFINED_STATUS.status, timeout, unit);
+            }
+
+            CompletableFuture<Integer> result = new CompletableFuture<>();
+            CompletableFuture<Void> slot = window.acquireAsync();
+            if (slot.isDone()) {
+                slot.whenComplete((ignored, error) -> dispatchOnSlot(message, result, error));
+            } else {
+                // a pending slot is handed over by whoever releases it, often a confirm or reply thread
+                slot.whenCompleteAsync((ignored, error) -> dispatchOnSlot(message, result, error), windowDispatcher);
+            }
+
+            TimeoutScheduler.completeOnTimeout(result, MessageStatus.UNDEFINED_STATUS.status, timeout, unit);
+            // a slot freed after the timeout goes to the next caller instead
+            result.whenComplete((status, error) -> slot.cancel(false));
+            return result;
+        } catch (IOException | RuntimeException e) {
+            CompletableFuture<Integer> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+    }
+
+    /**
+     * Publishes the messages in batches of rabbitmq.publish.batch_size. Each batch
+     * goes out on a single channel, serialized on the same buffer, and its confirms
+     * (or answers, in sync mode) are awaited only after the whole batch was sent.
+     *
+     * A message sent whose confirm failed (e.g. its channel was closed) gets
+     * {@link MessageStatus#NOT_CONFIRMED}. If a message can not be sent, the results of
+     * the messages sent before it are still awaited, and a {@link PartialPublishException}
+     * carrying their statuses is thrown.
+     */
+    @Override
+    public List<Integer> publishAll(Collection<Message> messages) throws IOException, InterruptedException {
+        List<Integer> statuses = new ArrayList<>(messages.size());
+
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+        Iterator<Message> iterator = messages.iterator();
+        while (iterator.hasNext()) {
+            List<CompletableFuture<Integer>> results = new ArrayList<>(Math.min(batchSize, messages.size()));
+            Exception failure = null;
+
+            try {
+                Channel channel = borrowChannel();
+                try {
+                    for (int i = 0; i < batchSize && iterator.hasNext(); i++) {
+                        Message message = iterator.next();
+                        buffer.reset();
+                        codec.encode(message, buffer);
+                        if (window == null) {
+                            results.add(dispatch(channel, message, buffer.toByteArray()));
+                            continue;
+                        }
+
+                        window.acquire();
+                        results.add(holdWindow(() -> dispatch(channel, message, buffer.toByteArray())));
+                    }
+                } finally {
+                    releaseChannel(channel);
+                }
+            } catch (IOException | RuntimeException e) {
+                failure = e;
+            }
+
+            long deadline = System.currentTimeMillis() + getTimeout();
+            for (CompletableFuture<Integer> result : results) {
+                try {
+                    statuses.add(await(result, deadline));
+                } catch (IOException e) {
+                    logger.warn("message of a batch could not be confirmed: {}", e.getCause());
+                    statuses.add(MessageStatus.NOT_CONFIRMED.status);
+                }
+            }
+
+            if (failure != null) {
+                throw new PartialPublishException(statuses, failure);
+            }
+        }
+        return statuses;
+    }
+
+    private CompletableFuture<Integer> dispatch(Message message) throws IOException {
+        byte[] body = message.toByteArray(codec);
+
+        Channel channel = borrowChannel();
+        try {
+            logger.debug("channel: {}, queue: {}, message: {}", channel, getQueue(), message);
+            return dispatch(channel, message, body);
+        } finally {
+            releaseChannel(channel);
+        }
+    }
+
+    /**
+     * Publishes a message holding a slot of the in-flight window, already taken by
+     * the caller, until its result arrives.
+     */
+    private CompletableFuture<Integer> dispatchInWindow(Message message) throws IOException {
+        return window != null ? holdWindow(() -> dispatch(message)) : dispatch(message);
+    }
+
+    /**
+     * Publishes a message once its slot of the in-flight window is taken, completing
+     * {@code result} with its outcome. If {@code result} already timed out, the slot is
+     * given back without publishing; if it times out afterwards, the dispatched message
+     * ends too, so its slot and its pending answer are not kept forever.
+     */
+    private void dispatchOnSlot(Message message, CompletableFuture<Integer> result, Throwable error) {
+        if (error != null) {
+            result.completeExceptionally(error);
+            return;
+        }
+        if (result.isDone()) {
+            window.release();
+            return;
+        }
+
+        CompletableFuture<Integer> dispatched;
+        try {
+            dispatched = dispatchInWindow(message);
+        } catch (IOException | RuntimeException e) {
+            result.completeExceptionally(e);
+            return;
+        }
+
+        dispatched.whenComplete((status, failure) -> {
+            if (failure != null) {
+                result.completeExceptionally(failure);
+            } else {
+                result.complete(status);
+            }
+        });
+        result.whenComplete((status, failure) -> dispatched.complete(MessageStatus.UNDEFINED_STATUS.status));
+    }
+
+    private CompletableFuture<Integer> holdWindow(Dispatch dispatch) throws IOException {
+        CompletableFuture<Integer> result;
+        try {
+            result = dispatch.run();
+        } catch (IOException | RuntimeException e) {
+            window.release();
+            throw e;
+        }
+        result.whenComplete((status, error) -> window.release());
+        return result;
+    }
+
+    /**
+     * @return the number of messages waiting for their confirm or answer, or 0
+     *          if rabbitmq.publish.window.size is not set.
+     */
+    public int getInFlight() {
+        return window != null ? window.getInUse() : 0;
+    }
+
+    /**
+     * Publishes a message in the given channel, to the partition of its entry if the
+     * queue is partitioned, recording it in the metrics of the queue once its result arrives.
+     */
+    private CompletableFuture<Integer> dispatch(Channel channel, Message message, byte[] body) throws IOException {
+        String routingKey = partitions != null ?
+                PartitionRing.queueOf(getQueue(), partitions.partitionOf(message.getEntryId())) : getQueue();
+        Message.MessageType type = message.getType();
+
+        MessagingMetrics metrics = getMetrics();
+        if (metrics == null) {
+            return dispatch(channel, routingKey, type, body, null);
+        }
+
+        long start = System.nanoTime();
+        CompletableFuture<Integer> result;
+        try {
+            result = dispatch(channel, routingKey, type, body,
+                    Collections.singletonMap(MessagingMetrics.PUBLISHED_AT_HEADER, System.currentTimeMillis()));
+        } catch (IOException | RuntimeException e) {
+            metrics.published(type, MessageStatus.IO_ERROR.status, System.nanoTime() - start);
+            throw e;
         }
-        return MessageStatus.UNDEFINED_STATUS.status;
+
+        result.whenComplete((status, error) -> metrics.published(type,
+                error == null ? status : error instanceof CancellationException ?
+                        MessageStatus.UNDEFINED_STATUS.status : MessageStatus.IO_ERROR.status,
+                System.nanoTime() - start));
+        return result;
     }
 
-    private int receiveResponse(QueueingConsumer.Delivery result) throws UnsupportedEncodingException {
-        if (result != null) {
-            int status = MessageConsumer.getStatus(result.getBody());
+    /**
+     * Publishes a message in the given channel, compressing its body if it is larger
+     * than rabbitmq.compression.threshold. The priority of the message comes from its
+     * type when rabbitmq.priority.enabled is set.
+     *
+     * @return a future completed with the answer of the consumer in sync mode, with
+     *          the confirm of the broker if confirms are enabled or right away otherwise.
+     */
+    private CompletableFuture<Integer> dispatch(Channel channel, String routingKey, Message.MessageType type,
+                                                byte[] body, Map<String, Object> headers) throws IOException {
+        Integer priority = isPriorityEnabled() ? type.priority : null;
+        boolean compressed = compressionThreshold > 0 && body.length > compressionThreshold;
+        if (compressed) {
+            body = MessageCompression.compress(body);
+        }
+
+        if (!isSync) {
+            AMQP.BasicProperties properties = compressed ? compressedProperties : plainProperties;
+            CompletableFuture<Integer> confirmation = send(channel, routingKey, body,
+                    properties.builder().messageId(nextMessageId()).priority(priority).headers(headers).build());
+            return confirmation != null ? confirmation :
+                    CompletableFuture.completedFuture(MessageStatus.UNDEFINED_STATUS.status);
+        }
+
+        String correlationId = replyConsumer.nextCorrelationId();
+        CompletableFuture<Integer> answer = replyConsumer.register(correlationId);
+        try {
+            send(channel, routingKey, body, defaultSyncProperties(correlationId, compressed, priority, headers));
+        } catch (IOException | RuntimeException e) {
+            answer.cancel(false);
+            throw e;
+        }
+        return answer;
+    }
+
+    /**
+     * Publishes a message in the given channel, keeping it until confirmed
+     * if the channel is in confirm mode.
+     *
+     * @return a future completed when the broker confirms the message, or null
+     *          if confirms are not enabled.
+     */
+    private CompletableFuture<Integer> send(Channel channel, String routingKey, byte[] body,
+                                            AMQP.BasicProperties properties) throws IOException {
+        ConfirmTracker tracker = confirmTrackers.get(channel);
+        if (tracker != null) {
+            return tracker.publish(channel, target -> target.basicPublish(EXCHANGE, routingKey, properties, body));
+        }
+
+        channel.basicPublish(EXCHANGE, routingKey, properties, body);
+        return null;
+    }
+
+    private int await(CompletableFuture<Integer> result, long deadline) throws IOException, InterruptedException {
+        try {
+            long remaining = Math.max(0L, deadline - System.currentTimeMillis());
+            int status = result.get(remaining, TimeUnit.MILLISECONDS);
             logger.debug("resultMessage: {}", status);
             return status;
-        } else {
+        } catch (TimeoutException e) {
             logger.info("timed out waiting for an answer (message was queued).");
+            result.cancel(false);
+            return MessageStatus.UNDEFINED_STATUS.status;
+        } catch (ExecutionException e) {
+            throw new IOException("message could not be confirmed", e.getCause());
         }
-        return MessageStatus.UNDEFINED_STATUS.status;
     }
 
-    private AMQP.BasicProperties defaultProperties() {
+    /**
+     * Stops handing freed window slots to pending publishes, and fails the messages
+     * that were still waiting for their channel to be recovered.
+     */
+    @Override
+    public void close() throws IOException {
+        if (windowDispatcher != null) {
+            windowDispatcher.shutdown();
+        }
+        if (republisher != null) {
+            ((Recoverable) getConnection()).removeRecoveryListener(republisher);
+        }
+        super.close();
+        for (ConfirmTracker tracker : confirmTrackers.values()) {
+            tracker.failAll(new IOException("producer was closed before the message was confirmed"));
+        }
+        confirmTrackers.clear();
+    }
+
+    /**
+     * @return a unique id, so consumers can tell a redelivery from a new message.
+     */
+    private String nextMessageId() {
+        return messageIdPrefix + "-" + messageSequence.incrementAndGet();
+    }
+
+    private long getTimeout() {
+        return isSync ? TIMEOUT : confirmTimeout;
+    }
+
+    private AMQP.BasicProperties defaultProperties(boolean compressed) {
         return new AMQP.BasicProperties()
                 .builder()
-                .contentType(CONTENT_TYPE)
+                .contentType(codec.getContentType())
+                .contentEncoding(compressed ? MessageCompression.DEFLATE : null)
                 .build();
     }
 
-    private AMQP.BasicProperties defaultSyncProperties(String replyQueueName) {
+    private AMQP.BasicProperties defaultSyncProperties(String correlationId, boolean compressed, Integer priority,
+                                                       Map<String, Object> headers) {
         return new AMQP.BasicProperties()
                 .builder()
-                .replyTo(replyQueueName)
-                .contentType(CONTENT_TYPE)
-                .correlationId(CORRELATION_ID)
+                .replyTo(ReplyConsumer.REPLY_TO)
+                .contentType(codec.getContentType())
+                .contentEncoding(compressed ? MessageCompression.DEFLATE : null)
+                .correlationId(correlationId)
+                .messageId(correlationId)
+                .priority(priority)
+                .headers(headers)
                 .build();
     }
 
-    private String declareReplyQueue(Channel channel, QueueingConsumer consumerQueue) throws IOException {
-        String replyQueueName = channel.queueDeclare().getQueue();
-        channel.basicConsume(replyQueueName, true, consumerQueue);
-        return replyQueueName;
+    /**
+     * Publishes a message, returning its result.
+     */
+    private interface Dispatch {
+        CompletableFuture<Integer> run() throws IOException;
     }
 }
@@ -0,0 +1,103 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.rabbitmq.client.Channel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ChannelPoolTests {
+    private StubBroker broker;
+    private ConnectionManager connectionManager;
+
+    @Before
+    public void setUp() throws IOException, TimeoutException {
+        broker = StubBroker.install();
+        connectionManager = ConnectionManager.getInstance();
+        connectionManager.acquire();
+    }
+
+    @After
+    public void cleanUp() throws IOException {
+        connectionManager.release();
+        broker.shutdown();
+    }
+
+    @Test
+    public void boundedBorrowTest() throws IOException {
+        ChannelPool pool = new ChannelPool(connectionManager, 2, 5000, null);
+        Channel first = pool.borrow();
+        Channel second = pool.borrow();
+        assertEquals(2, pool.size());
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool.release(first);
+        }).start();
+
+        assertSame("a full pool should hand out a released channel", first, pool.borrow());
+        assertEquals("no channel should be opened past the size of the pool", 2, pool.size());
+        pool.release(second);
+        pool.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void timeoutTest() throws IOException {
+        ChannelPool pool = new ChannelPool(connectionManager, 1, 50, null);
+        pool.borrow();
+        pool.borrow();
+    }
+
+    @Test
+    public void closedChannelTest() throws IOException, TimeoutException {
+        ChannelPool pool = new ChannelPool(connectionManager, 1, 50, null);
+        Channel channel = pool.borrow();
+        channel.close();
+        pool.release(channel);
+
+        assertEquals("a closed channel should be discarded", 0, pool.size());
+        Channel replacement = pool.borrow();
+        assertTrue(replacement.isOpen());
+        pool.close();
+    }
+
+    @Test
+    public void recoveringChannelTest() throws IOException {
+        ChannelPool pool = new ChannelPool(connectionManager, 1, 50, null);
+        Channel channel = pool.borrow();
+        pool.release(channel);
+
+        broker.loseConnection();
+        assertTrue(connectionManager.isRecovering());
+        try {
+            pool.borrow();
+            fail("a channel being recovered should not be handed out");
+        } catch (IOException e) {
+            assertFalse(channel.isOpen());
+        }
+        assertEquals("a channel being recovered should be kept", 1, pool.size());
+
+        broker.recover();
+        assertSame(channel, pool.borrow());
+        pool.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void closedPoolTest() throws IOException {
+        ChannelPool pool = new ChannelPool(connectionManager, 1, 50, null);
+        pool.close();
+        pool.borrow();
+    }
+}
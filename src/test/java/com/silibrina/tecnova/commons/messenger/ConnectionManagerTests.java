@@ -0,0 +1,81 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.rabbitmq.client.Connection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ConnectionManagerTests {
+    private StubBroker broker;
+    private ConnectionManager connectionManager;
+
+    @Before
+    public void setUp() {
+        broker = StubBroker.install();
+        connectionManager = ConnectionManager.getInstance();
+    }
+
+    @After
+    public void cleanUp() {
+        broker.shutdown();
+    }
+
+    @Test
+    public void referenceCountingTest() throws IOException, TimeoutException {
+        Connection first = connectionManager.acquire();
+        Connection second = connectionManager.acquire();
+        assertSame("services should share the connection", first, second);
+        assertEquals(2, connectionManager.getReferences());
+
+        connectionManager.release();
+        assertTrue("the connection should stay open while a service holds it", first.isOpen());
+
+        connectionManager.release();
+        assertFalse("the last release should close the connection", first.isOpen());
+        assertEquals(0, connectionManager.getReferences());
+
+        connectionManager.release();
+        assertEquals("extra releases should be ignored", 0, connectionManager.getReferences());
+    }
+
+    @Test
+    public void reopenTest() throws IOException, TimeoutException {
+        Connection first = connectionManager.acquire();
+        connectionManager.release();
+
+        Connection second = connectionManager.acquire();
+        assertNotSame(first, second);
+        assertTrue(second.isOpen());
+        connectionManager.release();
+    }
+
+    @Test(expected = IOException.class)
+    public void releasedConnectionTest() throws IOException, TimeoutException {
+        connectionManager.acquire();
+        connectionManager.release();
+
+        connectionManager.getConnection();
+    }
+
+    @Test
+    public void recoveryTest() throws IOException, TimeoutException {
+        Connection connection = connectionManager.acquire();
+        broker.loseConnection();
+        assertTrue(connectionManager.isRecovering());
+        assertSame("a connection being recovered should not be replaced", connection, connectionManager.getConnection());
+
+        broker.recover();
+        assertFalse(connectionManager.isRecovering());
+        assertEquals(1, connectionManager.getRecoveryTimes().getCount());
+        connectionManager.release();
+    }
+}
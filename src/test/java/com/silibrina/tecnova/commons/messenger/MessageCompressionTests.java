@@ -0,0 +1,43 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.rabbitmq.client.AMQP;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessageCompressionTests {
+
+    @Test
+    public void compressionRoundTripTest() throws IOException {
+        char[] content = new char[100000];
+        Arrays.fill(content, 'a');
+        byte[] body = new String(content).getBytes(StandardCharsets.UTF_8);
+
+        byte[] compressed = MessageCompression.compress(body);
+        assertTrue("body should be smaller", compressed.length < body.length);
+
+        AMQP.BasicProperties properties = new AMQP.BasicProperties().builder()
+                .contentEncoding(MessageCompression.DEFLATE).build();
+        assertArrayEquals("body should be restored", body, MessageCompression.decompressIfNeeded(properties, compressed));
+        assertArrayEquals("compressor should be reusable", compressed, MessageCompression.compress(body));
+    }
+
+    @Test
+    public void uncompressedBodyTest() throws IOException {
+        byte[] body = "{}".getBytes(StandardCharsets.UTF_8);
+
+        assertSame("body without encoding should be kept",
+                body, MessageCompression.decompressIfNeeded(new AMQP.BasicProperties(), body));
+    }
+
+    @Test(expected = IOException.class)
+    public void malformedBodyTest() throws IOException {
+        MessageCompression.decompress("not compressed".getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -4,10 +4,18 @@ import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.junit.Test;
 import play.libs.Json;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 import static com.silibrina.tecnova.commons.messenger.Message.MessageType.CREATE;
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.DELETE;
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.UPDATE;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class MessageTests {
 
@@ -24,4 +32,107 @@ public class MessageTests {
         assertEquals("type should be the same", message.getType(), newMessage.getType());
         assertEquals("payload should be the same", message.getPayload(), newMessage.getPayload());
     }
+
+    @Test
+    public void messageWriteToTest() throws IOException {
+        ObjectNode payload = Json.newObject();
+        payload.put("uri", "some_uri");
+
+        Message message = new Message(CREATE, "some_id", payload);
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        message.writeTo(buffer);
+
+        assertArrayEquals("should write the same bytes", message.toByteArray(), buffer.toByteArray());
+    }
+
+    @Test
+    public void messageStreamingDecodeTest() throws IOException {
+        String json = "{ \"payload\" : { \"uri\": \"some_uri\", \"tags\": [1, {\"a\": null}] } , " +
+                "\"extra\": [1, 2], \"type\": \"UPDATE\", \"entry_id\": \"some_id\" }";
+
+        Message message = Message.fromByteArray(json.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("type should be decoded", UPDATE, message.getType());
+        assertEquals("entry id should be decoded", "some_id", message.getEntryId());
+        assertEquals("payload should be decoded", "some_uri", message.getPayload().get("uri").asText());
+        assertEquals("payload should be complete", 2, message.getPayload().get("tags").size());
+    }
+
+    @Test
+    public void messageReencodeWithoutDecodingPayloadTest() throws IOException {
+        ObjectNode payload = Json.newObject();
+        payload.put("uri", "some_uri");
+        payload.putArray("tags").add("a").add("b");
+
+        Message received = Message.fromByteArray(new Message(CREATE, "some_id", payload).toByteArray());
+        Message forwarded = Message.fromByteArray(received.toByteArray());
+
+        assertEquals("payload should survive being copied", payload, forwarded.getPayload());
+    }
+
+    @Test
+    public void messageToStringDoesNotDecodeTest() throws IOException {
+        ObjectNode payload = Json.newObject();
+        payload.put("uri", "some_uri");
+
+        Message received = Message.fromByteArray(new Message(CREATE, "some_id", payload).toByteArray());
+        assertFalse("logging should not decode the payload", received.toString().contains("some_uri"));
+
+        received.getPayload();
+        assertTrue("a decoded payload should be shown", received.toString().contains("some_uri"));
+    }
+
+    @Test
+    public void messageNullPayloadTest() throws IOException {
+        Message message = Message.fromByteArray(new Message(CREATE, "some_id", null).toByteArray());
+
+        assertEquals("should exactly the same message", new Message(CREATE, "some_id", null), message);
+        assertNull("payload should be null", message.getPayload());
+    }
+
+    @Test
+    public void messageSmileCodecTest() throws IOException {
+        ObjectNode payload = Json.newObject();
+        payload.put("uri", "some_uri");
+
+        Message message = new Message(CREATE, "some_id", payload);
+        byte[] body = message.toByteArray(SmileMessageCodec.getInstance());
+        Message newMessage = Message.fromByteArray(body, SmileMessageCodec.CONTENT_TYPE);
+
+        assertEquals("should exactly the same message", message, newMessage);
+        assertEquals("payload should be the same", message.getPayload(), newMessage.getPayload());
+    }
+
+    @Test
+    public void messageVersionTest() throws IOException {
+        Message message = new Message(UPDATE, "some_id", Json.newObject(), 42L);
+
+        assertEquals("version should survive json", 42L, Message.fromByteArray(message.toByteArray()).getVersion());
+        assertEquals("version should survive smile", 42L, Message.fromByteArray(
+                message.toByteArray(SmileMessageCodec.getInstance()), SmileMessageCodec.CONTENT_TYPE).getVersion());
+        assertEquals("messages without a version should be decoded without one", Message.NO_VERSION,
+                Message.fromByteArray(new Message(UPDATE, "some_id", null).toByteArray()).getVersion());
+        assertFalse("no version should not be encoded",
+                new String(new Message(UPDATE, "some_id", null).toByteArray(), StandardCharsets.UTF_8)
+                        .contains(Message.VERSION));
+    }
+
+    @Test
+    public void messageUnknownContentTypeTest() throws IOException {
+        Message message = new Message(CREATE, "some_id", Json.newObject());
+
+        assertEquals("missing content type should be decoded as json",
+                message, Message.fromByteArray(message.toByteArray(), null));
+        assertEquals("unknown content type should be decoded as json",
+                message, Message.fromByteArray(message.toByteArray(), "application/text"));
+    }
+
+    @Test
+    public void priorityTest() {
+        assertTrue("deletions should go ahead of creations", DELETE.priority > CREATE.priority);
+        assertEquals("creations and updates should keep their order", CREATE.priority, UPDATE.priority);
+        for (Message.MessageType type : Message.MessageType.values()) {
+            assertTrue("priority should fit the queue", type.priority <= Message.MessageType.MAX_PRIORITY);
+        }
+    }
 }
@@ -0,0 +1,59 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionRingTests {
+
+    @Test
+    public void stableTest() {
+        PartitionRing ring = new PartitionRing(8);
+        PartitionRing other = new PartitionRing(8);
+
+        for (int i = 0; i < 1000; i++) {
+            int partition = ring.partitionOf("entry_" + i);
+            assertTrue(partition >= 0 && partition < 8);
+            assertEquals("every producer routes an entry to the same partition",
+                    partition, other.partitionOf("entry_" + i));
+        }
+    }
+
+    @Test
+    public void spreadTest() {
+        int partitions = 8;
+        int entries = 80000;
+        PartitionRing ring = new PartitionRing(partitions);
+
+        int[] counts = new int[partitions];
+        for (int i = 0; i < entries; i++) {
+            counts[ring.partitionOf("entry_" + i)]++;
+        }
+
+        int mean = entries / partitions;
+        for (int count : counts) {
+            assertTrue("partition holds " + count + " entries", count > mean / 2 && count < mean * 3 / 2);
+        }
+    }
+
+    @Test
+    public void resizeTest() {
+        int entries = 10000;
+        PartitionRing before = new PartitionRing(8);
+        PartitionRing after = new PartitionRing(9);
+
+        int moved = 0;
+        for (int i = 0; i < entries; i++) {
+            if (before.partitionOf("entry_" + i) != after.partitionOf("entry_" + i)) {
+                moved++;
+            }
+        }
+        assertTrue("only the entries of the new partition move, but " + moved + " did", moved < entries / 5);
+    }
+
+    @Test
+    public void queueTest() {
+        assertEquals("indexer.3", PartitionRing.queueOf("indexer", 3));
+    }
+}
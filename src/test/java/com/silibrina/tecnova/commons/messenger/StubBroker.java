@@ -0,0 +1,501 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Channel;
+import com.rabbitmq.client.ConfirmListener;
+import com.rabbitmq.client.Connection;
+import com.rabbitmq.client.ConnectionFactory;
+import com.rabbitmq.client.Consumer;
+import com.rabbitmq.client.Envelope;
+import com.rabbitmq.client.Recoverable;
+import com.rabbitmq.client.RecoveryListener;
+import com.rabbitmq.client.ShutdownListener;
+import com.rabbitmq.client.ShutdownSignalException;
+import com.rabbitmq.client.impl.AMQImpl;
+import com.silibrina.tecnova.commons.messenger.producer.ReplyConsumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An in-memory stand-in for RabbitMQ, so the messenger services run end to end
+ * without a broker in tests and benchmarks.
+ *
+ * Connections and channels are dynamic proxies that implement what the services use:
+ * declaring queues, publishing (with publisher confirms, acked right away), consuming,
+ * acks and rejects (their delivery tags are recorded), exclusive consumers and direct
+ * reply-to. Each queue delivers its messages in order on a thread of its own,
+ * round-robin over its consumers. Prefetch, priorities, TTLs and dead-lettering are
+ * ignored; everything else returns a default value. Connections and channels are
+ * {@link Recoverable}, so {@link #loseConnection()} and {@link #recover()} can play a
+ * network failure and the recovery of the client.
+ */
+public final class StubBroker {
+    private static final Logger logger = LoggerFactory.getLogger(StubBroker.class);
+
+    private final ConcurrentMap<String, StubQueue> queues;
+    private final AtomicInteger channelNumbers;
+    private final AtomicLong acks;
+    private final List<Long> ackedTags;
+    private final List<Long> rejectedTags;
+    private final Set<String> unreachable;
+    private volatile boolean confirming;
+    private final List<StubChannel> channels;
+    private final List<StubConnection> connections;
+
+    private StubBroker() {
+        this.queues = new ConcurrentHashMap<>();
+        this.channelNumbers = new AtomicInteger();
+        this.acks = new AtomicLong();
+        this.ackedTags = new CopyOnWriteArrayList<>();
+        this.rejectedTags = new CopyOnWriteArrayList<>();
+        this.unreachable = ConcurrentHashMap.newKeySet();
+        this.confirming = true;
+        this.channels = new CopyOnWriteArrayList<>();
+        this.connections = new CopyOnWriteArrayList<>();
+    }
+
+    /**
+     * Makes every messenger service created from now on connect to a new stub broker.
+     *
+     * @return the stub broker.
+     */
+    public static StubBroker install() {
+        StubBroker broker = new StubBroker();
+        ConnectionManager.setInstance(new ConnectionManager(new ConnectionFactory() {
+            @Override
+            public Connection newConnection() {
+                return broker.newConnection();
+            }
+        }));
+        return broker;
+    }
+
+    /**
+     * @return the number of messages acked by consumers.
+     */
+    public long getAcks() {
+        return acks.get();
+    }
+
+    /**
+     * @return the delivery tags passed to basicAck, in order.
+     */
+    public List<Long> getAckedTags() {
+        return new ArrayList<>(ackedTags);
+    }
+
+    /**
+     * @return the delivery tags passed to basicReject, in order.
+     */
+    public List<Long> getRejectedTags() {
+        return new ArrayList<>(rejectedTags);
+    }
+
+    /**
+     * Makes publishing to the given queue fail, as if the channel was lost.
+     */
+    public void failPublishesTo(String queueName) {
+        unreachable.add(queueName);
+    }
+
+    /**
+     * Makes the broker confirm publishes right away (the default) or never, so
+     * messages stay unconfirmed until the connection is lost.
+     */
+    public void setConfirming(boolean confirming) {
+        this.confirming = confirming;
+    }
+
+    /**
+     * @return the number of messages waiting in the given queue.
+     */
+    public int getDepth(String queueName) {
+        StubQueue queue = queues.get(queueName);
+        return queue != null ? queue.messages.size() : 0;
+    }
+
+    /**
+     * Drops every connection as a network failure would: connections and channels are
+     * no longer open, their consumers are shut down, and the shutdown listeners of the
+     * channels and connections are told so.
+     */
+    public void loseConnection() {
+        for (StubChannel channel : channels) {
+            channel.open = false;
+            ShutdownSignalException cause = new ShutdownSignalException(true, false, null, channel.proxy);
+            for (Subscription subscription : channel.subscriptions) {
+                getQueue(subscription.queueName).drop(subscription.tag, cause);
+                channel.lost.add(subscription);
+            }
+            channel.subscriptions.clear();
+            for (ShutdownListener listener : channel.shutdownListeners) {
+                listener.shutdownCompleted(cause);
+            }
+        }
+        for (StubConnection connection : connections) {
+            connection.open = false;
+            ShutdownSignalException cause = new ShutdownSignalException(true, false, null, connection.proxy);
+            for (ShutdownListener listener : connection.shutdownListeners) {
+                listener.shutdownCompleted(cause);
+            }
+        }
+    }
+
+    /**
+     * Recovers every connection after it was lost, in the order of the client: channels
+     * are opened again and their recovery listeners run, then queues and consumers are
+     * recovered, and the recovery listeners of the connections run last. Queues are kept
+     * by the stub broker, as if they were all durable, and delivery tags keep growing.
+     */
+    public void recover() {
+        for (StubChannel channel : channels) {
+            if (!channel.open) {
+                channel.open = true;
+                channel.publishSeqNo.set(1);
+            }
+            for (RecoveryListener listener : channel.recoveryListeners) {
+                listener.handleRecovery((Recoverable) channel.proxy);
+            }
+        }
+        for (StubChannel channel : channels) {
+            for (Subscription subscription : channel.lost) {
+                getQueue(subscription.queueName).subscribe(subscription.tag, subscription.consumer,
+                        subscription.exclusive);
+                channel.subscriptions.add(subscription);
+            }
+            channel.lost.clear();
+        }
+        for (StubConnection connection : connections) {
+            connection.open = true;
+            for (RecoveryListener listener : connection.recoveryListeners) {
+                listener.handleRecovery((Recoverable) connection.proxy);
+            }
+        }
+    }
+
+    /**
+     * Stops delivering messages of every queue.
+     */
+    public void shutdown() {
+        for (StubQueue queue : queues.values()) {
+            queue.shutdown();
+        }
+    }
+
+    private StubQueue getQueue(String queueName) {
+        return queues.computeIfAbsent(queueName, StubQueue::new);
+    }
+
+    private Connection newConnection() {
+        StubConnection connection = new StubConnection();
+        connection.proxy = proxy(Connection.class, (method, args) -> {
+            switch (method.getName()) {
+                case "createChannel":
+                    return newChannel();
+                case "isOpen":
+                    return connection.open;
+                case "addShutdownListener":
+                    connection.shutdownListeners.add((ShutdownListener) args[0]);
+                    return null;
+                case "addRecoveryListener":
+                    connection.recoveryListeners.add((RecoveryListener) args[0]);
+                    return null;
+                case "close":
+                case "abort":
+                    connection.open = false;
+                    connections.remove(connection);
+                    return null;
+                default:
+                    return null;
+            }
+        }, Recoverable.class);
+        connections.add(connection);
+        return connection.proxy;
+    }
+
+    private Channel newChannel() {
+        int number = channelNumbers.incrementAndGet();
+        String replyQueue = ReplyConsumer.REPLY_TO + "." + number;
+        List<ConfirmListener> confirmListeners = new CopyOnWriteArrayList<>();
+        StubChannel stub = new StubChannel();
+
+        stub.proxy = proxy(Channel.class, (method, args) -> {
+            switch (method.getName()) {
+                case "queueDeclare":
+                case "queueDeclarePassive":
+                    StubQueue queue = getQueue((String) args[0]);
+                    return new AMQImpl.Queue.DeclareOk(queue.name, queue.messages.size(), queue.consumers.size());
+                case "basicConsume":
+                    String queueName = (String) args[0];
+                    Consumer consumer = (Consumer) args[args.length - 1];
+                    boolean exclusive = args.length > 4 && args[4] instanceof Boolean && (Boolean) args[4];
+                    String tag = "stub-" + UUID.randomUUID();
+                    Subscription subscription = new Subscription(
+                            ReplyConsumer.REPLY_TO.equals(queueName) ? replyQueue : queueName, tag, consumer, exclusive);
+                    if (!getQueue(subscription.queueName).subscribe(tag, consumer, exclusive)) {
+                        stub.open = false;
+                        throw new IOException("ACCESS_REFUSED - queue '" + queueName + "' in exclusive use");
+                    }
+                    stub.subscriptions.add(subscription);
+                    consumer.handleConsumeOk(tag);
+                    return tag;
+                case "basicCancel":
+                    stub.subscriptions.removeIf(candidate -> candidate.tag.equals(args[0]));
+                    for (StubQueue candidate : queues.values()) {
+                        candidate.unsubscribe((String) args[0]);
+                    }
+                    return null;
+                case "basicPublish":
+                    if (unreachable.contains((String) args[1])) {
+                        throw new IOException("stub broker refused to publish to " + args[1]);
+                    }
+                    publish((String) args[1], (AMQP.BasicProperties) args[args.length - 2],
+                            (byte[]) args[args.length - 1], replyQueue);
+                    long seqNo = stub.confirm ? stub.publishSeqNo.getAndIncrement() : 0L;
+                    if (stub.confirm && confirming) {
+                        for (ConfirmListener listener : confirmListeners) {
+                            listener.handleAck(seqNo, false);
+                        }
+                    }
+                    return null;
+                case "confirmSelect":
+                    stub.confirm = true;
+                    return null;
+                case "getNextPublishSeqNo":
+                    return stub.confirm ? stub.publishSeqNo.get() : 0L;
+                case "addConfirmListener":
+                    confirmListeners.add((ConfirmListener) args[0]);
+                    return null;
+                case "addShutdownListener":
+                    stub.shutdownListeners.add((ShutdownListener) args[0]);
+                    return null;
+                case "addRecoveryListener":
+                    stub.recoveryListeners.add((RecoveryListener) args[0]);
+                    return null;
+                case "basicAck":
+                    acks.incrementAndGet();
+                    ackedTags.add((Long) args[0]);
+                    return null;
+                case "basicReject":
+                    rejectedTags.add((Long) args[0]);
+                    return null;
+                case "getChannelNumber":
+                    return number;
+                case "isOpen":
+                    return stub.open;
+                case "close":
+                case "abort":
+                    stub.open = false;
+                    channels.remove(stub);
+                    ShutdownSignalException closed = new ShutdownSignalException(false, true, null, stub.proxy);
+                    for (Subscription dropped : stub.subscriptions) {
+                        getQueue(dropped.queueName).drop(dropped.tag, closed);
+                    }
+                    stub.subscriptions.clear();
+                    return null;
+                default:
+                    return null;
+            }
+        }, Recoverable.class);
+        channels.add(stub);
+        return stub.proxy;
+    }
+
+    /**
+     * Routes a message to its queue. Sync publishes ask for an answer on
+     * {@link ReplyConsumer#REPLY_TO}, which is replaced by a queue of the publishing
+     * channel, as RabbitMQ does with direct reply-to. Like RabbitMQ, they are refused
+     * while the channel does not consume that queue.
+     */
+    private void publish(String routingKey, AMQP.BasicProperties properties, byte[] body, String replyQueue)
+            throws IOException {
+        if (properties != null && ReplyConsumer.REPLY_TO.equals(properties.getReplyTo())) {
+            StubQueue replies = queues.get(replyQueue);
+            if (replies == null || replies.consumers.isEmpty()) {
+                throw new IOException("PRECONDITION_FAILED - fast reply consumer does not exist");
+            }
+            properties = properties.builder().replyTo(replyQueue).build();
+        }
+        getQueue(routingKey).messages.offer(new Object[]{properties, body});
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler, Class<?>... others) {
+        Class<?>[] types = new Class<?>[others.length + 1];
+        types[0] = type;
+        System.arraycopy(others, 0, types, 1, others.length);
+        return (T) Proxy.newProxyInstance(StubBroker.class.getClassLoader(), types,
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return "Stub" + type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                        default:
+                            Object result = handler.invoke(method, args != null ? args : new Object[0]);
+                            return result != null ? result : defaultValue(method.getReturnType());
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class) {
+            return false;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type.isPrimitive() && type != void.class) {
+            throw new UnsupportedOperationException("no default value for " + type);
+        }
+        return null;
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args) throws Exception;
+    }
+
+    private static final class StubConnection {
+        private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+        private final List<RecoveryListener> recoveryListeners = new CopyOnWriteArrayList<>();
+        private volatile boolean open = true;
+        private Connection proxy;
+    }
+
+    private static final class StubChannel {
+        private final List<ShutdownListener> shutdownListeners = new CopyOnWriteArrayList<>();
+        private final List<RecoveryListener> recoveryListeners = new CopyOnWriteArrayList<>();
+        private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+        private final List<Subscription> lost = new CopyOnWriteArrayList<>();
+        private final AtomicLong publishSeqNo = new AtomicLong(1);
+        private volatile boolean open = true;
+        private volatile boolean confirm;
+        private Channel proxy;
+    }
+
+    /**
+     * A consumer of a channel, kept so it can be subscribed again once the channel is recovered.
+     */
+    private static final class Subscription {
+        private final String queueName;
+        private final String tag;
+        private final Consumer consumer;
+        private final boolean exclusive;
+
+        private Subscription(String queueName, String tag, Consumer consumer, boolean exclusive) {
+            this.queueName = queueName;
+            this.tag = tag;
+            this.consumer = consumer;
+            this.exclusive = exclusive;
+        }
+    }
+
+    /**
+     * A queue, delivering its messages in order on its own thread.
+     */
+    private final class StubQueue implements Runnable {
+        private final String name;
+        private final BlockingQueue<Object[]> messages;
+        private final Map<String, Consumer> consumers;
+        private final AtomicLong deliveryTags;
+        private final Thread deliverer;
+        private boolean exclusive;
+
+        private StubQueue(String name) {
+            this.name = name;
+            this.messages = new LinkedBlockingQueue<>();
+            this.consumers = new ConcurrentHashMap<>();
+            this.deliveryTags = new AtomicLong();
+            this.deliverer = new Thread(this, "stub-broker-" + name);
+            this.deliverer.setDaemon(true);
+        }
+
+        /**
+         * @return false if the queue is consumed exclusively, or if an exclusive consumer
+         *          asked for a queue that already has consumers.
+         */
+        private synchronized boolean subscribe(String tag, Consumer consumer, boolean exclusive) {
+            if (this.exclusive || (exclusive && !consumers.isEmpty())) {
+                return false;
+            }
+
+            this.exclusive = exclusive;
+            consumers.put(tag, consumer);
+            if (!deliverer.isAlive()) {
+                deliverer.start();
+            }
+            return true;
+        }
+
+        /**
+         * Removes a consumer whose channel was closed.
+         */
+        private synchronized void drop(String tag, ShutdownSignalException cause) {
+            Consumer consumer = consumers.remove(tag);
+            if (consumer != null) {
+                exclusive = false;
+                consumer.handleShutdownSignal(tag, cause);
+            }
+        }
+
+        private synchronized void unsubscribe(String tag) {
+            Consumer consumer = consumers.remove(tag);
+            if (consumer != null) {
+                exclusive = false;
+                consumer.handleCancelOk(tag);
+            }
+        }
+
+        @Override
+        public void run() {
+            long round = 0;
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Object[] message = messages.take();
+                    List<Map.Entry<String, Consumer>> subscribed = new ArrayList<>(consumers.entrySet());
+                    if (subscribed.isEmpty()) {
+                        messages.offer(message);
+                        Thread.sleep(1);
+                        continue;
+                    }
+
+                    Map.Entry<String, Consumer> consumer = subscribed.get((int) (round++ % subscribed.size()));
+                    Envelope envelope = new Envelope(deliveryTags.incrementAndGet(), false, "", name);
+                    deliver(consumer.getValue(), consumer.getKey(), envelope, message);
+                }
+            } catch (InterruptedException e) {
+                logger.debug("stub queue {} stopped", name);
+            }
+        }
+
+        private void deliver(Consumer consumer, String tag, Envelope envelope, Object[] message) {
+            try {
+                consumer.handleDelivery(tag, envelope, (AMQP.BasicProperties) message[0], (byte[]) message[1]);
+            } catch (Exception e) {
+                logger.error("consumer of stub queue {} failed", name, e);
+            }
+        }
+
+        private void shutdown() {
+            deliverer.interrupt();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.silibrina.tecnova.commons.messenger;
+
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TimeoutSchedulerTests {
+
+    @Test
+    public void completeOnTimeoutTest() {
+        CompletableFuture<Integer> future = TimeoutScheduler.completeOnTimeout(new CompletableFuture<>(),
+                MessageStatus.UNDEFINED_STATUS.status, 10, TimeUnit.MILLISECONDS);
+
+        assertEquals("future should complete with the fallback value",
+                MessageStatus.UNDEFINED_STATUS.status, (int) future.join());
+    }
+
+    @Test
+    public void completeBeforeTimeoutTest() throws InterruptedException {
+        CompletableFuture<Integer> future = TimeoutScheduler.completeOnTimeout(new CompletableFuture<>(),
+                MessageStatus.UNDEFINED_STATUS.status, 50, TimeUnit.MILLISECONDS);
+
+        future.complete(1);
+        Thread.sleep(100);
+
+        assertEquals("future should keep its own value", 1, (int) future.join());
+    }
+}
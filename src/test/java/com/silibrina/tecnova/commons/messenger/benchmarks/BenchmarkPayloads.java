@@ -0,0 +1,66 @@
+package com.silibrina.tecnova.commons.messenger.benchmarks;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.silibrina.tecnova.commons.messenger.Message;
+
+import java.util.Random;
+
+/**
+ * Payloads shaped like the metadata of an entry, used by the benchmarks.
+ */
+public final class BenchmarkPayloads {
+    private static final long SEED = 42L;
+
+    private BenchmarkPayloads() {
+    }
+
+    public enum Size {
+        // a handful of fields, as in DELETE messages
+        SMALL(0, 0),
+        // the metadata of a typical entry
+        MEDIUM(40, 0),
+        // metadata plus the text extracted from a document
+        LARGE(40, 256 * 1024);
+
+        private final int fields;
+        private final int contentLength;
+
+        Size(int fields, int contentLength) {
+            this.fields = fields;
+            this.contentLength = contentLength;
+        }
+    }
+
+    static ObjectNode newPayload(Size size) {
+        Random random = new Random(SEED);
+        ObjectNode payload = JsonNodeFactory.instance.objectNode();
+        payload.put("title", "entry title");
+        payload.put("author", "someone");
+        payload.put("version", 1);
+
+        for (int i = 0; i < size.fields; i++) {
+            payload.put("field_" + i, Long.toHexString(random.nextLong()));
+        }
+        if (size.fields > 0) {
+            ArrayNode keywords = payload.putArray("keywords");
+            for (int i = 0; i < size.fields / 4; i++) {
+                keywords.add("keyword_" + i);
+            }
+        }
+
+        if (size.contentLength > 0) {
+            StringBuilder content = new StringBuilder(size.contentLength);
+            while (content.length() < size.contentLength) {
+                content.append("word").append(random.nextInt(10000)).append(' ');
+            }
+            payload.put("content", content.toString());
+        }
+        return payload;
+    }
+
+    static Message newMessage(Size size, String entryId) {
+        return new Message(Message.MessageType.UPDATE, entryId, newPayload(size));
+    }
+}
@@ -0,0 +1,85 @@
+package com.silibrina.tecnova.commons.messenger.benchmarks;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import com.silibrina.tecnova.commons.messenger.JsonMessageCodec;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessageCodec;
+import com.silibrina.tecnova.commons.messenger.SmileMessageCodec;
+import com.silibrina.tecnova.commons.messenger.StubBroker;
+import com.silibrina.tecnova.commons.messenger.consumer.MessageConsumer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The path of a delivery through {@link MessageConsumer#handleDelivery}: decompressing,
+ * decoding, dispatching to the handler and acking, on a channel of the {@link StubBroker}.
+ * The handler does nothing, so only the overhead of the consumer is measured.
+ *
+ * The consumer is configured as usual (rabbitmq section), e.g. with
+ * {@code -Drabbitmq.consumer.dedup.enabled=true} or {@code -Drabbitmq.metrics.enabled=true}
+ * to measure what those features cost. Only the inline mode handles messages on the
+ * calling thread, so other modes only measure the hand-off.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Dconfig.resource=default.conf")
+public class ConsumerDispatchBenchmark {
+    private static final String QUEUE = "benchmark-dispatch";
+
+    @Param({"SMALL", "MEDIUM"})
+    public BenchmarkPayloads.Size size;
+
+    @Param({"json", "smile"})
+    public String codec;
+
+    private StubBroker broker;
+    private MessageConsumer consumer;
+    private AMQP.BasicProperties properties;
+    private byte[] body;
+    private long deliveryTag;
+
+    @Setup
+    public void setUp() throws IOException, TimeoutException {
+        broker = StubBroker.install();
+        consumer = new MessageConsumer(QUEUE) {
+            @Override
+            public int handle(Message message) throws Exception {
+                return 0;
+            }
+        };
+
+        MessageCodec messageCodec = "smile".equals(codec) ? SmileMessageCodec.getInstance() : JsonMessageCodec.getInstance();
+        body = BenchmarkPayloads.newMessage(size, "benchmark_entry").toByteArray(messageCodec);
+        properties = new AMQP.BasicProperties().builder().contentType(messageCodec.getContentType()).build();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        consumer.close();
+        broker.shutdown();
+    }
+
+    @Benchmark
+    public void handleDelivery() throws IOException {
+        Envelope envelope = new Envelope(++deliveryTag, false, "", QUEUE);
+        consumer.handleDelivery("benchmark", envelope, properties, body);
+    }
+}
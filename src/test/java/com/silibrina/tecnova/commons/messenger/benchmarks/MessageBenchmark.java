@@ -0,0 +1,68 @@
+package com.silibrina.tecnova.commons.messenger.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.silibrina.tecnova.commons.messenger.JsonMessageCodec;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessageCodec;
+import com.silibrina.tecnova.commons.messenger.SmileMessageCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding and decoding of messages, by codec and payload size.
+ *
+ * {@code fromByteArray} only decodes the envelope of the message, since payloads are
+ * decoded lazily; {@code fromByteArrayWithPayload} decodes the payload too.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageBenchmark {
+
+    @Param({"SMALL", "MEDIUM", "LARGE"})
+    public BenchmarkPayloads.Size size;
+
+    @Param({"json", "smile"})
+    public String codec;
+
+    private Message message;
+    private MessageCodec messageCodec;
+    private byte[] encoded;
+
+    @Setup
+    public void setUp() throws IOException {
+        messageCodec = "smile".equals(codec) ? SmileMessageCodec.getInstance() : JsonMessageCodec.getInstance();
+        message = BenchmarkPayloads.newMessage(size, "benchmark_entry");
+        encoded = message.toByteArray(messageCodec);
+    }
+
+    @Benchmark
+    public byte[] toByteArray() throws IOException {
+        return message.toByteArray(messageCodec);
+    }
+
+    @Benchmark
+    public Message fromByteArray() throws IOException {
+        return Message.fromByteArray(encoded, messageCodec.getContentType());
+    }
+
+    @Benchmark
+    public JsonNode fromByteArrayWithPayload() throws IOException {
+        return Message.fromByteArray(encoded, messageCodec.getContentType()).getPayload();
+    }
+}
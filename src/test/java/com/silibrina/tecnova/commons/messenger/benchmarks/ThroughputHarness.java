@@ -0,0 +1,138 @@
+package com.silibrina.tecnova.commons.messenger.benchmarks;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.StubBroker;
+import com.silibrina.tecnova.commons.messenger.Transport;
+import com.silibrina.tecnova.commons.messenger.consumer.ConsumerService;
+import com.silibrina.tecnova.commons.messenger.consumer.ConsumerServiceFactory;
+import com.silibrina.tecnova.commons.messenger.metrics.LatencyHistogram;
+import com.silibrina.tecnova.commons.messenger.producer.ProducerService;
+import com.silibrina.tecnova.commons.messenger.producer.ProducerServiceFactory;
+import com.typesafe.config.ConfigFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Drives messages from producers to a consumer for a sustained period and reports the
+ * throughput and the latency between publish and handling.
+ *
+ * Services are created by the factories, so the configuration decides what is measured
+ * (codec, confirms, consumer mode, coalescing...). With rabbitmq.transport set to
+ * "rabbitmq" they talk to an in-memory {@link StubBroker}, otherwise to the embedded bus.
+ *
+ * Usage: {@code ThroughputHarness [messages] [SMALL|MEDIUM|LARGE] [producer threads]}, e.g.
+ * {@code sbt "test:runMain com.silibrina.tecnova.commons.messenger.benchmarks.ThroughputHarness 200000 MEDIUM 4"}.
+ */
+public final class ThroughputHarness {
+    private static final String QUEUE = "benchmark-throughput";
+    private static final String SENT_AT = "sent_at";
+    private static final long TIMEOUT_MINUTES = 10L;
+
+    private final int producers;
+    private final ObjectNode payload;
+    private final ProducerService producer;
+    private final ConsumerService consumer;
+
+    private volatile Run run;
+
+    private ThroughputHarness(int producers, BenchmarkPayloads.Size size) throws Exception {
+        this.producers = producers;
+        this.payload = BenchmarkPayloads.newPayload(size);
+        this.producer = ProducerServiceFactory.getProducerService(QUEUE, false);
+        this.consumer = ConsumerServiceFactory.getConsumerService(QUEUE, message -> {
+            Run current = run;
+            current.latency.record(System.nanoTime() - message.getPayload().get(SENT_AT).asLong());
+            current.handled.countDown();
+            return 0;
+        });
+        this.consumer.start();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int messages = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        BenchmarkPayloads.Size size = args.length > 1 ?
+                BenchmarkPayloads.Size.valueOf(args[1].toUpperCase()) : BenchmarkPayloads.Size.MEDIUM;
+        int producers = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+
+        Transport transport = Transport.fromConfig(ConfigFactory.load());
+        StubBroker broker = transport == Transport.RABBITMQ ? StubBroker.install() : null;
+
+        ThroughputHarness harness = new ThroughputHarness(producers, size);
+        try {
+            System.out.printf(Locale.ROOT, "transport: %s, messages: %d, payload: %s, producers: %d%n",
+                    transport, messages, size, producers);
+            harness.run(Math.max(1, messages / 10)).print("warm-up");
+            harness.run(messages).print("measured");
+        } finally {
+            harness.producer.close();
+            harness.consumer.close();
+            if (broker != null) {
+                broker.shutdown();
+            }
+        }
+    }
+
+    private Run run(int messages) throws Exception {
+        Run current = new Run(messages);
+        run = current;
+
+        AtomicReference<Exception> failure = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>(producers);
+        long start = System.nanoTime();
+        for (int p = 0; p < producers; p++) {
+            int first = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = first; i < messages; i += producers) {
+                        ObjectNode body = payload.deepCopy();
+                        body.put(SENT_AT, System.nanoTime());
+                        producer.publish(new Message(Message.MessageType.UPDATE, "entry_" + i, body));
+                    }
+                } catch (Exception e) {
+                    failure.compareAndSet(null, e);
+                }
+            }, "harness-producer-" + p);
+            thread.start();
+            threads.add(thread);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        if (!current.handled.await(TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+            throw new IllegalStateException(current.handled.getCount() + " messages were not handled in time");
+        }
+        current.elapsed = System.nanoTime() - start;
+        return current;
+    }
+
+    private static final class Run {
+        private final int messages;
+        private final CountDownLatch handled;
+        private final LatencyHistogram latency;
+        private long elapsed;
+
+        private Run(int messages) {
+            this.messages = messages;
+            this.handled = new CountDownLatch(messages);
+            this.latency = new LatencyHistogram();
+        }
+
+        private void print(String name) {
+            LatencyHistogram.Snapshot snapshot = latency.snapshot();
+            double seconds = elapsed / 1e9;
+            System.out.printf(Locale.ROOT, "%-8s %10.0f msg/s  p50 %8.3f ms  p99 %8.3f ms  max %8.3f ms%n",
+                    name, messages / seconds, snapshot.getPercentile(0.5), snapshot.getPercentile(0.99),
+                    snapshot.getMax());
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AdaptivePrefetchTests {
+    private static final long INTERVAL = 1000;
+    private static final long MILLIS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void starvedConsumerGrowsTest() {
+        AtomicLong now = new AtomicLong();
+        List<Integer> updates = new ArrayList<>();
+        AdaptivePrefetch prefetch = new AdaptivePrefetch("queue", 2, 16, 2, 100, INTERVAL,
+                updates::add, now::get);
+
+        for (int window = 0; window < 4; window++) {
+            // the broker hands out exactly the prefetch, and the workers drain it completely
+            for (int i = 0; i < prefetch.getPrefetch(); i++) {
+                prefetch.received();
+            }
+            now.addAndGet(INTERVAL * MILLIS);
+            for (int i = 0; i < prefetch.getPrefetch(); i++) {
+                prefetch.completed(1, MILLIS);
+            }
+        }
+
+        assertEquals("prefetch should double until the upper bound", Arrays.asList(4, 8, 16), updates);
+        assertEquals(16, prefetch.getPrefetch());
+    }
+
+    @Test
+    public void queueingConsumerShrinksTest() {
+        AtomicLong now = new AtomicLong();
+        List<Integer> updates = new ArrayList<>();
+        AdaptivePrefetch prefetch = new AdaptivePrefetch("queue", 1, 64, 1, 100, INTERVAL,
+                updates::add, now::get);
+        grow(prefetch, now, 64);
+        updates.clear();
+
+        // 50 ms per message with about 40 waiting locally: messages wait about 2 seconds
+        for (int i = 0; i < 64; i++) {
+            prefetch.received();
+        }
+        now.addAndGet(INTERVAL * MILLIS);
+        prefetch.completed(1, 50 * MILLIS);
+        for (int i = 0; i < 20; i++) {
+            prefetch.completed(1, 50 * MILLIS);
+        }
+        now.addAndGet(INTERVAL * MILLIS);
+        prefetch.completed(1, 50 * MILLIS);
+
+        assertEquals("prefetch should shrink once", 1, updates.size());
+        assertTrue("prefetch should cover about 100 ms of work", updates.get(0) >= 2 && updates.get(0) <= 4);
+    }
+
+    @Test
+    public void noChangeWithinIntervalTest() {
+        AtomicLong now = new AtomicLong();
+        List<Integer> updates = new ArrayList<>();
+        AdaptivePrefetch prefetch = new AdaptivePrefetch("queue", 1, 64, 1, 100, INTERVAL,
+                updates::add, now::get);
+
+        prefetch.received();
+        now.addAndGet((INTERVAL - 1) * MILLIS);
+        prefetch.completed(1, MILLIS);
+
+        assertTrue("no update should happen before the interval elapses", updates.isEmpty());
+        assertEquals(1, prefetch.getPrefetch());
+    }
+
+    private static void grow(AdaptivePrefetch prefetch, AtomicLong now, int target) {
+        while (prefetch.getPrefetch() < target) {
+            int current = prefetch.getPrefetch();
+            for (int i = 0; i < current; i++) {
+                prefetch.received();
+            }
+            now.addAndGet(INTERVAL * MILLIS);
+            for (int i = 0; i < current; i++) {
+                prefetch.completed(1, MILLIS);
+            }
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class DeduplicationCacheTests {
+    private static final Envelope FIRST_DELIVERY = new Envelope(1, false, "", "queue");
+    private static final Envelope REDELIVERY = new Envelope(2, true, "", "queue");
+
+    @Test
+    public void identifiedDuplicateTest() {
+        DeduplicationCache cache = new DeduplicationCache(10, 1000);
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder().messageId("id-1").build();
+        String key = DeduplicationCache.keyOf(properties, body("a"));
+
+        assertNull("unknown message should be handled", cache.lookup(key, FIRST_DELIVERY, properties));
+        cache.record(key, 0);
+
+        assertEquals("duplicate should get the earlier status",
+                0, (int) cache.lookup(key, FIRST_DELIVERY, properties));
+        assertEquals(1, cache.getSkipped());
+    }
+
+    @Test
+    public void hashedDuplicateOnlyOnRedeliveryTest() {
+        DeduplicationCache cache = new DeduplicationCache(10, 1000);
+        AMQP.BasicProperties properties = new AMQP.BasicProperties();
+        String key = DeduplicationCache.keyOf(properties, body("a"));
+        cache.record(key, 0);
+
+        assertEquals(key, DeduplicationCache.keyOf(properties, body("a")));
+        assertNotEquals(key, DeduplicationCache.keyOf(properties, body("b")));
+        assertNull("same content in a new message should be handled",
+                cache.lookup(key, FIRST_DELIVERY, properties));
+        assertEquals("redelivered content should be skipped",
+                0, (int) cache.lookup(key, REDELIVERY, properties));
+    }
+
+    @Test
+    public void expirationTest() {
+        AtomicLong now = new AtomicLong();
+        DeduplicationCache cache = new DeduplicationCache(10, 1000, now::get);
+        cache.record("id-1", 0);
+
+        now.set(999);
+        assertEquals(0, (int) cache.lookup("id-1", REDELIVERY, null));
+
+        now.set(1000);
+        assertNull("expired message should be handled again", cache.lookup("id-1", REDELIVERY, null));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void boundedSizeTest() {
+        DeduplicationCache cache = new DeduplicationCache(2, 1000);
+        cache.record("id-1", 0);
+        cache.record("id-2", 0);
+        cache.record("id-3", 0);
+
+        assertEquals(2, cache.size());
+        assertNull("eldest message should be evicted", cache.lookup("id-1", REDELIVERY, null));
+        assertEquals(0, (int) cache.lookup("id-3", REDELIVERY, null));
+    }
+
+    private static byte[] body(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,69 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import com.silibrina.tecnova.commons.messenger.Message;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.CREATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+public class DeliveryBatcherTests {
+
+    @Test
+    public void flushOnSizeTest() throws InterruptedException {
+        BlockingQueue<List<Delivery>> batches = new LinkedBlockingQueue<>();
+        DeliveryBatcher batcher = new DeliveryBatcher(3, 60000, "test", batches::add);
+
+        for (int i = 1; i <= 7; i++) {
+            batcher.add(delivery(i));
+        }
+
+        assertBatch(batches.poll(5, TimeUnit.SECONDS), 1, 3);
+        assertBatch(batches.poll(5, TimeUnit.SECONDS), 4, 6);
+        assertNull("incomplete batch should wait", batches.poll(100, TimeUnit.MILLISECONDS));
+
+        batcher.shutdown();
+        assertBatch(batches.poll(5, TimeUnit.SECONDS), 7, 7);
+    }
+
+    @Test
+    public void flushOnTimeoutTest() throws InterruptedException {
+        BlockingQueue<List<Delivery>> batches = new LinkedBlockingQueue<>();
+        DeliveryBatcher batcher = new DeliveryBatcher(100, 50, "test", batches::add);
+
+        batcher.add(delivery(1));
+        batcher.add(delivery(2));
+
+        assertBatch(batches.poll(5, TimeUnit.SECONDS), 1, 2);
+        batcher.shutdown();
+    }
+
+    @Test(expected = RejectedExecutionException.class)
+    public void addAfterShutdownTest() {
+        DeliveryBatcher batcher = new DeliveryBatcher(100, 50, "test", batch -> { });
+        batcher.shutdown();
+
+        batcher.add(delivery(1));
+    }
+
+    private void assertBatch(List<Delivery> batch, long firstTag, long lastTag) {
+        assertNotNull("batch should be handed out", batch);
+        assertEquals("batch should have the expected size", lastTag - firstTag + 1, batch.size());
+        assertEquals("batch should start at the expected tag", firstTag, batch.get(0).getDeliveryTag());
+        assertEquals("batch should end at the expected tag", lastTag, batch.get(batch.size() - 1).getDeliveryTag());
+    }
+
+    private Delivery delivery(long tag) {
+        return new Delivery(new Envelope(tag, false, "", "queue"), new AMQP.BasicProperties(),
+                new Message(CREATE, "some_id_" + tag, null));
+    }
+}
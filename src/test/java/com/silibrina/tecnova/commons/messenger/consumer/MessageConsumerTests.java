@@ -0,0 +1,232 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import com.silibrina.tecnova.commons.messenger.StubBroker;
+import com.silibrina.tecnova.commons.messenger.producer.SimpleProducerService;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.CREATE;
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.DELETE;
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.UPDATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageConsumerTests {
+    private StubBroker broker;
+
+    @Before
+    public void setUp() {
+        broker = StubBroker.install();
+    }
+
+    @After
+    public void cleanUp() {
+        broker.shutdown();
+        System.clearProperty("rabbitmq.consumer.drain_timeout");
+        System.clearProperty("rabbitmq.consumer.versions.enabled");
+        System.clearProperty("rabbitmq.consumer.mode");
+        System.clearProperty("rabbitmq.consumer.batch.size");
+        System.clearProperty("rabbitmq.consumer.retry.enabled");
+        ConfigFactory.invalidateCaches();
+    }
+
+    @Test
+    public void drainTest() throws Exception {
+        String queue = newQueueName();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MessageConsumer consumer = newBlockingConsumer(queue, started, release);
+        consumer.start();
+
+        SimpleProducerService producer = new SimpleProducerService(queue, false);
+        producer.publish(new Message(UPDATE, "first", JsonNodeFactory.instance.objectNode()));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            release.countDown();
+        }).start();
+        consumer.close();
+
+        assertEquals("the message being handled should finish before closing", 1, consumer.getDrained());
+        assertEquals(0, consumer.getAbandoned());
+        assertEquals(1, broker.getAcks());
+        producer.close();
+    }
+
+    @Test
+    public void abandonTest() throws Exception {
+        System.setProperty("rabbitmq.consumer.drain_timeout", "100");
+        ConfigFactory.invalidateCaches();
+
+        String queue = newQueueName();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        MessageConsumer consumer = newBlockingConsumer(queue, started, release);
+        consumer.start();
+
+        SimpleProducerService producer = new SimpleProducerService(queue, false);
+        producer.publish(new Message(UPDATE, "first", JsonNodeFactory.instance.objectNode()));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        consumer.close();
+
+        assertEquals(0, consumer.getDrained());
+        assertEquals("a message still being handled after the timeout is abandoned", 1, consumer.getAbandoned());
+        assertEquals(0, broker.getAcks());
+        release.countDown();
+        producer.close();
+    }
+
+    @Test
+    public void supersededTest() throws Exception {
+        System.setProperty("rabbitmq.consumer.versions.enabled", "true");
+        ConfigFactory.invalidateCaches();
+
+        String queue = newQueueName();
+        List<Message> handled = new CopyOnWriteArrayList<>();
+        MessageConsumer consumer = new MessageConsumer(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                handled.add(message);
+                return 0;
+            }
+        };
+        consumer.start();
+
+        SimpleProducerService producer = new SimpleProducerService(queue, false);
+        producer.publish(new Message(DELETE, "entry", null, 2L));
+        producer.publish(new Message(CREATE, "entry", null, 1L));
+        producer.publish(new Message(CREATE, "entry", null));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (broker.getAcks() < 3 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        consumer.close();
+
+        assertEquals("every message should be acked", 3, broker.getAcks());
+        assertEquals("a create overtaken by its delete should be skipped", 2, handled.size());
+        assertEquals(DELETE, handled.get(0).getType());
+        assertEquals(1, consumer.getSkippedSuperseded());
+        producer.close();
+    }
+
+    @Test
+    public void recoveryTest() throws Exception {
+        System.setProperty("rabbitmq.consumer.mode", "virtual");
+        ConfigFactory.invalidateCaches();
+
+        String queue = newQueueName();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch handled = new CountDownLatch(2);
+        MessageConsumer consumer = new MessageConsumer(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                if ("first".equals(message.getEntryId())) {
+                    started.countDown();
+                    release.await();
+                }
+                handled.countDown();
+                return 0;
+            }
+        };
+        consumer.start();
+
+        SimpleProducerService producer = new SimpleProducerService(queue, false);
+        producer.publish(new Message(UPDATE, "first", JsonNodeFactory.instance.objectNode()));
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+
+        broker.recover();
+        assertEquals("the message being handled should be abandoned", 1, consumer.getAbandoned());
+
+        release.countDown();
+        producer.publish(new Message(UPDATE, "second", JsonNodeFactory.instance.objectNode()));
+        assertTrue(handled.await(10, TimeUnit.SECONDS));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (broker.getAcks() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        consumer.close();
+        assertEquals("only the message received after the recovery should be acked", 1, broker.getAcks());
+        assertEquals("abandoned work should not be waited for", 0, consumer.getDrained());
+        producer.close();
+    }
+
+    @Test
+    public void batchTest() throws Exception {
+        System.setProperty("rabbitmq.consumer.mode", "batch");
+        System.setProperty("rabbitmq.consumer.batch.size", "3");
+        System.setProperty("rabbitmq.consumer.retry.enabled", "true");
+        ConfigFactory.invalidateCaches();
+
+        String queue = newQueueName();
+        List<List<Message>> batches = new CopyOnWriteArrayList<>();
+        MessageConsumer consumer = new MessageConsumer(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                throw new UnsupportedOperationException("messages should be handled in batches");
+            }
+
+            @Override
+            public List<Integer> handleBatch(List<Message> messages) throws Exception {
+                batches.add(messages);
+                return Arrays.asList(0, MessageStatus.IO_ERROR.status, 0);
+            }
+        };
+        broker.failPublishesTo(queue + ".retry.1");
+        consumer.start();
+
+        SimpleProducerService producer = new SimpleProducerService(queue, false);
+        producer.publish(new Message(UPDATE, "first", JsonNodeFactory.instance.objectNode()));
+        producer.publish(new Message(UPDATE, "second", JsonNodeFactory.instance.objectNode()));
+        producer.publish(new Message(UPDATE, "third", JsonNodeFactory.instance.objectNode()));
+        long deadline = System.currentTimeMillis() + 10000;
+        while (broker.getAcks() < 1 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        consumer.close();
+
+        assertEquals("the messages should be handled in a single batch", 1, batches.size());
+        assertEquals(3, batches.get(0).size());
+        assertEquals("the message that could not be retried should be given back",
+                Collections.singletonList(2L), broker.getRejectedTags());
+        assertEquals("the batch should be acked at once, past the rejected message",
+                Collections.singletonList(3L), broker.getAckedTags());
+        producer.close();
+    }
+
+    private static MessageConsumer newBlockingConsumer(String queue, CountDownLatch started,
+                                                       CountDownLatch release) throws Exception {
+        return new MessageConsumer(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                started.countDown();
+                release.await();
+                return 0;
+            }
+        };
+    }
+
+    private static String newQueueName() {
+        return "consumer-test-" + UUID.randomUUID();
+    }
+}
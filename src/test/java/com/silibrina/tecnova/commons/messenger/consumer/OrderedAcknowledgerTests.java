@@ -0,0 +1,98 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class OrderedAcknowledgerTests {
+
+    @Test
+    public void inOrderTest() throws IOException {
+        List<Long> acks = new ArrayList<>();
+        OrderedAcknowledger acknowledger = new OrderedAcknowledger((deliveryTag, multiple) -> acks.add(deliveryTag));
+
+        acknowledger.ack(1);
+        acknowledger.ack(2);
+
+        assertEquals(Arrays.asList(1L, 2L), acks);
+        assertEquals(0, acknowledger.getHeldBack());
+    }
+
+    @Test
+    public void heldBackTest() throws IOException {
+        List<Long> acks = new ArrayList<>();
+        OrderedAcknowledger acknowledger = new OrderedAcknowledger((deliveryTag, multiple) -> acks.add(deliveryTag));
+
+        register(acknowledger, 3);
+        acknowledger.ack(3);
+        acknowledger.ack(2);
+        assertEquals("nothing is acked before the first delivery", Collections.emptyList(), acks);
+        assertEquals(2, acknowledger.getHeldBack());
+
+        acknowledger.ack(1);
+        assertEquals("the whole run is acked at once", Collections.singletonList(3L), acks);
+        assertEquals(0, acknowledger.getHeldBack());
+    }
+
+    @Test
+    public void skipTest() throws IOException {
+        List<Long> acks = new ArrayList<>();
+        OrderedAcknowledger acknowledger = new OrderedAcknowledger((deliveryTag, multiple) -> acks.add(deliveryTag));
+
+        register(acknowledger, 4);
+        acknowledger.ack(1);
+        acknowledger.ack(3);
+        acknowledger.skip(2);
+        acknowledger.skip(4);
+        acknowledger.ack(1);
+
+        assertEquals("rejected deliveries are never acked", Arrays.asList(1L, 3L), acks);
+    }
+
+    @Test
+    public void flushTest() throws IOException {
+        List<String> acks = new ArrayList<>();
+        OrderedAcknowledger acknowledger = new OrderedAcknowledger(
+                (deliveryTag, multiple) -> acks.add(deliveryTag + (multiple ? "+" : "")));
+
+        register(acknowledger, 5);
+        acknowledger.ack(1);
+        acknowledger.ack(3);
+        acknowledger.skip(4);
+        acknowledger.ack(5);
+        acknowledger.flush();
+
+        assertEquals("held back deliveries are acked one by one", Arrays.asList("1+", "3", "5"), acks);
+        assertEquals(0, acknowledger.getHeldBack());
+    }
+
+    @Test
+    public void gapTest() throws IOException {
+        List<Long> acks = new ArrayList<>();
+        OrderedAcknowledger acknowledger = new OrderedAcknowledger((deliveryTag, multiple) -> acks.add(deliveryTag));
+
+        // delivery 2 never reaches the consumer
+        acknowledger.register(1);
+        acknowledger.register(3);
+        acknowledger.register(4);
+        acknowledger.ack(3);
+        assertEquals("deliveries still wait for the earlier ones received", Collections.emptyList(), acks);
+
+        acknowledger.ack(1);
+        acknowledger.ack(4);
+        assertEquals("a missing delivery should not hold back the others", Arrays.asList(3L, 4L), acks);
+        assertEquals(0, acknowledger.getHeldBack());
+    }
+
+    private static void register(OrderedAcknowledger acknowledger, long deliveries) {
+        for (long deliveryTag = 1; deliveryTag <= deliveries; deliveryTag++) {
+            acknowledger.register(deliveryTag);
+        }
+    }
+}
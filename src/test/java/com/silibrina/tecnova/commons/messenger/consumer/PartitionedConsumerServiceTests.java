@@ -0,0 +1,133 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.StubBroker;
+import com.silibrina.tecnova.commons.messenger.producer.SimpleProducerService;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.UPDATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PartitionedConsumerServiceTests {
+    private static final int PARTITIONS = 4;
+
+    private StubBroker broker;
+
+    @Before
+    public void setUp() {
+        System.setProperty("rabbitmq.partition.count", String.valueOf(PARTITIONS));
+        System.setProperty("rabbitmq.partition.rebalance_interval", "3600000");
+        ConfigFactory.invalidateCaches();
+        broker = StubBroker.install();
+    }
+
+    @After
+    public void cleanUp() {
+        broker.shutdown();
+        System.clearProperty("rabbitmq.partition.count");
+        System.clearProperty("rabbitmq.partition.rebalance_interval");
+        ConfigFactory.invalidateCaches();
+    }
+
+    @Test
+    public void fairShareTest() {
+        assertEquals(4, PartitionedConsumerService.getFairShare(4, 1));
+        assertEquals(2, PartitionedConsumerService.getFairShare(4, 2));
+        assertEquals(2, PartitionedConsumerService.getFairShare(4, 3));
+        assertEquals(1, PartitionedConsumerService.getFairShare(4, 8));
+        assertEquals(4, PartitionedConsumerService.getFairShare(4, 0));
+    }
+
+    @Test
+    public void rebalanceTest() throws Exception {
+        String queue = newQueueName();
+        Map<String, List<Integer>> handled = new ConcurrentHashMap<>();
+        CountDownLatch done = new CountDownLatch(100);
+
+        PartitionedConsumerService first = newConsumer(queue, handled, done);
+        first.start();
+        assertEquals(PARTITIONS, first.getClaimed().size());
+
+        PartitionedConsumerService second = newConsumer(queue, handled, done);
+        second.start();
+        assertTrue("every partition is claimed already", second.getClaimed().isEmpty());
+
+        first.rebalance();
+        second.rebalance();
+        assertEquals(PARTITIONS / 2, first.getClaimed().size());
+        assertEquals(PARTITIONS / 2, second.getClaimed().size());
+        TreeSet<Integer> all = new TreeSet<>(first.getClaimed());
+        all.addAll(second.getClaimed());
+        assertEquals(PARTITIONS, all.size());
+
+        SimpleProducerService producer = new SimpleProducerService(queue, false);
+        for (int version = 0; version < 10; version++) {
+            for (int entry = 0; entry < 10; entry++) {
+                producer.publish(new Message(UPDATE, "entry_" + entry,
+                        JsonNodeFactory.instance.objectNode().put("version", version)));
+            }
+        }
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+
+        assertEquals(10, handled.size());
+        for (List<Integer> versions : handled.values()) {
+            List<Integer> expected = new ArrayList<>();
+            for (int version = 0; version < 10; version++) {
+                expected.add(version);
+            }
+            assertEquals("messages of an entry are handled in order", expected, versions);
+        }
+
+        producer.close();
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void takeOverTest() throws Exception {
+        String queue = newQueueName();
+        PartitionedConsumerService first = newConsumer(queue, new ConcurrentHashMap<>(), new CountDownLatch(0));
+        PartitionedConsumerService second = newConsumer(queue, new ConcurrentHashMap<>(), new CountDownLatch(0));
+        first.start();
+        second.start();
+        first.rebalance();
+        second.rebalance();
+
+        first.close();
+        second.rebalance();
+        assertEquals("partitions of a consumer that left are claimed", PARTITIONS, second.getClaimed().size());
+
+        second.close();
+    }
+
+    private static PartitionedConsumerService newConsumer(String queue, Map<String, List<Integer>> handled,
+                                                          CountDownLatch done) throws Exception {
+        return new PartitionedConsumerService(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                handled.computeIfAbsent(message.getEntryId(), id -> new ArrayList<>())
+                        .add(message.getPayload().get("version").asInt());
+                done.countDown();
+                return 0;
+            }
+        };
+    }
+
+    private static String newQueueName() {
+        return "partition-test-" + UUID.randomUUID();
+    }
+}
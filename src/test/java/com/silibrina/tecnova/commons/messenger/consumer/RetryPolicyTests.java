@@ -0,0 +1,58 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.rabbitmq.client.AMQP;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RetryPolicyTests {
+
+    @Test
+    public void exponentialDelayTest() {
+        RetryPolicy policy = new RetryPolicy("queue", 10, 1000, 5000);
+
+        assertEquals(1000, policy.getDelay(1));
+        assertEquals(2000, policy.getDelay(2));
+        assertEquals(4000, policy.getDelay(3));
+        assertEquals("delay should be capped", 5000, policy.getDelay(4));
+        assertEquals("delay should be capped", 5000, policy.getDelay(9));
+    }
+
+    @Test
+    public void queueNamesTest() {
+        RetryPolicy policy = new RetryPolicy("queue", 3, 1000, 5000);
+
+        assertEquals("queue.retry.2", policy.getDelayQueue(2));
+        assertEquals("queue.dead", policy.getDeadLetterQueue());
+    }
+
+    @Test
+    public void attemptsHeaderTest() {
+        AMQP.BasicProperties properties = new AMQP.BasicProperties.Builder()
+                .messageId("id-1")
+                .headers(Collections.singletonMap("other", "value"))
+                .build();
+        assertEquals("first delivery has no retries", 0, RetryPolicy.getAttempts(properties));
+
+        AMQP.BasicProperties retried = RetryPolicy.withAttempts(properties, 2, MessageStatus.IO_ERROR.status);
+
+        assertEquals(2, RetryPolicy.getAttempts(retried));
+        assertEquals(MessageStatus.IO_ERROR.status, retried.getHeaders().get(RetryPolicy.STATUS_HEADER));
+        assertEquals("other headers should be kept", "value", retried.getHeaders().get("other"));
+        assertEquals("message id should be kept", "id-1", retried.getMessageId());
+    }
+
+    @Test
+    public void retryableStatusTest() {
+        assertTrue(MessageStatus.isRetryable(MessageStatus.IO_ERROR.status));
+        assertTrue(MessageStatus.isRetryable(MessageStatus.UNKNOWN_ERROR.status));
+        assertFalse("missing entries will not show up later",
+                MessageStatus.isRetryable(MessageStatus.ENTRY_NOT_FOUND.status));
+        assertFalse(MessageStatus.isRetryable(0));
+    }
+}
@@ -0,0 +1,45 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class StripedDeliveryExecutorTests {
+
+    @Test
+    public void sameKeySameLaneTest() {
+        StripedDeliveryExecutor executor = new StripedDeliveryExecutor(4, "test");
+        try {
+            assertEquals("same key should always go to the same lane",
+                    executor.laneOf("some_id"), executor.laneOf("some_id"));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void orderPerKeyTest() throws InterruptedException {
+        StripedDeliveryExecutor executor = new StripedDeliveryExecutor(4, "test");
+        List<Integer> first = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> second = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            executor.execute("first_id", () -> first.add(value));
+            executor.execute("second_id", () -> second.add(value));
+        }
+        executor.shutdown();
+
+        assertTrue("lanes should finish", executor.awaitTermination(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("first entry should keep its order", i, (int) first.get(i));
+            assertEquals("second entry should keep its order", i, (int) second.get(i));
+        }
+    }
+}
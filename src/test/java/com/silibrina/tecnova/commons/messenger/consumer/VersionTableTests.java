@@ -0,0 +1,64 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import com.silibrina.tecnova.commons.messenger.Message;
+import org.junit.Test;
+
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.CREATE;
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.DELETE;
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.UPDATE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class VersionTableTests {
+
+    @Test
+    public void supersededTest() {
+        VersionTable table = new VersionTable(10);
+        Message create = new Message(CREATE, "entry", null, 1);
+        Message delete = new Message(DELETE, "entry", null, 2);
+
+        assertFalse("unknown entry should be handled", table.isSuperseded(delete));
+        table.record(delete);
+
+        assertTrue("create overtaken by its delete should be skipped", table.isSuperseded(create));
+        assertFalse("same version should be handled", table.isSuperseded(delete));
+        assertFalse("newer version should be handled", table.isSuperseded(new Message(UPDATE, "entry", null, 3)));
+        assertFalse("other entries should be handled", table.isSuperseded(new Message(CREATE, "other", null, 1)));
+        assertEquals(1, table.getSkipped());
+    }
+
+    @Test
+    public void keepsHighestVersionTest() {
+        VersionTable table = new VersionTable(10);
+        table.record(new Message(UPDATE, "entry", null, 5));
+        table.record(new Message(UPDATE, "entry", null, 3));
+
+        assertTrue(table.isSuperseded(new Message(UPDATE, "entry", null, 4)));
+    }
+
+    @Test
+    public void unversionedTest() {
+        VersionTable table = new VersionTable(10);
+        table.record(new Message(UPDATE, "entry", null));
+
+        assertEquals("messages without a version should not be remembered", 0, table.size());
+
+        table.record(new Message(UPDATE, "entry", null, 5));
+        assertFalse("messages without a version should never be skipped",
+                table.isSuperseded(new Message(UPDATE, "entry", null)));
+    }
+
+    @Test
+    public void evictionTest() {
+        VersionTable table = new VersionTable(2);
+        table.record(new Message(UPDATE, "a", null, 5));
+        table.record(new Message(UPDATE, "b", null, 5));
+        table.record(new Message(UPDATE, "a", null, 6));
+        table.record(new Message(UPDATE, "c", null, 5));
+
+        assertEquals(2, table.size());
+        assertTrue("recently handled entry should be kept", table.isSuperseded(new Message(UPDATE, "a", null, 1)));
+        assertFalse("eldest entry should be forgotten", table.isSuperseded(new Message(UPDATE, "b", null, 1)));
+    }
+}
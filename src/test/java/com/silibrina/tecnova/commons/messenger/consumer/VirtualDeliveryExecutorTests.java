@@ -0,0 +1,72 @@
+package com.silibrina.tecnova.commons.messenger.consumer;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VirtualDeliveryExecutorTests {
+
+    @Test
+    public void orderPerKeyTest() throws InterruptedException {
+        VirtualDeliveryExecutor executor = new VirtualDeliveryExecutor(16, 4, "test");
+        List<Integer> first = Collections.synchronizedList(new ArrayList<>());
+        List<Integer> second = Collections.synchronizedList(new ArrayList<>());
+
+        for (int i = 0; i < 100; i++) {
+            int value = i;
+            executor.execute("first_id", () -> first.add(value));
+            executor.execute("second_id", () -> second.add(value));
+        }
+        executor.shutdown();
+
+        assertTrue("deliveries should finish", executor.awaitTermination(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals("first entry should keep its order", i, (int) first.get(i));
+            assertEquals("second entry should keep its order", i, (int) second.get(i));
+        }
+    }
+
+    @Test
+    public void concurrencyTest() throws InterruptedException {
+        int size = 8;
+        VirtualDeliveryExecutor executor = new VirtualDeliveryExecutor(size, size, "test");
+        CountDownLatch blocked = new CountDownLatch(size);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger highest = new AtomicInteger();
+
+        Thread submitter = new Thread(() -> {
+            for (int i = 0; i < size * 4; i++) {
+                executor.execute("id_" + i, () -> {
+                    highest.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    blocked.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                });
+            }
+        });
+        submitter.start();
+
+        assertTrue("every slot should be taken", blocked.await(10, TimeUnit.SECONDS));
+        Thread.sleep(100);
+        assertTrue("submitting should block while every slot is taken", submitter.isAlive());
+
+        release.countDown();
+        submitter.join(10000);
+        executor.shutdown();
+        assertTrue("deliveries should finish", executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals("no more than size deliveries at the same time", size, highest.get());
+    }
+}
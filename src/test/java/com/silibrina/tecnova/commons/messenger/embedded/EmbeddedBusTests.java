@@ -0,0 +1,129 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.CREATE;
+import static org.junit.Assert.assertEquals;
+
+public class EmbeddedBusTests {
+
+    @Test
+    public void syncTest() throws Exception {
+        String queue = newQueueName();
+        List<String> handled = new ArrayList<>();
+        EmbeddedConsumerService consumer = new EmbeddedConsumerService(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                handled.add(message.getEntryId());
+                return 7;
+            }
+        };
+        consumer.start();
+
+        EmbeddedProducerService producer = new EmbeddedProducerService(queue, true);
+        assertEquals(7, producer.publish(newMessage("first")));
+        assertEquals(Arrays.asList(7, 7), producer.publishAll(Arrays.asList(newMessage("second"), newMessage("third"))));
+        assertEquals(Arrays.asList("first", "second", "third"), handled);
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test
+    public void errorTest() throws Exception {
+        String queue = newQueueName();
+        EmbeddedConsumerService consumer = new EmbeddedConsumerService(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                if ("io".equals(message.getEntryId())) {
+                    throw new IOException("disk is gone");
+                }
+                throw new IllegalStateException("bug");
+            }
+        };
+        consumer.start();
+
+        EmbeddedProducerService producer = new EmbeddedProducerService(queue, true);
+        assertEquals(MessageStatus.IO_ERROR.status, producer.publish(newMessage("io")));
+        assertEquals(MessageStatus.UNKNOWN_ERROR.status, producer.publish(newMessage("other")));
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test
+    public void asyncTest() throws Exception {
+        String queue = newQueueName();
+        EmbeddedProducerService producer = new EmbeddedProducerService(queue, false);
+        assertEquals(MessageStatus.UNDEFINED_STATUS.status, producer.publish(newMessage("queued")));
+
+        List<String> handled = new ArrayList<>();
+        EmbeddedConsumerService consumer = new EmbeddedConsumerService(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                synchronized (handled) {
+                    handled.add(message.getEntryId());
+                    handled.notifyAll();
+                }
+                return 0;
+            }
+        };
+        consumer.start();
+
+        synchronized (handled) {
+            long deadline = System.currentTimeMillis() + 10000;
+            while (handled.isEmpty() && System.currentTimeMillis() < deadline) {
+                handled.wait(100);
+            }
+        }
+        assertEquals(Arrays.asList("queued"), handled);
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test(expected = IOException.class)
+    public void secondConsumerTest() throws Exception {
+        String queue = newQueueName();
+        EmbeddedConsumerService first = newIdleConsumer(queue);
+        first.start();
+        try {
+            newIdleConsumer(queue).start();
+        } finally {
+            first.close();
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void closedProducerTest() throws Exception {
+        EmbeddedProducerService producer = new EmbeddedProducerService(newQueueName(), false);
+        producer.close();
+        producer.publish(newMessage("late"));
+    }
+
+    private static EmbeddedConsumerService newIdleConsumer(String queue) {
+        return new EmbeddedConsumerService(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                return 0;
+            }
+        };
+    }
+
+    private static String newQueueName() {
+        return "embedded-test-" + UUID.randomUUID();
+    }
+
+    private static Message newMessage(String entryId) {
+        return new Message(CREATE, entryId, JsonNodeFactory.instance.objectNode());
+    }
+}
@@ -0,0 +1,93 @@
+package com.silibrina.tecnova.commons.messenger.embedded;
+
+import com.silibrina.tecnova.commons.exceptions.InvalidConditionException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RingBufferTests {
+
+    @Test
+    public void singleProducerTest() throws InterruptedException {
+        RingBuffer<AtomicLong> buffer = new RingBuffer<>(4, AtomicLong::new, false, new BlockingWaitStrategy());
+
+        for (long round = 0; round < 3; round++) {
+            for (int i = 0; i < 4; i++) {
+                long sequence = buffer.next();
+                buffer.get(sequence).set(sequence * 10);
+                buffer.publish(sequence);
+            }
+            assertEquals(4, buffer.size());
+
+            long next = buffer.getNextToConsume();
+            long available = buffer.waitFor(next);
+            assertEquals(next + 3, available);
+            for (long sequence = next; sequence <= available; sequence++) {
+                assertEquals(sequence * 10, buffer.get(sequence).get());
+            }
+            buffer.release(available);
+            assertEquals(0, buffer.size());
+        }
+    }
+
+    @Test
+    public void multiProducerTest() throws InterruptedException {
+        int producers = 4;
+        int messages = 10000;
+        RingBuffer<AtomicLong> buffer = new RingBuffer<>(64, AtomicLong::new, true, new SpinningWaitStrategy(10, 10, 1000));
+
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            Thread thread = new Thread(() -> {
+                try {
+                    for (int i = 0; i < messages; i++) {
+                        long sequence = buffer.next();
+                        buffer.get(sequence).set(i);
+                        buffer.publish(sequence);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        long sum = 0;
+        long next = buffer.getNextToConsume();
+        while (next < producers * messages) {
+            long available = buffer.waitFor(next);
+            for (; next <= available; next++) {
+                sum += buffer.get(next).get();
+            }
+            buffer.release(available);
+        }
+
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals((long) producers * messages * (messages - 1) / 2, sum);
+        assertEquals(0, buffer.size());
+    }
+
+    @Test
+    public void attachTest() {
+        RingBuffer<AtomicLong> buffer = new RingBuffer<>(2, AtomicLong::new, false, new BlockingWaitStrategy());
+
+        assertTrue(buffer.attachConsumer());
+        assertFalse("only one consumer at a time", buffer.attachConsumer());
+        buffer.detachConsumer();
+        assertTrue(buffer.attachConsumer());
+    }
+
+    @Test(expected = InvalidConditionException.class)
+    public void capacityTest() {
+        new RingBuffer<>(3, AtomicLong::new, false, new BlockingWaitStrategy());
+    }
+}
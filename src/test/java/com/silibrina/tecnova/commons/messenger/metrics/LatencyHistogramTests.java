@@ -0,0 +1,72 @@
+package com.silibrina.tecnova.commons.messenger.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTests {
+
+    @Test
+    public void bucketsTest() {
+        for (long micros = 0; micros < 100000; micros++) {
+            int index = LatencyHistogram.indexOf(micros);
+            assertTrue("bucket of " + micros + " holds it", LatencyHistogram.upperBoundOf(index) >= micros);
+            assertTrue("previous bucket of " + micros + " does not hold it",
+                    index == 0 || LatencyHistogram.upperBoundOf(index - 1) < micros);
+        }
+    }
+
+    @Test
+    public void percentileTest() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int millis = 1; millis <= 100; millis++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(50.5, snapshot.getMean(), 0.001);
+        assertEquals(100.0, snapshot.getMax(), 0.001);
+        assertEquals(50.0, snapshot.getPercentile(0.5), 50.0 * 0.25);
+        assertEquals(99.0, snapshot.getPercentile(0.99), 99.0 * 0.25);
+        assertEquals(0.0, new LatencyHistogram().snapshot().getPercentile(0.99), 0.0);
+    }
+
+    @Test
+    public void mergeTest() {
+        LatencyHistogram first = new LatencyHistogram();
+        LatencyHistogram second = new LatencyHistogram();
+        first.record(TimeUnit.MILLISECONDS.toNanos(1));
+        second.record(TimeUnit.MILLISECONDS.toNanos(3));
+
+        LatencyHistogram.Snapshot merged = first.snapshot().merge(second.snapshot());
+        assertEquals(2, merged.getCount());
+        assertEquals(2.0, merged.getMean(), 0.001);
+        assertEquals(3.0, merged.getMax(), 0.001);
+    }
+
+    @Test
+    public void concurrentTest() throws InterruptedException {
+        LatencyHistogram histogram = new LatencyHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i * 1000L);
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(40000, histogram.snapshot().getCount());
+    }
+}
@@ -0,0 +1,93 @@
+package com.silibrina.tecnova.commons.messenger.metrics;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.CREATE;
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.DELETE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class MessagingMetricsTests {
+
+    @Test
+    public void countersTest() {
+        MessagingMetrics metrics = MessagingMetrics.forQueue(newQueueName());
+        metrics.published(CREATE, MessageStatus.CONFIRMED.status, TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.published(CREATE, MessageStatus.CONFIRMED.status, TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.published(DELETE, MessageStatus.NOT_CONFIRMED.status, TimeUnit.MILLISECONDS.toNanos(2));
+        metrics.handled(CREATE, 0, TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.handled(CREATE, MessageStatus.IO_ERROR.status, TimeUnit.MILLISECONDS.toNanos(5));
+
+        assertEquals(Long.valueOf(2), metrics.getPublished().get("CREATE.CONFIRMED"));
+        assertEquals(Long.valueOf(1), metrics.getPublished().get("DELETE.NOT_CONFIRMED"));
+        assertEquals(Long.valueOf(1), metrics.getHandled().get("CREATE.0"));
+        assertEquals(Long.valueOf(1), metrics.getHandled().get("CREATE.IO_ERROR"));
+        assertEquals(2.0, metrics.getPublishLatencyP99(), 0.5);
+        assertEquals(5.0, metrics.getHandleTimeP99(), 1.25);
+
+        ObjectNode json = metrics.toJson();
+        assertEquals(2, json.get("published").get("CREATE.CONFIRMED").asLong());
+        assertEquals(2, json.get("handle_time").get("CREATE").get("count").asLong());
+    }
+
+    @Test
+    public void sampleTest() {
+        MessagingMetrics metrics = MessagingMetrics.forQueue(newQueueName());
+        assertEquals(-1, metrics.getQueueDepth());
+
+        metrics.sampled(42, 3);
+        assertEquals(42, metrics.getQueueDepth());
+        assertEquals(3, metrics.getConsumerCount());
+    }
+
+    @Test
+    public void gaugeTest() {
+        MessagingMetrics metrics = MessagingMetrics.forQueue(newQueueName());
+        LongSupplier first = () -> 1L;
+        LongSupplier second = () -> 2L;
+
+        metrics.registerGauge("in_flight", first);
+        metrics.registerGauge("in_flight", second);
+        metrics.unregisterGauge("in_flight", first);
+        assertEquals("only the gauge registered last is removed", Long.valueOf(2), metrics.getGauges().get("in_flight"));
+
+        metrics.unregisterGauge("in_flight", second);
+        assertFalse(metrics.getGauges().containsKey("in_flight"));
+    }
+
+    @Test
+    public void registryTest() throws Exception {
+        String queueName = newQueueName();
+        MessagingMetrics metrics = MessagingMetrics.forQueue(queueName);
+        assertSame(metrics, MessagingMetrics.forQueue(queueName));
+        assertSame(metrics, MessagingMetrics.getAll().get(queueName));
+
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("com.silibrina.tecnova.commons:type=Messaging,queue=" + ObjectName.quote(queueName));
+        assertTrue(server.isRegistered(name));
+        assertEquals(queueName, server.getAttribute(name, "Queue"));
+    }
+
+    @Test
+    public void lagTest() {
+        MessagingMetrics metrics = MessagingMetrics.forQueue(newQueueName());
+        metrics.delivered(System.currentTimeMillis() - 1000);
+
+        assertEquals(1000.0, metrics.getLagP99(), 250.0);
+    }
+
+    private static String newQueueName() {
+        return "metrics-test-" + UUID.randomUUID();
+    }
+}
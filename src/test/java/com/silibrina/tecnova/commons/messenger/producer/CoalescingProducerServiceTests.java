@@ -0,0 +1,124 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.Message.MessageType;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.messenger.producer.CoalescingProducerService.Merge;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CoalescingProducerServiceTests {
+    private static final long WINDOW = TimeUnit.HOURS.toMillis(1);
+
+    @Test
+    public void mergeRulesTest() {
+        assertEquals(Merge.REPLACE, CoalescingProducerService.merge(MessageType.UPDATE, MessageType.UPDATE));
+        assertEquals(Merge.DROP_BOTH, CoalescingProducerService.merge(MessageType.CREATE, MessageType.DELETE));
+        assertEquals(Merge.REPLACE, CoalescingProducerService.merge(MessageType.UPDATE, MessageType.DELETE));
+        assertEquals(Merge.REPLACE, CoalescingProducerService.merge(MessageType.DELETE, MessageType.DELETE));
+        assertEquals(Merge.KEEP_BOTH, CoalescingProducerService.merge(MessageType.CREATE, MessageType.UPDATE));
+        assertEquals(Merge.KEEP_BOTH, CoalescingProducerService.merge(MessageType.DELETE, MessageType.CREATE));
+    }
+
+    @Test
+    public void updatesAreCollapsedTest() throws IOException {
+        RecordingProducer delegate = new RecordingProducer();
+        CoalescingProducerService producer = new CoalescingProducerService(delegate, WINDOW);
+
+        CompletableFuture<Integer> first = producer.publishAsync(message(MessageType.UPDATE, "a", 1));
+        CompletableFuture<Integer> second = producer.publishAsync(message(MessageType.UPDATE, "a", 2));
+        producer.flush();
+
+        assertEquals("only the last update should be published", 1, delegate.published.size());
+        assertEquals(2, delegate.published.get(0).getPayload().get("version").asInt());
+        assertEquals("replaced update should follow the last one",
+                MessageStatus.CONFIRMED.status, (int) first.join());
+        assertEquals(MessageStatus.CONFIRMED.status, (int) second.join());
+        producer.close();
+    }
+
+    @Test
+    public void createThenDeleteIsDroppedTest() throws IOException {
+        RecordingProducer delegate = new RecordingProducer();
+        CoalescingProducerService producer = new CoalescingProducerService(delegate, WINDOW);
+
+        CompletableFuture<Integer> create = producer.publishAsync(message(MessageType.CREATE, "a", 1));
+        CompletableFuture<Integer> update = producer.publishAsync(message(MessageType.UPDATE, "a", 2));
+        CompletableFuture<Integer> delete = producer.publishAsync(message(MessageType.DELETE, "a", 3));
+        producer.flush();
+
+        assertTrue("nothing should be published", delegate.published.isEmpty());
+        assertEquals(MessageStatus.COALESCED.status, (int) create.join());
+        assertEquals(MessageStatus.COALESCED.status, (int) update.join());
+        assertEquals(MessageStatus.COALESCED.status, (int) delete.join());
+        producer.close();
+    }
+
+    @Test
+    public void orderIsKeptTest() throws IOException {
+        RecordingProducer delegate = new RecordingProducer();
+        CoalescingProducerService producer = new CoalescingProducerService(delegate, WINDOW);
+
+        producer.publish(message(MessageType.UPDATE, "a", 1));
+        producer.publish(message(MessageType.CREATE, "b", 1));
+        producer.publish(message(MessageType.DELETE, "a", 2));
+        producer.publish(message(MessageType.UPDATE, "b", 2));
+        producer.close();
+
+        List<Message> published = delegate.published;
+        assertEquals(3, published.size());
+        assertEquals(MessageType.DELETE, published.get(0).getType());
+        assertEquals("a", published.get(0).getEntryId());
+        assertEquals(MessageType.CREATE, published.get(1).getType());
+        assertEquals(MessageType.UPDATE, published.get(2).getType());
+        assertEquals("b", published.get(2).getEntryId());
+        assertTrue("delegate should be closed with the producer", delegate.closed);
+    }
+
+    private static Message message(MessageType type, String entryId, int version) {
+        return new Message(type, entryId, JsonNodeFactory.instance.objectNode().put("version", version));
+    }
+
+    private static class RecordingProducer implements ProducerService {
+        private final List<Message> published = new ArrayList<>();
+        private boolean closed;
+
+        @Override
+        public int publish(Message message) {
+            published.add(message);
+            return MessageStatus.CONFIRMED.status;
+        }
+
+        @Override
+        public CompletableFuture<Integer> publishAsync(Message message) {
+            return CompletableFuture.completedFuture(publish(message));
+        }
+
+        @Override
+        public CompletableFuture<Integer> publishAsync(Message message, long timeout, TimeUnit unit) {
+            return publishAsync(message);
+        }
+
+        @Override
+        public List<Integer> publishAll(Collection<Message> messages) {
+            published.addAll(messages);
+            return new ArrayList<>(Collections.nCopies(messages.size(), MessageStatus.CONFIRMED.status));
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
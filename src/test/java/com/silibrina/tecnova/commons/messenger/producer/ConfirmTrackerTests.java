@@ -0,0 +1,149 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.rabbitmq.client.Channel;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ConfirmTrackerTests {
+
+    @Test
+    public void singleAckTest() throws IOException {
+        AtomicLong sequence = new AtomicLong(1);
+        Channel channel = newChannel(sequence);
+        ConfirmTracker tracker = new ConfirmTracker();
+        CompletableFuture<Integer> first = publish(tracker, channel, sequence);
+        CompletableFuture<Integer> second = publish(tracker, channel, sequence);
+
+        tracker.handleAck(2, false);
+
+        assertFalse("first message should still be waiting", first.isDone());
+        assertEquals("second message should be confirmed",
+                MessageStatus.CONFIRMED.status, (int) second.join());
+        assertEquals("only one message should be outstanding", 1, tracker.size());
+    }
+
+    @Test
+    public void multipleAckTest() throws IOException {
+        AtomicLong sequence = new AtomicLong(1);
+        Channel channel = newChannel(sequence);
+        ConfirmTracker tracker = new ConfirmTracker();
+        CompletableFuture<Integer> first = publish(tracker, channel, sequence);
+        CompletableFuture<Integer> second = publish(tracker, channel, sequence);
+        CompletableFuture<Integer> third = publish(tracker, channel, sequence);
+
+        tracker.handleAck(2, true);
+
+        assertEquals("first message should be confirmed", MessageStatus.CONFIRMED.status, (int) first.join());
+        assertEquals("second message should be confirmed", MessageStatus.CONFIRMED.status, (int) second.join());
+        assertFalse("third message should still be waiting", third.isDone());
+        assertEquals("only one message should be outstanding", 1, tracker.size());
+    }
+
+    @Test
+    public void multipleNackTest() throws IOException {
+        AtomicLong sequence = new AtomicLong(1);
+        Channel channel = newChannel(sequence);
+        ConfirmTracker tracker = new ConfirmTracker();
+        CompletableFuture<Integer> first = publish(tracker, channel, sequence);
+        CompletableFuture<Integer> second = publish(tracker, channel, sequence);
+
+        tracker.handleNack(2, true);
+
+        assertEquals("first message should not be confirmed", MessageStatus.NOT_CONFIRMED.status, (int) first.join());
+        assertEquals("second message should not be confirmed", MessageStatus.NOT_CONFIRMED.status, (int) second.join());
+        assertEquals("no message should be outstanding", 0, tracker.size());
+    }
+
+    @Test
+    public void failAllTest() throws IOException {
+        AtomicLong sequence = new AtomicLong(1);
+        Channel channel = newChannel(sequence);
+        ConfirmTracker tracker = new ConfirmTracker();
+        CompletableFuture<Integer> first = publish(tracker, channel, sequence);
+
+        tracker.failAll(new IOException("channel closed"));
+
+        assertTrue("message should have failed", first.isCompletedExceptionally());
+        assertEquals("no message should be outstanding", 0, tracker.size());
+    }
+
+    @Test
+    public void republishTest() throws IOException {
+        AtomicLong sequence = new AtomicLong(1);
+        Channel channel = newChannel(sequence);
+        List<String> published = new ArrayList<>();
+        ConfirmTracker tracker = new ConfirmTracker();
+
+        List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (String message : Arrays.asList("first", "second", "third")) {
+            results.add(tracker.publish(channel, target -> {
+                sequence.incrementAndGet();
+                published.add(message);
+            }));
+        }
+        tracker.handleAck(1, false);
+
+        // sequence numbers start over on a recovered channel
+        sequence.set(1);
+        assertEquals(2, tracker.republish(channel));
+        assertEquals("unconfirmed messages should be published again in order",
+                Arrays.asList("first", "second", "third", "second", "third"), published);
+        assertFalse("republished messages should wait for their new confirm", results.get(1).isDone());
+
+        tracker.handleAck(2, true);
+        for (CompletableFuture<Integer> result : results) {
+            assertEquals(MessageStatus.CONFIRMED.status, (int) result.join());
+        }
+        assertEquals("no message should be outstanding", 0, tracker.size());
+    }
+
+    @Test
+    public void republishFailureTest() throws IOException {
+        AtomicLong sequence = new AtomicLong(1);
+        Channel channel = newChannel(sequence);
+        ConfirmTracker tracker = new ConfirmTracker();
+
+        boolean[] fail = {false};
+        CompletableFuture<Integer> published = tracker.publish(channel, target -> {
+            if (fail[0]) {
+                throw new IOException("channel closed again");
+            }
+            sequence.incrementAndGet();
+        });
+
+        fail[0] = true;
+        assertEquals(0, tracker.republish(channel));
+        assertTrue("a message that could not be published again should fail", published.isCompletedExceptionally());
+        assertEquals("no message should be outstanding", 0, tracker.size());
+    }
+
+    /**
+     * Publishes a message that only moves the sequence of the channel forward.
+     */
+    private static CompletableFuture<Integer> publish(ConfirmTracker tracker, Channel channel,
+                                                      AtomicLong sequence) throws IOException {
+        return tracker.publish(channel, target -> sequence.incrementAndGet());
+    }
+
+    private static Channel newChannel(AtomicLong sequence) {
+        return (Channel) Proxy.newProxyInstance(ConfirmTrackerTests.class.getClassLoader(),
+                new Class<?>[]{Channel.class}, (proxy, method, args) -> {
+                    if ("getNextPublishSeqNo".equals(method.getName())) {
+                        return sequence.get();
+                    }
+                    throw new UnsupportedOperationException(method.getName());
+                });
+    }
+}
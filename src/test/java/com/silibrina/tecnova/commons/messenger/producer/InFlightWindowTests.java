@@ -0,0 +1,62 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InFlightWindowTests {
+
+    @Test
+    public void useTest() throws IOException {
+        InFlightWindow window = new InFlightWindow(2, InFlightWindow.Mode.BLOCK, 10);
+
+        window.acquire();
+        window.acquire();
+        assertEquals(2, window.getInUse());
+
+        window.release();
+        assertEquals(1, window.getInUse());
+    }
+
+    @Test(expected = IOException.class)
+    public void failFastTest() throws IOException {
+        InFlightWindow window = new InFlightWindow(1, InFlightWindow.Mode.FAIL, 10000);
+
+        window.acquire();
+        window.acquire();
+    }
+
+    @Test(expected = IOException.class)
+    public void blockTimeoutTest() throws IOException {
+        InFlightWindow window = new InFlightWindow(1, InFlightWindow.Mode.BLOCK, 10);
+
+        window.acquire();
+        window.acquire();
+    }
+
+    @Test
+    public void pendingTest() {
+        InFlightWindow window = new InFlightWindow(1, InFlightWindow.Mode.PENDING, 10);
+
+        CompletableFuture<Void> first = window.acquireAsync();
+        CompletableFuture<Void> second = window.acquireAsync();
+        CompletableFuture<Void> third = window.acquireAsync();
+        assertTrue(first.isDone());
+        assertFalse("window is full", second.isDone());
+        assertEquals(2, window.getWaiting());
+
+        window.release();
+        assertTrue("slot should go to the oldest pending caller", second.isDone());
+        assertFalse(third.isDone());
+        assertEquals("slot should be handed over, not freed", 1, window.getInUse());
+
+        third.cancel(false);
+        window.release();
+        assertEquals("slot of a cancelled caller should be freed", 0, window.getInUse());
+    }
+}
@@ -0,0 +1,131 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OutboxJournalTests {
+    private static final int SEGMENT_SIZE = 64;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("outbox").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void appendPeekAckTest() throws IOException {
+        try (OutboxJournal journal = new OutboxJournal(directory, SEGMENT_SIZE)) {
+            journal.append(bytes("first"));
+            journal.append(bytes("second"));
+            assertEquals(2, journal.size());
+
+            OutboxJournal.Record record = journal.peek();
+            assertEquals("first", string(record.getPayload()));
+            assertEquals("peek should not consume the record", "first", string(journal.peek().getPayload()));
+
+            journal.ack(record);
+            assertEquals("second", string(journal.peek().getPayload()));
+            journal.ack(journal.peek());
+
+            assertNull("every record was acked", journal.peek());
+            assertTrue(journal.isEmpty());
+        }
+    }
+
+    @Test
+    public void recoveryTest() throws IOException {
+        try (OutboxJournal journal = new OutboxJournal(directory, SEGMENT_SIZE)) {
+            journal.append(bytes("first"));
+            journal.append(bytes("second"));
+            journal.ack(journal.peek());
+        }
+
+        try (OutboxJournal journal = new OutboxJournal(directory, SEGMENT_SIZE)) {
+            assertEquals("only the record not acked should be recovered", 1, journal.size());
+            assertEquals("second", string(journal.peek().getPayload()));
+        }
+    }
+
+    @Test
+    public void tornRecordTest() throws IOException {
+        try (OutboxJournal journal = new OutboxJournal(directory, SEGMENT_SIZE)) {
+            journal.append(bytes("first"));
+            journal.append(bytes("second"));
+        }
+        File segment = directory.listFiles()[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            // corrupts the payload of the second record
+            file.seek(9 + 5 + 9);
+            file.write('X');
+        }
+
+        try (OutboxJournal journal = new OutboxJournal(directory, SEGMENT_SIZE)) {
+            assertEquals("torn record should be discarded", 1, journal.size());
+            journal.append(bytes("third"));
+            journal.ack(journal.peek());
+            assertEquals("third", string(journal.peek().getPayload()));
+        }
+    }
+
+    @Test
+    public void compactionTest() throws IOException {
+        try (OutboxJournal journal = new OutboxJournal(directory, SEGMENT_SIZE)) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(bytes("message-" + i));
+            }
+            assertTrue("records should span several segments", journal.segmentCount() > 1);
+
+            for (int i = 0; i < 10; i++) {
+                OutboxJournal.Record record = journal.peek();
+                assertEquals("message-" + i, string(record.getPayload()));
+                journal.ack(record);
+            }
+
+            assertEquals("acked segments should be deleted", 1, journal.segmentCount());
+            assertEquals(1, directory.listFiles().length);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void ackOutOfOrderTest() throws IOException {
+        try (OutboxJournal journal = new OutboxJournal(directory, SEGMENT_SIZE)) {
+            journal.append(bytes("first"));
+            OutboxJournal.Record record = journal.peek();
+            journal.ack(record);
+            journal.ack(record);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void emptyRecordTest() throws IOException {
+        try (OutboxJournal journal = new OutboxJournal(directory, SEGMENT_SIZE)) {
+            journal.append(new byte[0]);
+        }
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String string(byte[] content) {
+        return new String(content, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,227 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.Message.MessageType;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import org.apache.commons.io.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+
+public class OutboxProducerServiceTests {
+    private static final long RETRY_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("outbox").toFile();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(directory);
+    }
+
+    @Test
+    public void journalWhileBrokerIsDownTest() throws IOException, InterruptedException {
+        FlakyProducer broker = new FlakyProducer();
+        broker.up = false;
+        OutboxProducerService producer = new OutboxProducerService(broker::create,
+                new OutboxJournal(directory, 4096), RETRY_INTERVAL);
+
+        assertEquals(MessageStatus.JOURNALED.status, producer.publish(message("a")));
+        assertEquals(MessageStatus.JOURNALED.status, (int) producer.publishAsync(message("b")).join());
+        assertEquals(2, producer.getPending());
+
+        broker.up = true;
+        producer.replay();
+
+        assertEquals("journal should be drained", 0, producer.getPending());
+        assertEquals(2, broker.published.size());
+        assertEquals("a", broker.published.get(0).getEntryId());
+        assertEquals("b", broker.published.get(1).getEntryId());
+
+        assertEquals("messages should go straight to the broker once drained",
+                MessageStatus.CONFIRMED.status, producer.publish(message("c")));
+        producer.close();
+    }
+
+    @Test
+    public void journalWhenPublishFailsTest() throws IOException, InterruptedException {
+        FlakyProducer broker = new FlakyProducer();
+        OutboxProducerService producer = new OutboxProducerService(broker::create,
+                new OutboxJournal(directory, 4096), RETRY_INTERVAL);
+
+        broker.up = false;
+        assertEquals(MessageStatus.JOURNALED.status, producer.publish(message("a")));
+        broker.up = true;
+        assertEquals("messages should keep their order behind the journal",
+                MessageStatus.JOURNALED.status, producer.publish(message("b")));
+
+        producer.replay();
+        assertEquals(2, broker.published.size());
+        producer.close();
+    }
+
+    @Test
+    public void journalWhenNotConfirmedTest() throws IOException, InterruptedException {
+        FlakyProducer broker = new FlakyProducer();
+        OutboxProducerService producer = new OutboxProducerService(broker::create,
+                new OutboxJournal(directory, 4096), RETRY_INTERVAL);
+
+        broker.confirming = false;
+        assertEquals(MessageStatus.JOURNALED.status, (int) producer.publishAsync(message("a")).join());
+        assertEquals(1, producer.getPending());
+        producer.replay();
+        assertEquals(MessageStatus.JOURNALED.status, producer.publish(message("b")));
+        assertEquals("unconfirmed messages should be kept in the outbox", 2, producer.getPending());
+
+        broker.confirming = true;
+        producer.replay();
+        assertEquals(0, producer.getPending());
+        assertEquals(2, broker.published.size());
+
+        broker.confirming = false;
+        assertEquals("a direct publish should be journaled too",
+                MessageStatus.JOURNALED.status, producer.publish(message("c")));
+        assertEquals(1, producer.getPending());
+        producer.close();
+    }
+
+    @Test
+    public void keepUndefinedStatusTest() throws IOException, InterruptedException {
+        FlakyProducer broker = new FlakyProducer();
+        broker.up = false;
+        OutboxProducerService producer = new OutboxProducerService(broker::create,
+                new OutboxJournal(directory, 4096), RETRY_INTERVAL);
+        producer.publish(message("a"));
+
+        broker.up = true;
+        broker.timingOut = true;
+        producer.replay();
+        assertEquals("messages without a confirm should be kept in the outbox", 1, producer.getPending());
+
+        broker.timingOut = false;
+        producer.replay();
+        assertEquals(0, producer.getPending());
+        assertEquals(1, broker.published.size());
+        producer.close();
+    }
+
+    @Test
+    public void journalRestOfPartialBatchTest() throws IOException, InterruptedException {
+        FlakyProducer broker = new FlakyProducer();
+        OutboxProducerService producer = new OutboxProducerService(broker::create,
+                new OutboxJournal(directory, 4096), RETRY_INTERVAL);
+
+        broker.batchLimit = 1;
+        assertEquals(Arrays.asList(MessageStatus.CONFIRMED.status, MessageStatus.JOURNALED.status,
+                MessageStatus.JOURNALED.status), producer.publishAll(Arrays.asList(message("a"), message("b"), message("c"))));
+        assertEquals("only the messages that were not published should be journaled", 2, producer.getPending());
+
+        broker.batchLimit = Integer.MAX_VALUE;
+        producer.replay();
+        assertEquals(3, broker.published.size());
+        assertEquals("c", broker.published.get(2).getEntryId());
+        producer.close();
+    }
+
+    @Test
+    public void journalSurvivesRestartTest() throws IOException, InterruptedException {
+        FlakyProducer broker = new FlakyProducer();
+        broker.up = false;
+        OutboxProducerService producer = new OutboxProducerService(broker::create,
+                new OutboxJournal(directory, 4096), RETRY_INTERVAL);
+        producer.publish(message("a"));
+        producer.close();
+
+        broker.up = true;
+        producer = new OutboxProducerService(broker::create, new OutboxJournal(directory, 4096), RETRY_INTERVAL);
+        producer.replay();
+
+        assertEquals(1, broker.published.size());
+        assertEquals(0, producer.getPending());
+        producer.close();
+    }
+
+    private static Message message(String entryId) {
+        return new Message(MessageType.UPDATE, entryId, JsonNodeFactory.instance.objectNode());
+    }
+
+    private static class FlakyProducer implements ProducerService {
+        private final List<Message> published = new ArrayList<>();
+        private volatile boolean up = true;
+        private volatile boolean confirming = true;
+        private volatile boolean timingOut = false;
+        private volatile int batchLimit = Integer.MAX_VALUE;
+
+        private ProducerService create() throws IOException, TimeoutException {
+            if (!up) {
+                throw new IOException("connection refused");
+            }
+            return this;
+        }
+
+        @Override
+        public synchronized int publish(Message message) throws IOException {
+            if (!up) {
+                throw new IOException("connection reset");
+            }
+            if (!confirming) {
+                return MessageStatus.NOT_CONFIRMED.status;
+            }
+            if (timingOut) {
+                return MessageStatus.UNDEFINED_STATUS.status;
+            }
+            published.add(message);
+            return MessageStatus.CONFIRMED.status;
+        }
+
+        @Override
+        public CompletableFuture<Integer> publishAsync(Message message) {
+            CompletableFuture<Integer> future = new CompletableFuture<>();
+            try {
+                future.complete(publish(message));
+            } catch (IOException e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        @Override
+        public CompletableFuture<Integer> publishAsync(Message message, long timeout, TimeUnit unit) {
+            return publishAsync(message);
+        }
+
+        @Override
+        public List<Integer> publishAll(Collection<Message> messages) throws IOException {
+            List<Integer> statuses = new ArrayList<>();
+            for (Message message : messages) {
+                if (statuses.size() >= batchLimit) {
+                    throw new PartialPublishException(statuses, new IOException("connection reset"));
+                }
+                statuses.add(publish(message));
+            }
+            return statuses;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
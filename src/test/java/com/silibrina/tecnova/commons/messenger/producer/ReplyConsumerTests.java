@@ -0,0 +1,59 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.rabbitmq.client.AMQP;
+import com.rabbitmq.client.Envelope;
+import com.silibrina.tecnova.commons.messenger.consumer.MessageConsumer;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+
+public class ReplyConsumerTests {
+
+    @Test
+    public void uniqueCorrelationIdTest() {
+        ReplyConsumer first = new ReplyConsumer();
+        ReplyConsumer second = new ReplyConsumer();
+
+        assertNotEquals("ids of the same consumer should differ",
+                first.nextCorrelationId(), first.nextCorrelationId());
+        assertNotEquals("ids of different consumers should differ",
+                first.nextCorrelationId(), second.nextCorrelationId());
+    }
+
+    @Test
+    public void replyCompletesMatchingFutureTest() {
+        ReplyConsumer consumer = new ReplyConsumer();
+        String firstId = consumer.nextCorrelationId();
+        String secondId = consumer.nextCorrelationId();
+        CompletableFuture<Integer> first = consumer.register(firstId);
+        CompletableFuture<Integer> second = consumer.register(secondId);
+
+        consumer.handleDelivery("tag", new Envelope(1L, false, "", ReplyConsumer.REPLY_TO),
+                properties(secondId), MessageConsumer.getStatus(42));
+
+        assertFalse("first message should still be waiting", first.isDone());
+        assertEquals("second message should get its status", 42, (int) second.join());
+        assertEquals("only one message should be pending", 1, consumer.size());
+    }
+
+    @Test
+    public void cancelDropsRegistrationTest() {
+        ReplyConsumer consumer = new ReplyConsumer();
+        String correlationId = consumer.nextCorrelationId();
+        CompletableFuture<Integer> future = consumer.register(correlationId);
+
+        future.cancel(false);
+        consumer.handleDelivery("tag", new Envelope(1L, false, "", ReplyConsumer.REPLY_TO),
+                properties(correlationId), MessageConsumer.getStatus(42));
+
+        assertEquals("no message should be pending", 0, consumer.size());
+    }
+
+    private AMQP.BasicProperties properties(String correlationId) {
+        return new AMQP.BasicProperties().builder().correlationId(correlationId).build();
+    }
+}
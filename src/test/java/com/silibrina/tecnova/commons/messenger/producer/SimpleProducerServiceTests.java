@@ -0,0 +1,130 @@
+package com.silibrina.tecnova.commons.messenger.producer;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.silibrina.tecnova.commons.messenger.Message;
+import com.silibrina.tecnova.commons.messenger.MessageStatus;
+import com.silibrina.tecnova.commons.messenger.StubBroker;
+import com.silibrina.tecnova.commons.messenger.consumer.MessageConsumer;
+import com.typesafe.config.ConfigFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.CREATE;
+import static com.silibrina.tecnova.commons.messenger.Message.MessageType.DELETE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class SimpleProducerServiceTests {
+    private StubBroker broker;
+
+    @Before
+    public void setUp() {
+        broker = StubBroker.install();
+    }
+
+    @After
+    public void cleanUp() {
+        broker.shutdown();
+        System.clearProperty("rabbitmq.publish.window.size");
+        System.clearProperty("rabbitmq.publish.window.mode");
+        System.clearProperty("rabbitmq.confirm.enabled");
+        ConfigFactory.invalidateCaches();
+    }
+
+    @Test
+    public void syncPublishTest() throws Exception {
+        String queue = newQueueName();
+        MessageConsumer consumer = new MessageConsumer(queue) {
+            @Override
+            public int handle(Message message) throws Exception {
+                if (message.getType() == DELETE) {
+                    throw new IOException("entry is gone");
+                }
+                return 7;
+            }
+        };
+        consumer.start();
+
+        SimpleProducerService producer = new SimpleProducerService(queue, true);
+        assertEquals(7, producer.publish(newMessage(CREATE, "first")));
+        assertEquals(MessageStatus.IO_ERROR.status, producer.publish(newMessage(DELETE, "first")));
+        assertEquals(Arrays.asList(7, 7),
+                producer.publishAll(Arrays.asList(newMessage(CREATE, "second"), newMessage(CREATE, "third"))));
+        assertEquals(4, broker.getAcks());
+
+        producer.close();
+        consumer.close();
+    }
+
+    @Test
+    public void asyncPublishTest() throws Exception {
+        String queue = newQueueName();
+        SimpleProducerService producer = new SimpleProducerService(queue, false);
+
+        assertEquals(MessageStatus.UNDEFINED_STATUS.status, producer.publish(newMessage(CREATE, "queued")));
+        assertEquals(1, broker.getDepth(queue));
+
+        producer.close();
+    }
+
+    @Test
+    public void windowTimeoutTest() throws Exception {
+        System.setProperty("rabbitmq.publish.window.size", "1");
+        System.setProperty("rabbitmq.publish.window.mode", "pending");
+        ConfigFactory.invalidateCaches();
+
+        String queue = newQueueName();
+        SimpleProducerService producer = new SimpleProducerService(queue, true);
+
+        // nobody answers, so both time out: the second while waiting for the slot held by the first
+        CompletableFuture<Integer> first = producer.publishAsync(newMessage(CREATE, "first"), 300, TimeUnit.MILLISECONDS);
+        CompletableFuture<Integer> second = producer.publishAsync(newMessage(CREATE, "second"), 50, TimeUnit.MILLISECONDS);
+        assertEquals(MessageStatus.UNDEFINED_STATUS.status, (int) first.get(10, TimeUnit.SECONDS));
+        assertEquals(MessageStatus.UNDEFINED_STATUS.status, (int) second.get(10, TimeUnit.SECONDS));
+
+        assertEquals("timed out messages should give their slot back", 0, producer.getInFlight());
+        assertEquals("a message that timed out waiting for a slot should not be published", 1, broker.getDepth(queue));
+
+        CompletableFuture<Integer> third = producer.publishAsync(newMessage(CREATE, "third"), 100, TimeUnit.MILLISECONDS);
+        assertEquals(MessageStatus.UNDEFINED_STATUS.status, (int) third.get(10, TimeUnit.SECONDS));
+        assertEquals(2, broker.getDepth(queue));
+
+        producer.close();
+    }
+
+    @Test
+    public void republishAfterRecoveryTest() throws Exception {
+        System.setProperty("rabbitmq.confirm.enabled", "true");
+        ConfigFactory.invalidateCaches();
+
+        String queue = newQueueName();
+        SimpleProducerService producer = new SimpleProducerService(queue, true);
+        broker.setConfirming(false);
+        CompletableFuture<Integer> answer = producer.publishAsync(newMessage(CREATE, "unconfirmed"));
+        assertEquals(1, broker.getDepth(queue));
+
+        broker.loseConnection();
+        broker.recover();
+
+        assertEquals("the unconfirmed message should be published again once the reply consumer is back",
+                2, broker.getDepth(queue));
+        assertFalse("the message should still wait for its answer", answer.isDone());
+
+        producer.close();
+    }
+
+    private static String newQueueName() {
+        return "producer-test-" + UUID.randomUUID();
+    }
+
+    private static Message newMessage(Message.MessageType type, String entryId) {
+        return new Message(type, entryId, JsonNodeFactory.instance.objectNode());
+    }
+}